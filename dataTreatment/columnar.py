@@ -0,0 +1,56 @@
+"""Loads the traces written by the simulator in the columnar format
+(control.N.format columnar), see peersim.util.ColumnarTraceWriter for the layout.
+
+    from columnar import load_trace
+    df = load_trace('simulator/logs/messages')
+
+Fixed-width columns are memory-mapped, so only the columns used are read.
+"""
+from os.path import getsize, join
+import numpy as np
+import pandas as pd
+
+NULL_LONG = np.iinfo(np.int64).min
+
+
+def map_file(path, dtype):
+    # np.memmap refuses empty files, which traces without rows have
+    if getsize(path) == 0:
+        return np.empty(0, dtype=dtype)
+    return np.memmap(path, dtype=dtype, mode='r')
+
+
+def load_column(directory, name, kind, decode_text=True):
+    if kind == 'i64':
+        values = map_file(join(directory, name + '.i64'), '<i8')
+        missing = values == NULL_LONG
+        if missing.any():
+            return pd.arrays.IntegerArray(np.asarray(values), np.asarray(missing))
+        return values
+    if kind == 'f64':
+        return map_file(join(directory, name + '.f64'), '<f8')
+    if kind == 'dict' or kind == 'node':
+        # node columns share one dictionary, so a node has the same code in all of them
+        codes = map_file(join(directory, name + '.i32'), '<i4')
+        dictionary = join(directory, name + '.dict' if kind == 'dict' else 'nodes.dict')
+        with open(dictionary, encoding='utf-8') as f:
+            categories = f.read().split('\n')[:-1]
+        return pd.Categorical.from_codes(np.asarray(codes), categories=pd.Index(categories, dtype=object))
+    if kind == 'text':
+        ends = map_file(join(directory, name + '.off'), '<i8')
+        if not decode_text:
+            return ends
+        data = map_file(join(directory, name + '.txt'), 'u1')
+        starts = np.concatenate(([0], ends[:-1]))
+        return [bytes(data[s:e]).decode('utf-8') for s, e in zip(starts, ends)]
+    raise ValueError('Unknown column type: ' + kind)
+
+
+def load_trace(directory, columns=None):
+    """Returns a trace as a DataFrame, with the given columns or all of them."""
+    with open(join(directory, 'columns.txt'), encoding='utf-8') as f:
+        schema = [line.split() for line in f if line.strip()]
+    data = {name: load_column(directory, name, kind)
+            for name, kind in schema if columns is None or name in columns}
+    rows = min(len(v) for v in data.values()) if data else 0
+    return pd.DataFrame({name: v[:rows] for name, v in data.items()})
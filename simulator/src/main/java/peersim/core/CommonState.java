@@ -77,6 +77,15 @@ public class CommonState {
   /** The current node. */
   private static Node node;
 
+  /**
+   * Per-thread time, pid, node and source of randomness, used while the parallel engine executes
+   * partitions of the network on several threads at once. It is null in sequential runs, where the
+   * fields above are used directly.
+   *
+   * @see #setThreadLocal
+   */
+  private static ThreadLocal<LocalState> local = null;
+
   /**
    * This source of randomness should be used by all components. This field is public because it
    * doesn't matter if it changes during an experiment (although it shouldn't) until no other
@@ -126,7 +135,7 @@ public class CommonState {
    * integer).
    */
   public static long getTime() {
-    return time;
+    return local == null ? time : local.get().time;
   }
 
   // -----------------------------------------------------------------
@@ -139,14 +148,15 @@ public class CommonState {
    * the same as cycle which can be safely cast into integer, so no precision is lost.
    */
   public static int getIntTime() {
-    return (int) (time >> toshift);
+    return (int) (getTime() >> toshift);
   }
 
   // -----------------------------------------------------------------
 
   /** Sets the current time. */
   public static void setTime(long t) {
-    time = t;
+    if (local == null) time = t;
+    else local.get().time = t;
   }
 
   // -----------------------------------------------------------------
@@ -198,14 +208,15 @@ public class CommonState {
    * protocol on node {@link #getNode}.
    */
   public static int getPid() {
-    return pid;
+    return local == null ? pid : local.get().pid;
   }
 
   // -----------------------------------------------------------------
 
   /** Sets the current protocol identifier. */
   public static void setPid(int p) {
-    pid = p;
+    if (local == null) pid = p;
+    else local.get().pid = p;
   }
 
   // -----------------------------------------------------------------
@@ -214,14 +225,15 @@ public class CommonState {
    * Returns the current node. When a protocol is executing, it is the node hosting the protocol.
    */
   public static Node getNode() {
-    return node;
+    return local == null ? node : local.get().node;
   }
 
   // -----------------------------------------------------------------
 
   /** Sets the current node */
   public static void setNode(Node n) {
-    node = n;
+    if (local == null) node = n;
+    else local.get().node = n;
   }
 
   // -----------------------------------------------------------------
@@ -235,6 +247,130 @@ public class CommonState {
 
   // -----------------------------------------------------------------
 
+  /**
+   * Switches time, pid and node to per-thread values, for engines that execute events on several
+   * threads. When enabled, every thread starts from the current values, and {@link #r} is replaced
+   * by a source of randomness that delegates to the one bound to the calling thread by {@link
+   * #bindPartition}, or to the original {@link #r} if there is none. When disabled, the values of
+   * the calling thread become the global ones again and the original {@link #r} is restored. Must
+   * be called while no other simulation thread is running.
+   */
+  public static void setThreadLocal(boolean enabled) {
+    if (enabled == (local != null)) return;
+    if (enabled) {
+      final long t = time;
+      final int p = pid;
+      final Node n = node;
+      local =
+          ThreadLocal.withInitial(
+              () -> {
+                LocalState s = new LocalState();
+                s.time = t;
+                s.pid = p;
+                s.node = n;
+                return s;
+              });
+      r = new ThreadRandom(r);
+    } else {
+      LocalState s = local.get();
+      time = s.time;
+      pid = s.pid;
+      node = s.node;
+      local = null;
+      r = ((ThreadRandom) r).sequential;
+    }
+  }
+
+  // -----------------------------------------------------------------
+
+  /**
+   * Binds the calling thread to the given partition of a parallel engine. The random source is used
+   * for all draws from {@link #r} made by this thread; if null, the original {@link #r} is used.
+   * Only valid after {@link #setThreadLocal}(true).
+   */
+  public static void bindPartition(int partition, ExtendedRandom random) {
+    LocalState s = local.get();
+    s.partition = partition;
+    s.random = random;
+  }
+
+  // -----------------------------------------------------------------
+
+  /**
+   * Returns the partition the calling thread has been bound to by {@link #bindPartition}, or -1 in
+   * sequential runs and for threads that are not bound.
+   */
+  public static int getPartition() {
+    return local == null ? -1 : local.get().partition;
+  }
+
+  // ======================= per-thread state ========================
+  // =================================================================
+
+  /** The values of the current time, pid, node and random source of one thread. */
+  private static final class LocalState {
+
+    private long time;
+
+    private int pid;
+
+    private Node node;
+
+    private int partition = -1;
+
+    private ExtendedRandom random;
+  }
+
+  // -----------------------------------------------------------------
+
+  /**
+   * Stands for {@link #r} while per-thread state is enabled. All draws go through {@link #next},
+   * which takes 32 bits from the random source of the calling thread; since this is exactly how
+   * {@link java.util.Random} builds its results, every thread sees the same sequence it would get
+   * using its own source directly.
+   */
+  private static final class ThreadRandom extends ExtendedRandom {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The source used by threads with no random source of their own */
+    private final ExtendedRandom sequential;
+
+    private ThreadRandom(ExtendedRandom sequential) {
+      super(sequential.getLastSeed());
+      this.sequential = sequential;
+    }
+
+    private ExtendedRandom current() {
+      ThreadLocal<LocalState> l = local;
+      if (l != null) {
+        ExtendedRandom random = l.get().random;
+        if (random != null) return random;
+      }
+      return sequential;
+    }
+
+    protected int next(int bits) {
+      return current().nextInt() >>> (32 - bits);
+    }
+
+    public double nextGaussian() {
+      return current().nextGaussian();
+    }
+
+    public void setSeed(long seed) {
+      // the superclass constructor calls this before sequential is set
+      if (sequential == null) super.setSeed(seed);
+      else current().setSeed(seed);
+    }
+
+    public long getLastSeed() {
+      return current().getLastSeed();
+    }
+  }
+
+  // -----------------------------------------------------------------
+
   /*
   public static void main(String pars[]) {
 
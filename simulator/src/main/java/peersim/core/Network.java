@@ -22,6 +22,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 import peersim.config.Configuration;
 import peersim.kademlia.KademliaProtocol;
+import peersim.kademlia.NodeIndex;
 
 /**
  * This class forms the basic framework of all simulations. This is a static singleton which is
@@ -103,6 +104,7 @@ public class Network {
       prototype = null;
       node = null;
     }
+    NodeIndex.clear();
 
     len = Configuration.getInt(PAR_SIZE);
     int maxlen = Configuration.getInt(PAR_MAXSIZE, len);
@@ -185,6 +187,7 @@ public class Network {
     node[len] = n;
     n.setIndex(len);
     len++;
+    NodeIndex.add(n);
   }
 
   // ------------------------------------------------------------------
@@ -210,6 +213,7 @@ public class Network {
     Node n = node[len - 1]; // if len was zero this throws and exception
     node[len - 1] = null;
     len--;
+    NodeIndex.remove(n);
     n.setFailState(Fallible.DEAD);
     return n;
   }
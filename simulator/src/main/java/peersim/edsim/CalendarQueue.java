@@ -0,0 +1,470 @@
+/*
+ * Copyright (c)2008 The Peersim Team
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.edsim;
+
+import peersim.config.Configuration;
+import peersim.config.IllegalParameterException;
+import peersim.core.CommonState;
+import peersim.core.Node;
+
+/**
+ * A calendar queue (R. Brown, "Calendar queues: a fast O(1) priority queue implementation for the
+ * simulation event set problem", CACM 1988) used as the event queue of the event driven engine. It
+ * can be used instead of the default {@link Heap} by setting <code>simulation.eventqueue</code> to
+ * <code>peersim.edsim.CalendarQueue</code>.
+ *
+ * <p>Events are ordered exactly like in {@link Heap}: by the key <code>(time &lt;&lt; pbits) |
+ * priority</code>, where the priority of events added without an explicit one is drawn from {@link
+ * CommonState#r} in the same way. Seeded runs therefore consume the same random numbers and execute
+ * events in the same order; the only difference is that events with an identical key are returned
+ * in insertion order instead of an unspecified one.
+ *
+ * <p>The key space is divided into buckets ("days") of a fixed width, hashed into a circular array
+ * ("year"). Every bucket is a sorted linked list. The number of buckets is doubled or halved as the
+ * queue grows or shrinks, and at each resize the bucket width is re-estimated from the separation
+ * of the earliest events, so that enqueue and dequeue take amortized constant time. Like {@link
+ * Heap}, entries are kept in parallel arrays (linked by index) to avoid allocating an object per
+ * event.
+ *
+ * @version $Revision: 1.0 $
+ */
+public class CalendarQueue implements PriorityQ {
+
+  // --------------------------------------------------------------------------
+  // Constants
+  // --------------------------------------------------------------------------
+
+  /**
+   * This parameter specifies how many bits are used to order events that occur at the same time.
+   * Defaults to 8. A value smaller than 8 causes an IllegalParameterException. Higher values allow
+   * for a better discrimination, but reduce the maximal time steps that can be simulated.
+   *
+   * @config
+   */
+  private static final String PAR_PBITS = "pbits";
+
+  private static final String PAR_PBITS_LEGACY = "simulation.timebits";
+
+  /**
+   * Specifies the initial capacity of the queue. Defaults to 65536.
+   *
+   * @config
+   */
+  private static final String PAR_SIZE = "size";
+
+  /** Minimal number of buckets; the calendar is never shrunk below this. */
+  private static final int MIN_BUCKETS = 16;
+
+  /** Number of events sampled to estimate the bucket width at resize time. */
+  private static final int WIDTH_SAMPLES = 25;
+
+  /** Marks the end of a bucket list, or an empty bucket. */
+  private static final int NIL = -1;
+
+  // --------------------------------------------------------------------------
+  // Fields
+  // --------------------------------------------------------------------------
+
+  /** Event component of the entries */
+  private Object[] events;
+
+  /** Key component of the entries (time and priority packed together) */
+  private long[] keys;
+
+  /** Node component of the entries */
+  private Node[] nodes;
+
+  /** Pid component of the entries */
+  private byte[] pids;
+
+  /** Index of the next entry in the same bucket (or in the free list) */
+  private int[] next;
+
+  /** Head of the list of unused entries */
+  private int free;
+
+  /** First (smallest key) entry of every bucket */
+  private int[] buckets;
+
+  /** buckets.length - 1; the number of buckets is always a power of two */
+  private int mask;
+
+  /** Width of a bucket, in key units */
+  private long width;
+
+  /** Virtual bucket (key / width) the dequeue scan is at. No event has a smaller virtual bucket. */
+  private long current;
+
+  /** Bucket whose head was last returned by {@link #first()} */
+  private int firstBucket;
+
+  /** Number of elements */
+  private int size;
+
+  /** Singleton event object used to return (event, time, node, pid) tuples */
+  private final Event ev = new Event();
+
+  /** The number of bits reserved to order event with the same timestamp */
+  private final int pbits;
+
+  /** The mask to test whether the time value fits into the range we can represent */
+  private final long overflowMask;
+
+  /** Scratch space used to estimate the bucket width */
+  private final int[] sample = new int[WIDTH_SAMPLES];
+
+  // --------------------------------------------------------------------------
+  // Contructor
+  // --------------------------------------------------------------------------
+
+  /** Initializes a new calendar queue using defaults. */
+  public CalendarQueue() {
+    this(""); // "" is not a valid prefix for a component
+  }
+
+  // --------------------------------------------------------------------------
+
+  /** Initializes a new calendar queue using the configuration. */
+  public CalendarQueue(String prefix) {
+
+    int size = Configuration.getInt(prefix + "." + PAR_SIZE, 65536);
+
+    // same handling of the legacy parameter name as in Heap
+    if (!Configuration.contains(PAR_PBITS_LEGACY))
+      pbits = Configuration.getInt(prefix + "." + PAR_PBITS, 8);
+    else {
+      pbits = Configuration.getInt(PAR_PBITS_LEGACY);
+      if (Configuration.contains(prefix + "." + PAR_PBITS))
+        throw new IllegalParameterException(
+            PAR_PBITS_LEGACY,
+            "Your configuration file contains both "
+                + prefix
+                + "."
+                + PAR_PBITS
+                + " and "
+                + PAR_PBITS_LEGACY
+                + "; please remove "
+                + PAR_PBITS_LEGACY);
+    }
+
+    if (pbits < 8 || pbits >= 31) {
+      throw new IllegalParameterException(
+          prefix + "." + PAR_PBITS, "This parameter should be >= 8 or < 31");
+    }
+    overflowMask = ~maxTime();
+
+    if (size < 1) size = 1;
+    events = new Object[size];
+    keys = new long[size];
+    nodes = new Node[size];
+    pids = new byte[size];
+    next = new int[size];
+    linkFree(0, size);
+
+    buckets = newBuckets(MIN_BUCKETS);
+    mask = MIN_BUCKETS - 1;
+    // start with one time unit per bucket; re-estimated at the first resize
+    width = 1L << pbits;
+    current = 0;
+  }
+
+  // --------------------------------------------------------------------------
+  // Methods
+  // --------------------------------------------------------------------------
+
+  /** Returns the current number of events in the system. */
+  public int size() {
+    return size;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Add a new event, to be scheduled at the specified time.
+   *
+   * @param time the time at which this event should be scheduled
+   * @param event the object describing the event
+   * @param node the node at which the event has to be delivered
+   * @param pid the protocol that handles the event
+   */
+  public void add(long time, Object event, Node node, byte pid) {
+    add(time, event, node, pid, CommonState.r.nextInt(1 << pbits));
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Add a new event, to be scheduled at the specified time.
+   *
+   * @param time the time at which this event should be scheduled
+   * @param event the object describing the event
+   * @param node the node at which the event has to be delivered
+   * @param pid the protocol that handles the event
+   * @param priority the priority of the event among the ones scheduled at the same time
+   */
+  public void add(long time, Object event, Node node, byte pid, long priority) {
+    if ((time & overflowMask) != 0)
+      throw new IllegalArgumentException("Time overflow: time=" + time);
+
+    if (free == NIL) doubleCapacity();
+    int e = free;
+    free = next[e];
+
+    keys[e] = (time << pbits) | priority;
+    events[e] = event;
+    nodes[e] = node;
+    pids[e] = pid;
+
+    if (size == 0) current = keys[e] / width;
+    enqueue(e);
+    size++;
+
+    if (size > 2 * buckets.length) resize(buckets.length * 2);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Removes the first event in the queue and returns it. Note that, to avoid garbage collection, a
+   * singleton instance of the Event class is used. This means that data contained in the returned
+   * event are overwritten when a new invocation of this method is performed.
+   *
+   * @return first event or null if size is zero
+   */
+  public Event removeFirst() {
+
+    if (size == 0) return null;
+
+    int e = dequeue();
+    ev.time = keys[e] >> pbits;
+    ev.event = events[e];
+    ev.node = nodes[e];
+    ev.pid = pids[e];
+    release(e);
+
+    if (size < buckets.length / 2 && buckets.length > MIN_BUCKETS) resize(buckets.length / 2);
+    return ev;
+  }
+
+  // --------------------------------------------------------------------------
+
+  public long firstTime() {
+    return size == 0 ? Long.MAX_VALUE : keys[first()] >> pbits;
+  }
+
+  // --------------------------------------------------------------------------
+
+  public long maxTime() {
+    return Long.MAX_VALUE >> pbits;
+  }
+
+  // --------------------------------------------------------------------------
+
+  public long maxPriority() {
+    return (1L << pbits) - 1;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /** Prints the time values contained in the queue, bucket by bucket. */
+  public String toString() {
+    StringBuffer buffer = new StringBuffer();
+    buffer.append("[Size: " + size + " Buckets: " + buckets.length + " Times: ");
+    for (int b = 0; b < buckets.length; b++) {
+      for (int e = buckets[b]; e != NIL; e = next[e]) {
+        buffer.append((keys[e] >> pbits) + ",");
+      }
+    }
+    buffer.append("]");
+    return buffer.toString();
+  }
+
+  // --------------------------------------------------------------------------
+  // Private methods
+  // --------------------------------------------------------------------------
+
+  /** Links entry e into its bucket, keeping the bucket sorted (FIFO among equal keys). */
+  private void enqueue(int e) {
+    long key = keys[e];
+    long vb = key / width;
+    // an event earlier than the scan position (same time, smaller priority)
+    if (vb < current) current = vb;
+
+    int b = (int) (vb & mask);
+    int prev = NIL;
+    int cur = buckets[b];
+    while (cur != NIL && keys[cur] <= key) {
+      prev = cur;
+      cur = next[cur];
+    }
+    next[e] = cur;
+    if (prev == NIL) buckets[b] = e;
+    else next[prev] = e;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /** Unlinks and returns the entry with the smallest key. The queue must not be empty. */
+  private int dequeue() {
+    int e = first();
+    buckets[firstBucket] = next[e];
+    size--;
+    return e;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Returns the entry with the smallest key, which is the head of bucket {@link #firstBucket}. The
+   * queue must not be empty.
+   */
+  private int first() {
+    // scan at most one year starting from the current day
+    for (int i = 0; i < buckets.length; i++) {
+      int b = (int) (current & mask);
+      int head = buckets[b];
+      if (head != NIL && keys[head] / width == current) {
+        firstBucket = b;
+        return head;
+      }
+      current++;
+    }
+
+    // the next event is more than one year away: direct search among the bucket heads
+    int min = NIL;
+    for (int b = 0; b < buckets.length; b++) {
+      int head = buckets[b];
+      if (head != NIL && (min == NIL || keys[head] < keys[min])) {
+        min = head;
+        firstBucket = b;
+      }
+    }
+    current = keys[min] / width;
+    return min;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Changes the number of buckets, re-estimating the bucket width from the separation of the
+   * earliest events in the queue.
+   */
+  private void resize(int newSize) {
+
+    // take out the earliest events to estimate the width; they are put back afterwards
+    int n = Math.min(size, WIDTH_SAMPLES);
+    for (int i = 0; i < n; i++) sample[i] = dequeue();
+    long newWidth = estimateWidth(n);
+
+    int[] old = buckets;
+    buckets = newBuckets(newSize);
+    mask = newSize - 1;
+    width = newWidth;
+    current = n > 0 ? keys[sample[0]] / width : Long.MAX_VALUE;
+
+    // the sampled events first: they were inserted before the remaining events of the same key
+    for (int i = 0; i < n; i++) enqueue(sample[i]);
+    for (int b = 0; b < old.length; b++) {
+      int e = old[b];
+      while (e != NIL) {
+        int nx = next[e];
+        enqueue(e);
+        e = nx;
+      }
+    }
+    size += n;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Returns three times the average separation of the n sampled keys, ignoring separations larger
+   * than twice the plain average (which would be caused by a few isolated future events).
+   */
+  private long estimateWidth(int n) {
+    if (n < 2) return width;
+
+    long total = keys[sample[n - 1]] - keys[sample[0]];
+    double avg = (double) total / (n - 1);
+
+    double sum = 0;
+    int count = 0;
+    for (int i = 1; i < n; i++) {
+      long sep = keys[sample[i]] - keys[sample[i - 1]];
+      if (sep <= 2 * avg) {
+        sum += sep;
+        count++;
+      }
+    }
+    long w = count > 0 ? (long) (3 * sum / count) : (long) (3 * avg);
+    return Math.max(1, w);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /** Clears the references held by entry e and puts it back into the free list. */
+  private void release(int e) {
+    events[e] = null;
+    nodes[e] = null;
+    next[e] = free;
+    free = e;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /** Chains the entries from..to-1 into the free list. */
+  private void linkFree(int from, int to) {
+    for (int i = from; i < to - 1; i++) next[i] = i + 1;
+    next[to - 1] = NIL;
+    free = from;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /** */
+  private static int[] newBuckets(int n) {
+    int[] b = new int[n];
+    for (int i = 0; i < n; i++) b[i] = NIL;
+    return b;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /** */
+  private void doubleCapacity() {
+    int oldsize = events.length;
+    int newsize = oldsize * 2;
+    Object[] te = new Object[newsize];
+    System.arraycopy(events, 0, te, 0, oldsize);
+    events = te;
+    long[] tk = new long[newsize];
+    System.arraycopy(keys, 0, tk, 0, oldsize);
+    keys = tk;
+    Node[] tn = new Node[newsize];
+    System.arraycopy(nodes, 0, tn, 0, oldsize);
+    nodes = tn;
+    byte[] tp = new byte[newsize];
+    System.arraycopy(pids, 0, tp, 0, oldsize);
+    pids = tp;
+    int[] tx = new int[newsize];
+    System.arraycopy(next, 0, tx, 0, oldsize);
+    next = tx;
+    linkFree(oldsize, newsize);
+  }
+} // END CalendarQueue
@@ -97,6 +97,25 @@ public class EDSimulator {
    */
   private static final String PAR_PQ = "simulation.eventqueue";
 
+  /**
+   * The number of threads used to execute events. If larger than 1, the nodes are partitioned and
+   * executed by {@link ParallelEDSimulator}. Defaults to 1.
+   *
+   * @config
+   */
+  public static final String PAR_THREADS = "simulation.threads";
+
+  /**
+   * The number of partitions of the nodes for the parallel engine, executed by {@value
+   * #PAR_THREADS} threads. Results are deterministic for a given seed, number of partitions and
+   * lookahead, whatever the number of threads, but differ from the sequential engine. If larger
+   * than 1, the parallel engine is used even with a single thread. Defaults to the number of
+   * threads.
+   *
+   * @config
+   */
+  public static final String PAR_PARTITIONS = "simulation.partitions";
+
   /**
    * This is the prefix for initializers. These have to be of type {@link Control}. They are run at
    * the beginning of each experiment, in the order specified by the configuration.
@@ -133,9 +152,12 @@ public class EDSimulator {
   /** Holds the control schedulers of this simulation */
   private static Scheduler[] ctrlSchedules = null;
 
-  /** Ordered list of events (heap) */
+  /** Ordered list of events (heap); only control events when the parallel engine is used */
   private static PriorityQ heap = null;
 
+  /** The parallel engine, or null if events are executed sequentially */
+  private static ParallelEDSimulator engine = null;
+
   private static long nextlog = 0;
 
   // =============== initialization ======================================
@@ -257,44 +279,43 @@ public class EDSimulator {
     } else if (ev.node != Network.prototype && ev.node.isUp()) {
       CommonState.setPid(pid);
       CommonState.setNode(ev.node);
-      if (ev.event instanceof NextCycleEvent) {
-        NextCycleEvent nce = (NextCycleEvent) ev.event;
-        nce.execute();
-      } else {
-        EDProtocol prot = null;
-        try {
-          /*
-          if (pid == 0) {
-              System.out.println("Event: " + ev.toString());
-              return false;
-          }*/
-          prot = (EDProtocol) ev.node.getProtocol(pid);
-        } catch (ClassCastException e) {
-          e.printStackTrace();
-          throw new IllegalArgumentException(
-              "Protocol "
-                  + Configuration.lookupPid(pid)
-                  + " does not implement EDProtocol; "
-                  + ev.event.getClass());
-        }
-        /*System.out.println(
-        "Node "
-            + ev.node.getID()
-            + " "
-            + prot
-            + " "
-            + pid
-            + " "
-            + ev.node.getProtocol(4)
-            + " "
-            + ev.node.getProtocol(5));*/
-        prot.processEvent(ev.node, pid, ev.event);
-      }
+      deliver(ev.node, pid, ev.event);
     }
 
     return false;
   }
 
+  // ---------------------------------------------------------------------
+
+  /** Delivers an event to the given protocol of a node, which must be up. */
+  static void deliver(Node node, int pid, Object event) {
+    if (event instanceof NextCycleEvent) {
+      NextCycleEvent nce = (NextCycleEvent) event;
+      nce.execute();
+    } else {
+      EDProtocol prot = null;
+      try {
+        prot = (EDProtocol) node.getProtocol(pid);
+      } catch (ClassCastException e) {
+        e.printStackTrace();
+        throw new IllegalArgumentException(
+            "Protocol "
+                + Configuration.lookupPid(pid)
+                + " does not implement EDProtocol; "
+                + event.getClass());
+      }
+      prot.processEvent(node, pid, event);
+    }
+  }
+
+  // ---------------------------------------------------------------------
+
+  /** Creates an empty event queue, as specified by {@value #PAR_PQ}. */
+  static PriorityQ newQueue() {
+    if (Configuration.contains(PAR_PQ)) return (PriorityQ) Configuration.getInstance(PAR_PQ);
+    else return new Heap();
+  }
+
   // ---------------------------------------------------------------------
   // Public methods
   // ---------------------------------------------------------------------
@@ -302,8 +323,7 @@ public class EDSimulator {
   /** Runs an experiment, resetting everything except the random seed. */
   public static void nextExperiment() {
     // Reading parameter
-    if (Configuration.contains(PAR_PQ)) heap = (PriorityQ) Configuration.getInstance(PAR_PQ);
-    else heap = new Heap();
+    heap = newQueue();
     endtime = Configuration.getLong(PAR_ENDTIME);
     if (CommonState.getEndTime() < 0) // not initialized yet
     CommonState.setEndTime(endtime);
@@ -312,6 +332,12 @@ public class EDSimulator {
           PAR_ENDTIME,
           "End time is too large: configured event queue only" + " supports " + heap.maxTime());
     logtime = Configuration.getLong(PAR_LOGTIME, Long.MAX_VALUE);
+    int threads = Configuration.getInt(PAR_THREADS, 1);
+    int partitions = Configuration.getInt(PAR_PARTITIONS, threads);
+    engine =
+        partitions > 1
+            ? new ParallelEDSimulator(partitions, threads, heap, endtime, logtime)
+            : null;
 
     // initialization
     System.err.println("EDSimulator: resetting");
@@ -327,9 +353,13 @@ public class EDSimulator {
 
     // Perform the actual simulation; executeNext() will tell when to
     // stop.
-    boolean exit = false;
-    while (!exit) {
-      exit = executeNext();
+    if (engine != null) {
+      engine.run();
+    } else {
+      boolean exit = false;
+      while (!exit) {
+        exit = executeNext();
+      }
     }
 
     // analysis after the simulation
@@ -342,8 +372,7 @@ public class EDSimulator {
   /** Runs an experiment, resetting everything except the random seed. */
   public static void inits() {
     // Reading parameter
-    if (Configuration.contains(PAR_PQ)) heap = (PriorityQ) Configuration.getInstance(PAR_PQ);
-    else heap = new Heap();
+    heap = newQueue();
     endtime = Configuration.getLong(PAR_ENDTIME);
     if (CommonState.getEndTime() < 0) // not initialized yet
     CommonState.setEndTime(endtime);
@@ -352,6 +381,12 @@ public class EDSimulator {
           PAR_ENDTIME,
           "End time is too large: configured event queue only" + " supports " + heap.maxTime());
     logtime = Configuration.getLong(PAR_LOGTIME, Long.MAX_VALUE);
+    int threads = Configuration.getInt(PAR_THREADS, 1);
+    int partitions = Configuration.getInt(PAR_PARTITIONS, threads);
+    engine =
+        partitions > 1
+            ? new ParallelEDSimulator(partitions, threads, heap, endtime, logtime)
+            : null;
 
     // initialization
     System.err.println("EDSimulator: resetting");
@@ -391,7 +426,9 @@ public class EDSimulator {
           "This version does not support more than " + Byte.MAX_VALUE + " protocols");
 
     long time = CommonState.getTime();
-    if (endtime - time > delay) // check like this to deal with overflow
-    heap.add(time + delay, event, node, (byte) pid);
+    if (endtime - time > delay) { // check like this to deal with overflow
+      if (engine != null) engine.add(time + delay, event, node, (byte) pid);
+      else heap.add(time + delay, event, node, (byte) pid);
+    }
   }
 }
@@ -205,6 +205,12 @@ public class Heap implements PriorityQ {
 
   // --------------------------------------------------------------------------
 
+  public long firstTime() {
+    return size == 0 ? Long.MAX_VALUE : times[0] >> pbits;
+  }
+
+  // --------------------------------------------------------------------------
+
   public long maxTime() {
     return Long.MAX_VALUE >> pbits;
   }
@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.edsim;
+
+import java.util.*;
+import java.util.concurrent.*;
+import peersim.config.*;
+import peersim.core.*;
+import peersim.transport.UniformRandomTransport;
+import peersim.util.ExtendedRandom;
+import peersim.util.IdSequence;
+import peersim.util.TraceWriter;
+
+/**
+ * Conservative, time-windowed parallel engine used by {@link EDSimulator} when {@value
+ * EDSimulator#PAR_PARTITIONS} is larger than 1.
+ *
+ * <p>Nodes are partitioned by {@link Node#getID()}, and the partitions are executed by a pool of
+ * threads. Each partition has its own event queue and its own source of randomness, bound to {@link
+ * CommonState#r} while it runs. Time advances in windows <code>[T, T+L)</code>, where L is the
+ * lookahead: the minimal delay of a message between two nodes. Since no event executed inside the
+ * window can cause an event on another partition before <code>T+L</code>, all partitions execute
+ * their window concurrently; events for other partitions are kept in per-partition mailboxes and
+ * delivered at the beginning of the next window. Windows never cross the time of a control, and
+ * controls are executed alone between windows.
+ *
+ * <p>Given the seed, the number of partitions and the lookahead, the events are executed in a
+ * deterministic order: every partition executes its events in queue order and draws from its own
+ * random source, and mailboxes are merged in partition order with the priority drawn by the sender.
+ * The rows added to a {@link TraceWriter} are kept per partition and written at the end of each
+ * window, in partition order. Nothing depends on the number of threads, so such runs are identical
+ * whatever the number of threads; they are not identical to the sequential engine, which remains
+ * the reference, nor to runs with another number of partitions or lookahead. Statistics shared by
+ * the partitions are updated in whatever order the threads reach them, so they must not depend on
+ * that order.
+ *
+ * <p>Protocols must only exchange information through events: during a window they may read, but
+ * not modify, the state of nodes in other partitions, and shared statistics must be synchronized.
+ * An event for another partition scheduled with a delay smaller than the lookahead cannot be
+ * honoured without changing the order of events, so it stops the simulation with an {@link
+ * IllegalStateException}; the lookahead must then be set to at most that delay.
+ */
+public class ParallelEDSimulator {
+
+  // ---------------------------------------------------------------------
+  // Parameters
+  // ---------------------------------------------------------------------
+
+  /**
+   * The lookahead, i.e. a lower bound on the delay of any event that a node schedules for another
+   * node. If it is not defined, the smallest {@link UniformRandomTransport} minimum delay among the
+   * protocols of the nodes is used.
+   *
+   * @config
+   */
+  private static final String PAR_LOOKAHEAD = "simulation.lookahead";
+
+  // ---------------------------------------------------------------------
+  // Fields
+  // ---------------------------------------------------------------------
+
+  /** Number of partitions */
+  private final int size;
+
+  /** Number of threads executing the partitions */
+  private final int threads;
+
+  /** The queue of control events, executed between windows */
+  private final PriorityQ controls;
+
+  /** The partitions */
+  private final List<Partition> partitions;
+
+  /** Number of priority levels of the partition queues */
+  private final int priorities;
+
+  /** Maximum time for simulation */
+  private final long endtime;
+
+  /** Log time */
+  private final long logtime;
+
+  private long nextlog = 0;
+
+  /** Exclusive end of the current window */
+  private long windowEnd = 0;
+
+  /** Minimal delay of the events between partitions, set when the simulation starts */
+  private long lookahead;
+
+  // ---------------------------------------------------------------------
+  // Initialization
+  // ---------------------------------------------------------------------
+
+  /**
+   * Creates the engine. Events can be added from the moment it is created; they are executed by
+   * {@link #run}.
+   *
+   * @param size number of partitions
+   * @param threads number of threads
+   * @param controls the queue in which control events are scheduled
+   * @param endtime the ending time of the simulation
+   * @param logtime how often the current time is logged
+   */
+  ParallelEDSimulator(int size, int threads, PriorityQ controls, long endtime, long logtime) {
+    if (threads < 1)
+      throw new IllegalParameterException(
+          EDSimulator.PAR_THREADS, "The number of threads must be positive");
+    this.size = size;
+    this.threads = Math.min(threads, size);
+    this.controls = controls;
+    this.endtime = endtime;
+    this.logtime = logtime;
+    partitions = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      partitions.add(new Partition(i, EDSimulator.newQueue()));
+    }
+    priorities = (int) Math.min(partitions.get(0).queue.maxPriority() + 1, Integer.MAX_VALUE);
+  }
+
+  // ---------------------------------------------------------------------
+  // Methods
+  // ---------------------------------------------------------------------
+
+  /**
+   * Schedules an event. Called by {@link EDSimulator#add}, from the main thread (initializers and
+   * controls) or from the thread executing a partition.
+   */
+  void add(long time, Object event, Node node, byte pid) {
+    if (node == null)
+      throw new IllegalArgumentException("No destination specified (null) for event " + event);
+
+    Partition dest = partitions.get((int) Math.floorMod(node.getID(), (long) size));
+    int p = CommonState.getPartition();
+    if (p < 0 || p == size) {
+      // no window is being executed
+      dest.queue.add(time, event, node, pid);
+      return;
+    }
+
+    Partition src = partitions.get(p);
+    if (src == dest) {
+      src.queue.add(time, event, node, pid);
+      return;
+    }
+    if (time < windowEnd)
+      throw new IllegalStateException(
+          "Event "
+              + event
+              + " for node "
+              + node.getID()
+              + " of another partition scheduled with delay "
+              + (time - CommonState.getTime())
+              + ", below the lookahead "
+              + lookahead
+              + "; set "
+              + PAR_LOOKAHEAD
+              + " to at most this delay");
+    long priority = CommonState.r.nextInt(priorities);
+    src.outbox[dest.index].add(new Mail(time, event, node, pid, priority));
+    if (time < src.outMin) src.outMin = time;
+  }
+
+  // ---------------------------------------------------------------------
+
+  /**
+   * Runs the simulation until the end time, until the queues are empty, or until a control asks to
+   * stop.
+   */
+  void run() {
+    lookahead = lookahead();
+    System.err.println(
+        "EDSimulator: running "
+            + size
+            + " partitions on "
+            + threads
+            + " threads, lookahead "
+            + lookahead);
+
+    CommonState.setThreadLocal(true);
+    CommonState.bindPartition(size, null);
+    IdSequence.setPartitions(size + 1);
+    TraceWriter.setPartitions(size);
+    for (Partition part : partitions) part.random = new ExtendedRandom(CommonState.r.nextLong());
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      while (true) {
+        long time = controls.firstTime();
+        for (Partition part : partitions) {
+          time = Math.min(time, Math.min(part.queue.firstTime(), part.outMin));
+        }
+        if (time == Long.MAX_VALUE) {
+          System.err.println(
+              "EDSimulator: queue is empty, quitting" + " at time " + CommonState.getTime());
+          break;
+        }
+
+        if (time >= nextlog) {
+          System.err.println("Current time: " + time);
+          // seemingly complicated: to prevent overflow
+          while (time - nextlog >= logtime) nextlog += logtime;
+          if (endtime - nextlog >= logtime) nextlog += logtime;
+          else nextlog = endtime;
+        }
+        if (time >= endtime) {
+          System.err.println(
+              "EDSimulator: reached end time, quitting,"
+                  + " leaving "
+                  + pending()
+                  + " unprocessed events in the queue");
+          break;
+        }
+        CommonState.setTime(time);
+
+        if (controls.firstTime() == time) {
+          // controls scheduled at the same time as node events are executed first
+          if (((ControlEvent) controls.removeFirst().event).execute()) break;
+          continue;
+        }
+
+        windowEnd = Math.min(Math.min(time + lookahead, controls.firstTime()), endtime);
+        for (Partition part : partitions) {
+          part.outMin = Long.MAX_VALUE;
+          // hand over the mailboxes filled in the last window; the drained ones are reused
+          for (Partition dest : partitions) {
+            List<Mail> drained = dest.inbox[part.index];
+            dest.inbox[part.index] = part.outbox[dest.index];
+            part.outbox[dest.index] = drained;
+          }
+        }
+        for (Future<Void> f : pool.invokeAll(partitions)) f.get();
+        TraceWriter.mergePartitions();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error) throw (Error) e.getCause();
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+      TraceWriter.setPartitions(0);
+      IdSequence.setPartitions(0);
+      CommonState.setThreadLocal(false);
+    }
+  }
+
+  // ---------------------------------------------------------------------
+  // Private methods
+  // ---------------------------------------------------------------------
+
+  /** Reads the lookahead, or takes the smallest delay of the transports of the prototype node. */
+  private static long lookahead() {
+    long lookahead = Configuration.getLong(PAR_LOOKAHEAD, -1);
+    if (lookahead < 0) {
+      lookahead = Long.MAX_VALUE;
+      for (int i = 0; i < Network.prototype.protocolSize(); i++) {
+        Protocol prot = Network.prototype.getProtocol(i);
+        if (prot instanceof UniformRandomTransport)
+          lookahead = Math.min(lookahead, ((UniformRandomTransport) prot).getMinDelay());
+      }
+      if (lookahead == Long.MAX_VALUE)
+        throw new IllegalParameterException(
+            PAR_LOOKAHEAD, "No UniformRandomTransport found; the lookahead must be specified");
+    }
+    if (lookahead < 1)
+      throw new IllegalParameterException(PAR_LOOKAHEAD, "The lookahead must be positive");
+    return lookahead;
+  }
+
+  // ---------------------------------------------------------------------
+
+  /** Number of events in the partition queues and mailboxes */
+  private int pending() {
+    int n = 0;
+    for (Partition part : partitions) {
+      n += part.queue.size();
+      for (List<Mail> out : part.outbox) n += out.size();
+    }
+    return n;
+  }
+
+  // ---------------------------------------------------------------------
+  // Inner classes
+  // ---------------------------------------------------------------------
+
+  /** An event sent to another partition, waiting for the end of the window. */
+  private static final class Mail {
+
+    private final long time;
+
+    private final Object event;
+
+    private final Node node;
+
+    private final byte pid;
+
+    private final long priority;
+
+    private Mail(long time, Object event, Node node, byte pid, long priority) {
+      this.time = time;
+      this.event = event;
+      this.node = node;
+      this.pid = pid;
+      this.priority = priority;
+    }
+  }
+
+  // ---------------------------------------------------------------------
+
+  /** A set of nodes with its own queue; executes one window when called. */
+  private final class Partition implements Callable<Void> {
+
+    private final int index;
+
+    private final PriorityQ queue;
+
+    /** Events for the other partitions sent in this window, by destination partition */
+    private final List<Mail>[] outbox;
+
+    /** Events from the other partitions sent in the last window, by source partition */
+    private final List<Mail>[] inbox;
+
+    /** Smallest time in the outbox since the end of the last window */
+    private long outMin = Long.MAX_VALUE;
+
+    private ExtendedRandom random;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Partition(int index, PriorityQ queue) {
+      this.index = index;
+      this.queue = queue;
+      outbox = new List[size];
+      inbox = new List[size];
+      for (int i = 0; i < size; i++) {
+        outbox[i] = new ArrayList<>();
+        inbox[i] = new ArrayList<>();
+      }
+    }
+
+    public Void call() {
+      CommonState.bindPartition(index, random);
+
+      // deliver the events sent to this partition during the previous window
+      for (List<Mail> in : inbox) {
+        for (Mail m : in) queue.add(m.time, m.event, m.node, m.pid, m.priority);
+        in.clear();
+      }
+
+      final long end = windowEnd;
+      while (queue.firstTime() < end) {
+        PriorityQ.Event ev = queue.removeFirst();
+        CommonState.setTime(ev.time);
+        if (ev.node != Network.prototype && ev.node.isUp()) {
+          CommonState.setPid(ev.pid);
+          CommonState.setNode(ev.node);
+          EDSimulator.deliver(ev.node, ev.pid, ev.event);
+        }
+      }
+      return null;
+    }
+  }
+}
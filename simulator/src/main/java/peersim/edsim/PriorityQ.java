@@ -78,6 +78,12 @@ public interface PriorityQ {
    */
   public long maxPriority();
 
+  /**
+   * Returns the time of the first event without removing it, or <code>Long.MAX_VALUE</code> if the
+   * queue is empty.
+   */
+  public long firstTime();
+
   /** Return type of {@link #removeFirst()}. */
   public class Event {
     public Object event;
@@ -48,6 +48,7 @@ public class CustomDistribution implements peersim.core.Control {
       generalNode.setKademliaProtocol(kadProt);
       kadProt.setNode(node);
       kadProt.setProtocolID(protocolID);
+      NodeIndex.add(generalNode);
     }
 
     return false;
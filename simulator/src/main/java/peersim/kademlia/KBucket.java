@@ -1,25 +1,39 @@
 package peersim.kademlia;
 
-import java.math.BigInteger;
-import java.util.TreeMap;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
 import peersim.core.CommonState;
 
 /**
  * This class implements a kademlia k-bucket. Functions for the management of the neighbours update
  * are also implemented.
  *
+ * <p>The neighbours are kept sorted by ID in an array of at most K entries, with their last-seen
+ * times in a parallel <code>long[]</code>. Both arrays grow with the bucket, so that empty buckets
+ * only cost their header.
+ *
  * @author Daniele Furlan, Maurizio Bonani
  * @version 1.0
  */
 public class KBucket implements Cloneable {
 
-  // k-bucket array
-  protected TreeMap<BigInteger, Long> neighbours = null;
+  /** Shared storage of the buckets that never had a neighbour */
+  private static final NodeId[] NO_NODES = new NodeId[0];
 
-  /** Empty constructor for initializing the k-bucket TreeMap. */
-  public KBucket() {
-    neighbours = new TreeMap<BigInteger, Long>();
-  }
+  private static final long[] NO_TIMES = new long[0];
+
+  // k-bucket array, sorted by ID; only the first size entries are used
+  protected NodeId[] nodes = NO_NODES;
+
+  // time at which each neighbour was last added
+  protected long[] lastSeen = NO_TIMES;
+
+  // number of neighbours
+  protected int size = 0;
+
+  /** Empty constructor for initializing the k-bucket. */
+  public KBucket() {}
 
   /**
    * Add a neighbour to this k-bucket.
@@ -27,10 +41,25 @@ public class KBucket implements Cloneable {
    * @param node the neighbor to be added.
    * @return true if the neighbor is successfully added; false if the k-bucket is already full.
    */
-  public boolean addNeighbour(BigInteger node) {
+  public boolean addNeighbour(NodeId node) {
     long time = CommonState.getTime();
-    if (neighbours.size() < KademliaCommonConfig.K) { // k-bucket isn't full
-      neighbours.put(node, time); // add neighbor to the tail of the list
+    if (size < KademliaCommonConfig.K) { // k-bucket isn't full
+      int i = Arrays.binarySearch(nodes, 0, size, node);
+      if (i >= 0) { // already known, refresh it
+        lastSeen[i] = time;
+        return true;
+      }
+      if (size == nodes.length) { // grow up to K, most buckets are never full
+        int capacity = Math.min(Math.max(2 * size, 4), KademliaCommonConfig.K);
+        nodes = Arrays.copyOf(nodes, capacity);
+        lastSeen = Arrays.copyOf(lastSeen, capacity);
+      }
+      i = -i - 1;
+      System.arraycopy(nodes, i, nodes, i + 1, size - i);
+      System.arraycopy(lastSeen, i, lastSeen, i + 1, size - i);
+      nodes[i] = node;
+      lastSeen[i] = time;
+      size++;
       return true;
     }
     return false;
@@ -41,8 +70,23 @@ public class KBucket implements Cloneable {
    *
    * @param node the neighbour to be removed.
    */
-  public void removeNeighbour(BigInteger node) {
-    neighbours.remove(node);
+  public void removeNeighbour(NodeId node) {
+    int i = Arrays.binarySearch(nodes, 0, size, node);
+    if (i < 0) return;
+    size--;
+    System.arraycopy(nodes, i + 1, nodes, i, size - i);
+    System.arraycopy(lastSeen, i + 1, lastSeen, i, size - i);
+    nodes[size] = null;
+  }
+
+  /**
+   * Checks whether a node is in this k-bucket.
+   *
+   * @param node the node to look for.
+   * @return true if the node is a neighbour of this k-bucket.
+   */
+  public boolean contains(NodeId node) {
+    return Arrays.binarySearch(nodes, 0, size, node) >= 0;
   }
 
   /**
@@ -51,7 +95,47 @@ public class KBucket implements Cloneable {
    * @return the number of neighbors in the k-bucket.
    */
   public int getNeighborCount() {
-    return neighbours.size();
+    return size;
+  }
+
+  /**
+   * Returns a neighbour of the k-bucket.
+   *
+   * @param i the index of the neighbour, in ID order, between 0 and getNeighborCount() - 1.
+   * @return the ID of the neighbour.
+   */
+  public NodeId getNeighbour(int i) {
+    if (i >= size) throw new IndexOutOfBoundsException("Invalid neighbour index: " + i);
+    return nodes[i];
+  }
+
+  /**
+   * Returns the time a neighbour of the k-bucket was last added.
+   *
+   * @param i the index of the neighbour, in ID order, between 0 and getNeighborCount() - 1.
+   * @return the last-seen time of the neighbour.
+   */
+  public long getLastSeen(int i) {
+    if (i >= size) throw new IndexOutOfBoundsException("Invalid neighbour index: " + i);
+    return lastSeen[i];
+  }
+
+  /**
+   * Returns a read-only view of the neighbours, in ID order. The view reflects later changes of the
+   * k-bucket.
+   *
+   * @return the neighbours of the k-bucket.
+   */
+  public List<NodeId> getNeighbours() {
+    return new AbstractList<NodeId>() {
+      public NodeId get(int i) {
+        return getNeighbour(i);
+      }
+
+      public int size() {
+        return size;
+      }
+    };
   }
 
   /**
@@ -61,8 +145,10 @@ public class KBucket implements Cloneable {
    */
   public Object clone() {
     KBucket dolly = new KBucket();
-    for (BigInteger node : neighbours.keySet()) {
-      dolly.neighbours.put(new BigInteger(node.toByteArray()), 0l);
+    if (size > 0) {
+      dolly.nodes = nodes.clone(); // IDs are immutable and can be shared
+      dolly.lastSeen = new long[nodes.length];
+      dolly.size = size;
     }
     return dolly;
   }
@@ -75,8 +161,8 @@ public class KBucket implements Cloneable {
   public String toString() {
     String res = "{\n";
 
-    for (BigInteger node : neighbours.keySet()) {
-      res += node + "\n";
+    for (int i = 0; i < size; i++) {
+      res += nodes[i] + "\n";
     }
 
     return res + "}";
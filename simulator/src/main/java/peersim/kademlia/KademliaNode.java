@@ -5,6 +5,8 @@ import java.math.BigInteger;
 /** A Kademlia node, identified by its ID, IP address and port. */
 public class KademliaNode implements Comparable<KademliaNode> {
   private BigInteger id;
+  /** the ID of the node as a NodeId, used by the routing table and lookups */
+  private NodeId nodeId;
   /** attackerId is the ID used by Sybil nodes (when multiple nodes */
   private BigInteger attackerID;
 
@@ -26,6 +28,7 @@ public class KademliaNode implements Comparable<KademliaNode> {
    */
   public KademliaNode(BigInteger id, String addr, int port) {
     this.id = id;
+    this.nodeId = NodeId.valueOf(id);
     this.attackerID = null;
     this.addr = addr;
     this.port = port;
@@ -43,6 +46,7 @@ public class KademliaNode implements Comparable<KademliaNode> {
    */
   public KademliaNode(BigInteger id, BigInteger attackerId, String addr, int port) {
     this.id = id;
+    this.nodeId = NodeId.valueOf(id);
     this.attackerID = attackerId;
     this.addr = addr;
     this.port = port;
@@ -57,6 +61,7 @@ public class KademliaNode implements Comparable<KademliaNode> {
    */
   public KademliaNode(BigInteger id) {
     this.id = id;
+    this.nodeId = NodeId.valueOf(id);
     this.addr = "127.0.0.1";
     this.port = 666;
     this.attackerID = null;
@@ -71,6 +76,7 @@ public class KademliaNode implements Comparable<KademliaNode> {
    */
   public KademliaNode(KademliaNode n) {
     this.id = n.id;
+    this.nodeId = n.nodeId;
     this.addr = n.addr;
     this.port = n.port;
     this.is_evil = n.is_evil;
@@ -87,6 +93,15 @@ public class KademliaNode implements Comparable<KademliaNode> {
     return this.id;
   }
 
+  /**
+   * Returns the ID of the node as a NodeId.
+   *
+   * @return the ID of the node
+   */
+  public NodeId getNodeId() {
+    return this.nodeId;
+  }
+
   /**
    * Returns the attacker ID of the node.
    *
@@ -1,41 +1,58 @@
 package peersim.kademlia;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
 import peersim.config.Configuration;
+import peersim.config.IllegalParameterException;
 import peersim.core.CommonState;
 import peersim.core.Control;
 import peersim.core.Network;
 import peersim.kademlia.das.Neighbour;
 import peersim.kademlia.das.SearchTable;
+import peersim.kademlia.das.operations.SamplingOperation;
 import peersim.kademlia.operations.Operation;
+import peersim.util.ColumnarTraceWriter;
+import peersim.util.ColumnarTraceWriter.Type;
+import peersim.util.CsvTraceWriter;
+import peersim.util.Histogram;
 import peersim.util.IncrementalStats;
+import peersim.util.TraceWriter;
 
 /**
  * This class implements a simple observer of search time and hop average in finding a node in the
  * network
  *
+ * <p>Messages, operations and peer discoveries are written to logs in the log folder as they are
+ * reported, each with a fixed set of columns. Parameter <code>format</code> selects CSV files (
+ * <code>csv</code>, the default) or the binary format of {@link ColumnarTraceWriter} (<code>
+ * columnar</code>), and <code>buffer</code> the number of rows of each log that may wait to be
+ * written (default 65536).
+ *
  * @author Daniele Furlan, Maurizio Bonani
  * @version 1.0
  */
 public class KademliaObserver implements Control {
 
+  // The report methods and the statistics below may be used concurrently by the parallel engine;
+  // they are guarded by the class lock.
+
   /** Configuration strings to read */
   private static final String PAR_STEP = "step";
 
   private static final String PAR_FOLDER = "logfolder";
 
+  private static final String PAR_BUFFER = "buffer";
+
+  private static final String PAR_FORMAT = "format";
+
   /** keep statistics of the number of hops of every message delivered. */
-  public static IncrementalStats hopStore = new IncrementalStats();
+  public static Histogram hopStore = new Histogram();
 
   /** keep statistics of the time every message delivered. */
-  public static IncrementalStats timeStore = new IncrementalStats();
+  public static Histogram timeStore = new Histogram();
 
   /** keep statistic of number of message delivered */
   public static IncrementalStats msg_deliv = new IncrementalStats();
@@ -49,22 +66,96 @@ public class KademliaObserver implements Control {
   /** Successfull find operations */
   public static IncrementalStats find_ok = new IncrementalStats();
 
-  /** Messages exchanged in the Kademlia network */
-  private static HashMap<Long, Map<String, Object>> messages =
-      new HashMap<Long, Map<String, Object>>();
-
-  /** Log of operations in the Kademlia network */
-  private static HashMap<Long, Map<String, Object>> operations =
-      new HashMap<Long, Map<String, Object>>();
+  /** Completion time of the completed sampling operations, by type of operation */
+  private static TreeMap<String, Histogram> samplingTime = new TreeMap<String, Histogram>();
+
+  /** Number of sampling operations reported, by type of operation */
+  private static TreeMap<String, Long> samplingCount = new TreeMap<String, Long>();
+
+  /** Time from the start of a block to a validator holding all the samples of its region */
+  private static Histogram custodyTime = new Histogram();
+
+  /** Number of blocks validators expected samples for, over all validators */
+  private static long custodyCount = 0;
+
+  /** Columns of the message log */
+  private static final String[] MESSAGE_COLUMNS = {"id", "type", "src", "dst", "status", "time"};
+
+  private static final Type[] MESSAGE_TYPES = {
+    Type.LONG, Type.DICT, Type.NODE, Type.NODE, Type.DICT, Type.LONG
+  };
+
+  /** Columns of the operation log, covering the fields of every kind of operation */
+  private static final String[] OPERATION_COLUMNS = {
+    "id",
+    "type",
+    "src",
+    "start",
+    "stop",
+    "completion_time",
+    "completed",
+    "hops",
+    "messages",
+    "num_messages",
+    "block_id",
+    "row",
+    "column",
+    "validator",
+    "samples"
+  };
+
+  private static final Type[] OPERATION_TYPES = {
+    Type.LONG, // id
+    Type.DICT, // type
+    Type.NODE, // src
+    Type.LONG, // start
+    Type.LONG, // stop
+    Type.LONG, // completion_time
+    Type.DICT, // completed
+    Type.LONG, // hops
+    Type.TEXT, // messages
+    Type.LONG, // num_messages
+    Type.LONG, // block_id
+    Type.LONG, // row
+    Type.LONG, // column
+    Type.DICT, // validator
+    Type.LONG // samples
+  };
+
+  /** Columns of the peer discovery log */
+  private static final String[] PEER_DISCOVERY_COLUMNS = {
+    "time",
+    "message_id",
+    "src_id",
+    "dst_id",
+    "total_peers",
+    "total_peers_alive",
+    "peers_in_message",
+    "peers_not_known",
+    "validators_discovered"
+  };
+
+  private static final Type[] PEER_DISCOVERY_TYPES = {
+    Type.LONG, Type.LONG, Type.NODE, Type.NODE, Type.LONG, Type.LONG, Type.LONG, Type.LONG,
+    Type.LONG
+  };
+
+  /** Columns of the malicious nodes log */
+  private static final String[] MALICIOUS_COLUMNS = {"node_id", "is_malicious"};
+
+  private static final Type[] MALICIOUS_TYPES = {Type.NODE, Type.DICT};
+
+  /** Messages exchanged in the Kademlia network, created with the first message */
+  private static TraceWriter messages;
 
   /** Log of operations in the Kademlia network */
-  private static HashMap<Long, Map<String, Object>> peerDiscoveries =
-      new HashMap<Long, Map<String, Object>>();
+  private static TraceWriter operations;
 
-  private static HashMap<Long, Map<String, Object>> maliciousNodes =
-      new HashMap<Long, Map<String, Object>>();
+  /** Log of peer discoveries in the DAS network */
+  private static TraceWriter peerDiscoveries;
 
-  private static Set<BigInteger> maliciousSet = new HashSet<BigInteger>();
+  /** Log of the malicious nodes discovered */
+  private static TraceWriter maliciousNodes;
 
   /** Name of the folder where experiment logs are written */
   private static String logFolderName;
@@ -72,7 +163,11 @@ public class KademliaObserver implements Control {
   /** The time granularity of reporting metrics */
   private static int observerStep;
 
-  private static int count = 0;
+  /** Maximum number of rows of each log waiting to be written */
+  private static int bufferSize;
+
+  /** Whether the logs are written in the binary columnar format instead of CSV */
+  private static boolean columnar;
 
   /**
    * Constructor to initialize the observer.
@@ -84,68 +179,49 @@ public class KademliaObserver implements Control {
 
     logFolderName = Configuration.getString(prefix + "." + PAR_FOLDER, "./logs");
 
-    System.out.println("Logfolder: " + logFolderName);
-  }
+    bufferSize = Configuration.getInt(prefix + "." + PAR_BUFFER, 1 << 16);
 
-  private static void writeLogs(Map<Long, Map<String, Object>> map, String filename) {
-    try (FileWriter writer = new FileWriter(filename)) {
-      Set<String> keySet = new HashSet<String>();
-      for (Map<String, Object> m : map.values())
-        if (m.keySet().size() > keySet.size()) keySet = m.keySet();
-
-      // Set<String> keySet = map.entrySet().iterator().next().getValue().keySet();
-      String header = "";
-      for (Object key : keySet) {
-        header += key + ",";
-      }
+    String format = Configuration.getString(prefix + "." + PAR_FORMAT, "csv");
+    if (!format.equals("csv") && !format.equals("columnar"))
+      throw new IllegalParameterException(
+          prefix + "." + PAR_FORMAT, "Unknown log format " + format + ", use csv or columnar");
+    columnar = format.equals("columnar");
 
-      // Write the comma seperated keys as the header of the file
-      header = header.substring(0, header.length() - 1);
-      header += "\n";
-      writer.write(header);
-      // Iterate through each find operation and write its data to the file
-      for (Map<String, Object> entry : map.values()) {
-        String line = "";
-        for (Object key : keySet) {
-          if (entry.get(key) != null) line += entry.get(key).toString() + ",";
-          else line += ",";
-        }
-
-        // Remove the last comma and add a newline character
-        line = line.substring(0, line.length() - 1);
-        line += "\n";
-        writer.write(line);
-      }
-      writer.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    map.clear();
+    System.out.println("Logfolder: " + logFolderName);
   }
 
-  /** Writes log data to files. */
-  public static void writeOut() {
-
-    // First collect the malicious nodes:
-    reportMaliciousNodes();
-    // System.out.println("Writing out");
-
+  /**
+   * Creates a log in the log folder, and the folder itself if needed. The log is the file <code>
+   * name.csv</code>, or the directory <code>name</code> in the columnar format.
+   *
+   * @return the writer of the log, or null if the log cannot be created
+   */
+  private static TraceWriter openLog(String name, String[] columns, Type[] types) {
     File directory = new File(logFolderName);
     if (!directory.exists()) {
       directory.mkdir();
     }
-    // Write messages log to file if not empty
-    if (!messages.isEmpty()) {
-      writeLogs(messages, logFolderName + "/" + "messages.csv");
-    }
-    if (!operations.isEmpty()) {
-      writeLogs(operations, logFolderName + "/" + "operation.csv");
-    }
-    if (!peerDiscoveries.isEmpty()) {
-      writeLogs(peerDiscoveries, logFolderName + "/" + "peerDiscoveries.csv");
+    try {
+      TraceWriter writer =
+          columnar
+              ? new ColumnarTraceWriter(new File(directory, name), columns, types, bufferSize)
+              : new CsvTraceWriter(new File(directory, name + ".csv"), columns, bufferSize);
+      Runtime.getRuntime().addShutdownHook(new Thread(writer::close));
+      return writer;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
     }
-    if (!maliciousNodes.isEmpty()) {
-      writeLogs(maliciousNodes, logFolderName + "/" + "listMalicious.csv");
+  }
+
+  /**
+   * Writes the rows reported so far to the log files. Rows are written as they are reported, so
+   * this only waits for the writers to catch up.
+   */
+  public static synchronized void writeOut() {
+    for (TraceWriter writer :
+        new TraceWriter[] {messages, operations, peerDiscoveries, maliciousNodes}) {
+      if (writer != null) writer.flush();
     }
   }
 
@@ -164,44 +240,101 @@ public class KademliaObserver implements Control {
     }
 
     System.gc();
-    String s =
-        String.format(
-            "[time=%d]:[N=%d current nodes UP] [D=%f msg deliv] [%f min h] [%f average h] [%f max h] [%d min l] [%d msec average l] [%d max l] [%d find msg sent]",
-            CommonState.getTime(),
-            sz,
-            msg_deliv.getSum(),
-            hopStore.getMin(),
-            hopStore.getAverage(),
-            hopStore.getMax(),
-            (int) timeStore.getMin(),
-            (int) timeStore.getAverage(),
-            (int) timeStore.getMax(),
-            (int) find_op.getSum());
+    StringBuilder s =
+        new StringBuilder(
+            String.format(
+                "[time=%d]:[N=%d current nodes UP] [D=%f msg deliv] [%d min h] [%d p50 h] [%d p95 h] [%d p99 h] [%d max h] [%d min l] [%d p50 l] [%d p95 l] [%d p99 l] [%d max l] [%d find msg sent]",
+                CommonState.getTime(),
+                sz,
+                msg_deliv.getSum(),
+                hopStore.getMin(),
+                hopStore.getPercentile(50),
+                hopStore.getPercentile(95),
+                hopStore.getPercentile(99),
+                hopStore.getMax(),
+                timeStore.getMin(),
+                timeStore.getPercentile(50),
+                timeStore.getPercentile(95),
+                timeStore.getPercentile(99),
+                timeStore.getMax(),
+                (int) find_op.getSum()));
+    for (Map.Entry<String, Histogram> e : samplingTime.entrySet()) {
+      Histogram h = e.getValue();
+      s.append(
+          String.format(
+              " [%s %d/%d completed, %d p50 %d p95 %d p99 l]",
+              e.getKey(),
+              h.getN(),
+              samplingCount.get(e.getKey()),
+              h.getPercentile(50),
+              h.getPercentile(95),
+              h.getPercentile(99)));
+    }
+    System.out.println(s);
 
     // Check if this is the last execution cycle of the experiment
     if (CommonState.getEndTime() <= (observerStep + CommonState.getTime())) {
+      printSummary();
       // Write out the logs to disk/permanent storage
       writeOut();
-      // System.err.println(s);
     }
 
     return false;
   }
 
+  /** Prints the distribution of the lookup and sampling metrics over the whole run. */
+  private static void printSummary() {
+    System.out.println("Summary (n min p50 p95 p99 max average):");
+    System.out.println("  lookup hops: " + hopStore);
+    System.out.println("  lookup latency: " + timeStore);
+    if (custodyCount > 0)
+      System.out.println(
+          "  time to full custody: " + custodyTime + " (" + custodyCount + " validator blocks)");
+    for (Map.Entry<String, Histogram> e : samplingTime.entrySet())
+      System.out.println(
+          "  "
+              + e.getKey()
+              + " completion time: "
+              + e.getValue()
+              + " ("
+              + samplingCount.get(e.getKey())
+              + " operations)");
+  }
+
+  /** Reports a validator starting a block with samples of its region to receive. */
+  public static synchronized void reportCustodyExpected() {
+    custodyCount++;
+  }
+
+  /**
+   * Reports a validator holding all the samples of its region.
+   *
+   * @param time the time since the start of the block
+   */
+  public static synchronized void reportCustody(long time) {
+    custodyTime.add(time);
+  }
+
   /**
    * Reports a message, adding it to the message log if it has a source.
    *
    * @param m The message to report
    * @param sent a boolean indicating whether the message was sent or received.
    */
-  public static void reportMsg(Message m, boolean sent) {
+  public static synchronized void reportMsg(Message m, boolean sent) {
     // Messages without a source are control messages sent by the traffic control,
     // so we don't want to log them.
     if (m.src == null) return;
 
-    // Add the message to the message log, but first check if it hasn't already been added
-    assert (!messages.keySet().contains(m.id));
-    messages.put(m.id, m.toMap(sent));
+    if (messages == null) messages = openLog("messages", MESSAGE_COLUMNS, MESSAGE_TYPES);
+    if (messages == null) return;
+    messages.add(
+        m.id,
+        m.typeToString(),
+        m.src.getId(),
+        m.dst.getId(),
+        sent ? "sent" : "received",
+        m.timestamp);
   }
 
   /**
@@ -209,48 +342,49 @@ public class KademliaObserver implements Control {
    *
    * @param op The operation to report.
    */
-  public static void reportOperation(Operation op) {
-    // messages without source are control messages sent by the traffic control
+  public static synchronized void reportOperation(Operation op) {
     // Calculate the operation stop time and then add the opearation to the operation log.
-    assert (!operations.keySet().contains(op.getId()));
     op.setStopTime(CommonState.getTime() - op.getTimestamp());
-    operations.put(op.getId(), op.toMap());
+    if (op instanceof SamplingOperation) {
+      String type = op.getClass().getSimpleName();
+      samplingCount.merge(type, 1L, Long::sum);
+      Histogram h = samplingTime.computeIfAbsent(type, t -> new Histogram());
+      if (((SamplingOperation) op).completed()) h.add(CommonState.getTime() - op.getTimestamp());
+    }
+    if (operations == null) operations = openLog("operation", OPERATION_COLUMNS, OPERATION_TYPES);
+    if (operations == null) return;
+    operations.add(op.toMap());
   }
 
-  public static void reportPeerDiscovery(Message m, SearchTable st) {
+  public static synchronized void reportPeerDiscovery(Message m, SearchTable st) {
 
     if (m.src == null) return;
-    // Add the message to the message log, but first check if it hasn't already been added
-    assert (!peerDiscoveries.keySet().contains(m.id));
-    Map<String, Object> result = new HashMap<String, Object>();
     Neighbour[] neighs = (Neighbour[]) m.value;
 
     int notKnown = 0;
     for (Neighbour n : neighs) {
       if (!st.isNeighbourKnown(n)) notKnown++;
-      if (n.isEvil()) maliciousSet.add(n.getId());
+      if (n.isEvil()) reportMaliciousNode(n.getId());
     }
-    // for (Neighbour n : st.getNeighbours()) {} // Necessary because neighs as above is relating to
-    // peer discovery
-    result.put("time", CommonState.getTime());
-    result.put("message_id", m.id);
-    result.put("dst_id", m.dst.getId());
-    result.put("src_id", m.src.getId());
-    result.put("total_peers", st.getAllNeighboursCount());
-    result.put("total_peers_alive", st.getAllAliveNeighboursCount());
-    result.put("peers_in_message", neighs.length);
-    result.put("peers_not_known", notKnown);
-    result.put("validators_discovered", st.getValidatorsNeighboursCount());
-    peerDiscoveries.put(m.id, result);
+    if (peerDiscoveries == null)
+      peerDiscoveries = openLog("peerDiscoveries", PEER_DISCOVERY_COLUMNS, PEER_DISCOVERY_TYPES);
+    if (peerDiscoveries == null) return;
+    peerDiscoveries.add(
+        CommonState.getTime(),
+        m.id,
+        m.src.getId(),
+        m.dst.getId(),
+        st.getAllNeighboursCount(),
+        st.getAllAliveNeighboursCount(),
+        neighs.length,
+        notKnown,
+        st.getValidatorsNeighboursCount());
   }
 
-  public static void reportMaliciousNodes() {
-    for (BigInteger node : maliciousSet) {
-      count += 1;
-      Map<String, Object> result = new HashMap<String, Object>();
-      result.put("node_id", node);
-      result.put("is_malicious", true);
-      maliciousNodes.put(Long.valueOf(count), result);
-    }
+  private static void reportMaliciousNode(BigInteger node) {
+    if (maliciousNodes == null)
+      maliciousNodes = openLog("listMalicious", MALICIOUS_COLUMNS, MALICIOUS_TYPES);
+    if (maliciousNodes == null) return;
+    maliciousNodes.addOnce(node, node, true);
   }
 }
@@ -69,9 +69,12 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
   /** Routing table of this Pastry node. */
   private RoutingTable routingTable;
 
-  /** TreeMap containing trace messages sent for timeout purposes. */
+  /** TreeMap containing the sending time of the requests waiting for a response. */
   private TreeMap<Long, Long> sentMsg;
 
+  /** Round-trip time estimates of the peers requests have been sent to lately. */
+  private RttEstimator.Cache<NodeId> rtt;
+
   /** LinkedHashMap containing find operations. */
   private LinkedHashMap<Long, FindOperation> findOp;
 
@@ -117,6 +120,8 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 
     sentMsg = new TreeMap<Long, Long>();
 
+    rtt = new RttEstimator.Cache<NodeId>();
+
     findOp = new LinkedHashMap<Long, FindOperation>();
 
     tid = Configuration.getPid(prefix + "." + PAR_TRANSPORT);
@@ -166,12 +171,13 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
    * find operation.
    *
    * @param m the message received.
+   * @param late whether the request timed out before the response arrived.
    * @param myPid the sender PID.
    */
-  private void handleResponse(Message m, int myPid) {
+  private void handleResponse(Message m, boolean late, int myPid) {
     // Add the message source to my routing table
     if (m.src != null && m.src.isServer()) {
-      routingTable.addNeighbour(m.src.getId());
+      routingTable.addNeighbour(m.src.getNodeId());
     }
 
     // Get the corresponding find operation record
@@ -179,21 +185,24 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 
     if (fop != null) {
       // Update the find operation record with the closest set of neighbors received
-      fop.elaborateResponse((BigInteger[]) m.body);
+      fop.elaborateResponse((NodeId[]) m.body);
+      // the slot of a response arriving after its timeout has already been freed
+      if (late) fop.setAvailableRequests(fop.getAvailableRequests() - 1);
       fop.addMessage(m.id);
 
       // Save received neighbour in the closest Set of find operation
-      BigInteger[] neighbours = (BigInteger[]) m.body;
+      NodeId[] neighbours = (NodeId[]) m.body;
       // if (callback != null) callback.nodesFound(fop, neighbours);
       // SAM: TODO change this so that it's an option.
       if (callback != null)
-        callback.nodesFoundWithParent(fop, neighbours, m.src.getId()); // Modified for getparent
-      for (BigInteger neighbour : neighbours)
+        callback.nodesFoundWithParent(
+            fop, toBigIntegers(neighbours), m.src.getId()); // Modified for getparent
+      for (NodeId neighbour : neighbours)
         if (Util.nodeIdtoNode(neighbour, myPid).getKademliaProtocol().getKademliaNode().isServer())
           routingTable.addNeighbour(neighbour);
 
       if (!fop.isFinished()
-          && Arrays.asList(neighbours).contains(fop.getDestNode())
+          && Arrays.asList(neighbours).contains(fop.getDestKey())
           && !(fop instanceof RegionBasedFindOperation)) {
 
         logger.warning("Found node " + fop.getDestNode());
@@ -205,7 +214,12 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
         if (callback != null) {
           callback.operationComplete(fop);
         }
-        KademliaObserver.find_ok.add(1);
+        synchronized (KademliaObserver.class) {
+          KademliaObserver.find_ok.add(1);
+          KademliaObserver.timeStore.add(CommonState.getTime() - fop.getTimestamp());
+          KademliaObserver.hopStore.add(fop.getHops());
+          KademliaObserver.msg_deliv.add(1);
+        }
         fop.setFinished(true);
       }
 
@@ -235,116 +249,119 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
               + fop.getAvailableRequests()
               + " "
               + fop.isFinished());
-      // Send as many ROUTE requests as possible (according to the ALPHA parameter)
-      while (fop.getAvailableRequests() > 0 && !fop.isFinished()) {
-        // Get an available neighbour
-        BigInteger neighbour = fop.getNeighbour();
-
-        if (neighbour != null) {
-          // Create a new request to send to neighbour
-          Message request;
-
-          if (fop instanceof GetOperation && !(fop instanceof PutOperation)) {
-            request = new Message(Message.MSG_GET);
-          } else if (KademliaCommonConfig.FINDMODE == 0) {
-            request = new Message(Message.MSG_FIND);
-          } else {
-            request = new Message(Message.MSG_FIND_DIST);
-          }
+      queryNext(fop, m.id, myPid);
+    }
+  }
 
-          request.operationId = m.operationId;
-          request.src = this.getKademliaNode();
-          request.dst =
-              Util.nodeIdtoNode(neighbour, kademliaid).getKademliaProtocol().getKademliaNode();
+  /**
+   * Sends as many requests of a find operation as its free slots allow (according to the ALPHA
+   * parameter), to the closest nodes not queried yet. If there are no such nodes and no outstanding
+   * requests, completes the operation.
+   *
+   * @param fop the find operation.
+   * @param msgId the ID of the message that freed a slot.
+   * @param myPid the sender PID.
+   */
+  private void queryNext(FindOperation fop, long msgId, int myPid) {
+    // Send as many ROUTE requests as possible (according to the ALPHA parameter)
+    while (fop.getAvailableRequests() > 0 && !fop.isFinished()) {
+      // Get an available neighbour
+      NodeId neighbour = fop.getNeighbour();
+
+      if (neighbour != null) {
+        // Create a new request to send to neighbour
+        Message request;
+
+        if (fop instanceof GetOperation && !(fop instanceof PutOperation)) {
+          request = new Message(Message.MSG_GET);
+        } else if (KademliaCommonConfig.FINDMODE == 0) {
+          request = new Message(Message.MSG_FIND);
+        } else {
+          request = new Message(Message.MSG_FIND_DIST);
+        }
 
-          if (KademliaCommonConfig.FINDMODE == 0 || request.getType() == Message.MSG_GET) {
-            request.body = fop.getDestNode();
-          } else {
-            request.body = Util.logDistance(neighbour, (BigInteger) fop.getBody());
-          }
+        request.operationId = fop.getId();
+        request.src = this.getKademliaNode();
+        request.dst =
+            Util.nodeIdtoNode(neighbour, kademliaid).getKademliaProtocol().getKademliaNode();
 
-          // Increment hop count
-          fop.increaseHops();
-          // Add message to operation Todo: verify
-          fop.addMessage(m.id);
-          // Send find request to neighbor
-          sendMessage(request, neighbour, myPid);
-
-        } else if (fop.getAvailableRequests()
-            == KademliaCommonConfig.ALPHA) { // No new neighbor and no outstanding requests
-          // Search operation finished
-          if (fop instanceof PutOperation) {
-            // Create and send a put request to all neighbors in the neighbors list
-            for (BigInteger id : fop.getNeighboursList()) {
-              // Create a put request
-              Message request = new Message(Message.MSG_PUT);
-              request.operationId = m.operationId;
-              request.src = this.getKademliaNode();
-              request.dst =
-                  Util.nodeIdtoNode(id, kademliaid).getKademliaProtocol().getKademliaNode();
-              request.body = ((PutOperation) fop).getBody();
-              request.value = ((PutOperation) fop).getValue();
-
-              // Increment hop count
-              fop.increaseHops();
-              // Add message to operation
-              fop.addMessage(m.id);
-              // Todo: verify
-              sendMessage(request, id, myPid);
-            }
-            logger.warning(
-                "PutOperation Sending PUT_VALUE to "
-                    + fop.getNeighboursList().size()
-                    + " "
-                    + fop.getId());
-          } else if (fop instanceof GetOperation) {
-            // Remove the find operation record
-            findOp.remove(fop.getId());
-            logger.warning("Getprocess finished not found ");
-            KademliaObserver.reportOperation(fop);
-          } else if (fop instanceof RegionBasedFindOperation) {
-            findOp.remove(fop.getId());
-            logger.info("Region-based lookup completed ");
-            KademliaObserver.reportOperation(fop);
-
-            for (BigInteger id : fop.getNeighboursList()) {
-              logger.info("Found node " + id);
-            }
-          } else {
-            findOp.remove(fop.getId());
-            KademliaObserver.reportOperation(fop);
-          }
+        if (KademliaCommonConfig.FINDMODE == 0 || request.getType() == Message.MSG_GET) {
+          request.body = fop.getDestNode();
+        } else {
+          request.body = neighbour.logDistance(NodeId.valueOf((BigInteger) fop.getBody()));
+        }
 
-          if (callback != null) {
-            callback.operationComplete(fop);
-          }
+        // Increment hop count
+        fop.increaseHops();
+        // Add message to operation Todo: verify
+        fop.addMessage(msgId);
+        // Send find request to neighbor
+        sendMessage(request, neighbour, myPid);
 
-          if (fop.getBody().equals("Automatically Generated Traffic")
-              && fop.getClosest().containsKey(fop.getDestNode())) {
-            // Update statistics
-            long timeInterval = (CommonState.getTime()) - (fop.getTimestamp());
-            KademliaObserver.timeStore.add(timeInterval);
-            KademliaObserver.hopStore.add(fop.getHops());
-            KademliaObserver.msg_deliv.add(1);
+      } else if (fop.getAvailableRequests()
+          == KademliaCommonConfig.ALPHA) { // No new neighbor and no outstanding requests
+        // Search operation finished
+        if (fop instanceof PutOperation) {
+          // Create and send a put request to all neighbors in the neighbors list
+          for (BigInteger id : fop.getNeighboursList()) {
+            // Create a put request
+            Message request = new Message(Message.MSG_PUT);
+            request.operationId = fop.getId();
+            request.src = this.getKademliaNode();
+            request.dst = Util.nodeIdtoNode(id, kademliaid).getKademliaProtocol().getKademliaNode();
+            request.body = ((PutOperation) fop).getBody();
+            request.value = ((PutOperation) fop).getValue();
+
+            // Increment hop count
+            fop.increaseHops();
+            // Add message to operation
+            fop.addMessage(msgId);
+            // Todo: verify
+            sendMessage(request, NodeId.valueOf(id), myPid);
           }
+          logger.warning(
+              "PutOperation Sending PUT_VALUE to "
+                  + fop.getNeighboursList().size()
+                  + " "
+                  + fop.getId());
+        } else if (fop instanceof GetOperation) {
+          // Remove the find operation record
+          findOp.remove(fop.getId());
+          logger.warning("Getprocess finished not found ");
+          KademliaObserver.reportOperation(fop);
+        } else if (fop instanceof RegionBasedFindOperation) {
+          findOp.remove(fop.getId());
+          logger.info("Region-based lookup completed ");
+          KademliaObserver.reportOperation(fop);
+
+          for (BigInteger id : fop.getNeighboursList()) {
+            logger.info("Found node " + id);
+          }
+        } else {
+          findOp.remove(fop.getId());
+          KademliaObserver.reportOperation(fop);
+        }
 
-          return;
-
-        } else { // no neighbour available but exists oustanding request to wait
-          logger.info(" no neighbour available but exists oustanding request to wait");
-          return;
+        if (callback != null) {
+          callback.operationComplete(fop);
         }
+
+        return;
+
+      } else { // no neighbour available but exists oustanding request to wait
+        logger.info(" no neighbour available but exists oustanding request to wait");
+        return;
       }
-      if (fop.isFinished() && fop.getAvailableRequests() == KademliaCommonConfig.ALPHA) {
-        logger.info("Operation completed. reporting...");
-        KademliaObserver.reportOperation(fop);
-        findOp.remove(fop.getId());
-        // Update statistics
-        // long timeInterval = (CommonState.getTime()) - (fop.getTimestamp());
-        // KademliaObserver.timeStore.add(timeInterval);
-        // KademliaObserver.hopStore.add(fop.nrHops);
-        // KademliaObserver.msg_deliv.add(1);
-      }
+    }
+    if (fop.isFinished() && fop.getAvailableRequests() == KademliaCommonConfig.ALPHA) {
+      logger.info("Operation completed. reporting...");
+      KademliaObserver.reportOperation(fop);
+      findOp.remove(fop.getId());
+      // Update statistics
+      // long timeInterval = (CommonState.getTime()) - (fop.getTimestamp());
+      // KademliaObserver.timeStore.add(timeInterval);
+      // KademliaObserver.hopStore.add(fop.nrHops);
+      // KademliaObserver.msg_deliv.add(1);
     }
   }
 
@@ -374,11 +391,12 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
             + m.src.getId()
             + " for operation "
             + m.operationId);
-    BigInteger[] neighbours = new BigInteger[KademliaCommonConfig.K];
+    NodeId[] neighbours = new NodeId[KademliaCommonConfig.K];
     // Determine which neighbors to retrieve based on the type of message
     if (m.getType() == Message.MSG_FIND || m.getType() == Message.MSG_GET) {
       // Retrieve the k nearest neighbors for the provided key
-      neighbours = this.routingTable.getNeighbours((BigInteger) m.body, m.src.getId());
+      neighbours =
+          this.routingTable.getNeighbours(NodeId.valueOf((BigInteger) m.body), m.src.getNodeId());
     } else if (m.getType() == Message.MSG_FIND_DIST) {
       // Retrieve the k neighbors within a distance range
       neighbours = this.routingTable.getNeighbours((int) m.body);
@@ -402,7 +420,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 
     // Send the response message containing the neighbours (and optional value) back to the sender
     // node
-    sendMessage(response, m.src.getId(), myPid);
+    sendMessage(response, m.src.getNodeId(), myPid);
   }
 
   /**
@@ -415,7 +433,9 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
    */
   public Operation handleInit(Message m, int myPid) {
     logger.info("handleInitFind " + (BigInteger) m.body);
-    KademliaObserver.find_op.add(1);
+    synchronized (KademliaObserver.class) {
+      KademliaObserver.find_op.add(1);
+    }
 
     // Create find operation and add to operations array
     // FindOperation fop = new FindOperation(m.dest, m.timestamp);
@@ -452,8 +472,8 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
     findOp.put(fop.getId(), fop);
 
     // Retrieve the ALPHA closest nodes to the source node and add them to the find operation
-    BigInteger[] neighbours =
-        this.routingTable.getNeighbours((BigInteger) m.body, this.getKademliaNode().getId());
+    NodeId[] neighbours =
+        this.routingTable.getNeighbours(fop.getDestKey(), this.getKademliaNode().getNodeId());
     fop.elaborateResponse(neighbours);
     fop.setAvailableRequests(KademliaCommonConfig.ALPHA);
 
@@ -465,7 +485,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 
     // Send ALPHA messages to the closest nodes
     for (int i = 0; i < KademliaCommonConfig.ALPHA; i++) {
-      BigInteger nextNode = fop.getNeighbour();
+      NodeId nextNode = fop.getNeighbour();
 
       if (nextNode != null) {
         // Set the destination of the message to the next closest node
@@ -479,7 +499,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
         else if (KademliaCommonConfig.FINDMODE == 0) m.type = Message.MSG_FIND;
         else {
           m.type = Message.MSG_FIND_DIST;
-          m.body = Util.logDistance(nextNode, (BigInteger) fop.getBody());
+          m.body = nextNode.logDistance(fop.getDestKey());
         }
 
         // Send the message to the next closest node and add it to the operation's message list
@@ -506,7 +526,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
    * @param destId the ID of the destination node
    * @param myPid the sender process ID (Todo: verify what myPid stand for!!!)
    */
-  private void sendMessage(Message m, BigInteger destId, int myPid) {
+  private void sendMessage(Message m, NodeId destId, int myPid) {
     // Add destination node to routing table
     if (Util.nodeIdtoNode(destId, myPid).getKademliaProtocol().getKademliaNode().isServer())
       this.routingTable.addNeighbour(destId);
@@ -529,21 +549,70 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
     transport.send(src, dest, m, kademliaid);
 
     // If the message is a request, start the timeout timer
-    if (m.getType() == Message.MSG_FIND || m.getType() == Message.MSG_FIND_DIST) {
+    if (m.getType() == Message.MSG_FIND
+        || m.getType() == Message.MSG_FIND_DIST
+        || m.getType() == Message.MSG_GET) {
       // Create a timeout object
-      Timeout t = new Timeout(destId, m.id, m.operationId);
+      Timeout t = new Timeout(destId.toBigInteger(), m.id, m.operationId);
+
+      // Add the message and its sending time to the sent messages map
+      this.sentMsg.put(m.id, CommonState.getTime());
+
+      // Schedule the timeout timer with the adaptive timeout of the destination; until a round
+      // trip has been measured, use 4 times the network latency
+      RttEstimator rtt = rttOf(destId);
+      long rto = rtt.getRto(rtt.hasSample() ? 0 : 4 * transport.getLatency(src, dest));
+      EDSimulator.add(rto, t, src, myPid);
+    }
+  }
 
-      // Get the latency of the network between the source and destination nodes
-      long latency = transport.getLatency(src, dest);
+  /**
+   * Handles the timeout of a request that has not been answered yet: backs the timeout of the peer
+   * off, evicts it from the routing table and from the lookup, and queries the next candidate in
+   * its place.
+   *
+   * @param t the timeout event.
+   * @param myPid the sender PID.
+   */
+  private void handleTimeout(Timeout t, int myPid) {
+    // the response has arrived in time
+    if (sentMsg.remove(t.msgID) == null) return;
 
-      // Add the message to the sent messages map
-      this.sentMsg.put(m.id, m.timestamp);
+    NodeId peer = NodeId.valueOf(t.node);
+    rttOf(peer).timeout();
+    routingTable.removeNeighbour(peer);
+    logger.info("Timeout of message " + t.msgID + " sent to " + t.node);
 
-      // Schedule the timeout timer with a delay equal to 4 times the network latency
-      EDSimulator.add(4 * latency, t, src, myPid); // set delay = 4*RTT
+    FindOperation fop = this.findOp.get(t.opID);
+    if (fop != null) {
+      fop.getClosest().remove(peer);
+      fop.increaseAvailableRequests();
+      queryNext(fop, t.msgID, myPid);
     }
   }
 
+  /**
+   * Returns the round-trip time estimate of a peer, creating it at the first request.
+   *
+   * @param peer the ID of the peer.
+   * @return the estimate.
+   */
+  private RttEstimator rttOf(NodeId peer) {
+    return rtt.of(peer);
+  }
+
+  /**
+   * Converts the IDs of a response for the callbacks, which work with BigIntegers.
+   *
+   * @param ids the IDs to convert
+   * @return the IDs as BigIntegers
+   */
+  private static BigInteger[] toBigIntegers(NodeId[] ids) {
+    BigInteger[] res = new BigInteger[ids.length];
+    for (int i = 0; i < ids.length; i++) res[i] = ids[i] == null ? null : ids[i].toBigInteger();
+    return res;
+  }
+
   /**
    * Handles the receiving of events by the peersim framework.
    *
@@ -566,11 +635,12 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
     // Handle the event based on its type.
     switch (((SimpleEvent) event).getType()) {
       case Message.MSG_RESPONSE:
-        // Handle a response message by removing it from the sentMsg map and calling
-        // handleResponse().
+        // Handle a response message by removing it from the sentMsg map, measuring the round
+        // trip, and calling handleResponse().
         m = (Message) event;
-        sentMsg.remove(m.ackId);
-        handleResponse(m, myPid);
+        Long sent = sentMsg.remove(m.ackId);
+        if (sent != null) rttOf(m.src.getNodeId()).sample(CommonState.getTime() - sent);
+        handleResponse(m, sent == null, myPid);
         break;
 
       case Message.MSG_INIT_FIND_REGION_BASED:
@@ -604,23 +674,9 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
         // TODO: Implement handling for a store message.
         break;
 
-        /*case Timeout.TIMEOUT: // timeout
-        Timeout t = (Timeout) event;
-        if (sentMsg.containsKey(t.msgID)) { // the response msg isn't arrived
-          // remove form sentMsg
-          sentMsg.remove(t.msgID);
-          // remove node from my routing table
-          this.routingTable.removeNeighbour(t.node);
-          // remove from closestSet of find operation
-          this.findOp.get(t.opID).closestSet.remove(t.node);
-          // try another node
-          Message m1 = new Message();
-          m1.operationId = t.opID;
-          m1.src = getNode();
-          m1.dest = this.findOp.get(t.opID).destNode;
-          this.handleResponse(m1, myPid);
-        }
-        break;*/
+      case Timeout.TIMEOUT:
+        handleTimeout((Timeout) event, myPid);
+        break;
     }
     /*if (event instanceof Message) {
     OpLogging fLog;
@@ -687,7 +743,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
   public void setNode(KademliaNode node) {
     this.node = node;
     // Set the node ID in the routing table
-    this.routingTable.setNodeId(node.getId());
+    this.routingTable.setNodeId(node.getNodeId());
 
     // Initialize the logger with the node ID as its name
     logger = Logger.getLogger(node.getId().toString());
@@ -3,49 +3,48 @@ package peersim.kademlia;
 import java.math.BigInteger;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.PriorityQueue;
+import peersim.core.CommonState;
 
 /**
- * Timeout functionnality for the memory store
+ * The memory store will keep data inside the class, for a specific amout of time
+ *
+ * <p>Timeouts are in simulated time. Objects stored with a timeout are indexed in a single queue
+ * ordered by expiry time. Expired objects are removed lazily, from the head of the queue, whenever
+ * the store is accessed: checking for expired objects takes constant time, and storing or expiring
+ * an object takes time logarithmic in the number of objects stored with a timeout.
  *
  * @author Deisss (LGPLv3)
  * @version 0.1
  */
-class TimeoutMemoryStore extends TimerTask {
-  private BigInteger id;
-  private KeyValueStore kv;
+public class KeyValueStore {
 
-  /**
-   * Constructor
-   *
-   * @param key The key to use & store
-   */
-  public TimeoutMemoryStore(BigInteger id, KeyValueStore kv) {
-    this.id = id;
-    this.kv = kv;
-  }
+  /** An object stored with a timeout, in the expiry queue */
+  private static class Expiry implements Comparable<Expiry> {
+    final BigInteger key;
+    final long time;
 
-  @Override
-  public void run() {
-    if (this.id != null) {
-      kv.delete(this.id);
+    Expiry(BigInteger key, long time) {
+      this.key = key;
+      this.time = time;
+    }
+
+    public int compareTo(Expiry o) {
+      return Long.compare(time, o.time);
     }
   }
-}
 
-/**
- * The memory store will keep data inside the class, for a specific amout of time
- *
- * @author Deisss (LGPLv3)
- * @version 0.1
- */
-public class KeyValueStore {
   // This will store any kind of object, related to a specific key value in string
   private HashMap<BigInteger, Object> mem;
 
+  // expiry time of the objects stored with a timeout
+  private HashMap<BigInteger, Long> expiries;
+
+  // expiry queue, earliest first; entries of objects deleted or stored again are skipped
+  private PriorityQueue<Expiry> queue;
+
   public KeyValueStore() {
-    mem = new HashMap<>();
+    erase();
   }
   /**
    * Add an object into the memory store
@@ -60,19 +59,18 @@ public class KeyValueStore {
    * Add an object into the memory store
    *
    * @param obj The object to store
-   * @param timeout The delay in ms
+   * @param timeout The delay in simulated time units, or 0 to keep the object until deleted
    */
   public void add(BigInteger id, Object obj, long timeout) {
-    // If the system is not functionnal
-    if (mem == null) {
-      erase();
-    }
-
+    expire();
     mem.put(id, obj);
 
-    // Create a delete operation after timeout
     if (timeout > 0) {
-      new Timer().schedule(new TimeoutMemoryStore(id, this), timeout);
+      long time = CommonState.getTime() + timeout;
+      expiries.put(id, time);
+      queue.add(new Expiry(id, time));
+    } else if (!expiries.isEmpty()) {
+      expiries.remove(id);
     }
   }
 
@@ -83,11 +81,8 @@ public class KeyValueStore {
    * @return The object retrieve, or null if nothing found
    */
   public Object get(BigInteger key) {
-    if (mem.containsKey(key)) {
-      return mem.get(key);
-    } else {
-      return null;
-    }
+    expire();
+    return mem.get(key);
   }
 
   /**
@@ -96,6 +91,7 @@ public class KeyValueStore {
    * @return All objects in the store
    */
   public Collection<Object> getAll() {
+    expire();
     return mem.values();
   }
 
@@ -106,8 +102,10 @@ public class KeyValueStore {
    * @return The delete value result (true if the object has been found, false in other case)
    */
   public boolean delete(BigInteger key) {
+    expire();
     if (mem.containsKey(key)) {
       mem.remove(key);
+      expiries.remove(key);
       return true;
     }
     return false;
@@ -116,10 +114,28 @@ public class KeyValueStore {
   /** Empty the memory store */
   public void erase() {
     mem = new HashMap<BigInteger, Object>();
+    expiries = new HashMap<BigInteger, Long>();
+    queue = new PriorityQueue<Expiry>();
   }
 
   /** Get occupancy */
   public int occupancy() {
+    expire();
     return mem.size();
   }
+
+  /** Removes the objects whose timeout has expired at the current simulated time. */
+  private void expire() {
+    if (queue.isEmpty()) return;
+    long now = CommonState.getTime();
+    while (!queue.isEmpty() && queue.peek().time <= now) {
+      Expiry e = queue.poll();
+      Long time = expiries.get(e.key);
+      // skip the entries of objects deleted or stored again since
+      if (time != null && time == e.time) {
+        expiries.remove(e.key);
+        mem.remove(e.key);
+      }
+    }
+  }
 }
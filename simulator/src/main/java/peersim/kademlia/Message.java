@@ -2,6 +2,7 @@ package peersim.kademlia;
 
 import java.util.HashMap;
 import java.util.Map;
+import peersim.util.IdSequence;
 
 /**
  * Message class provide all functionalities to magage the various messages, principally LOOKUP
@@ -28,7 +29,7 @@ import java.util.Map;
 public class Message extends SimpleEvent {
 
   /** Internal generator for unique message IDs */
-  private static long ID_GENERATOR = 0;
+  private static final IdSequence ID_GENERATOR = new IdSequence();
 
   /** Message Type: PING (used to verify that a node is still alive) */
   public static final int MSG_EMPTY = 0;
@@ -76,6 +77,12 @@ public class Message extends SimpleEvent {
 
   public static final int MSG_SEED_SAMPLE = 17;
 
+  /**
+   * Message Type: PULL_SEED (request from a validator to the builder for the samples of its region
+   * it has not been seeded)
+   */
+  public static final int MSG_PULL_SEED = 18;
+
   /**
    * Message Type: INIT_FIND_REGION_BASED (command to a node to start looking for node within a
    * region)
@@ -135,7 +142,7 @@ public class Message extends SimpleEvent {
    */
   public Message(int messageType, Object body) {
     super(messageType);
-    this.id = (ID_GENERATOR++);
+    this.id = ID_GENERATOR.next();
     this.body = body;
   }
 
@@ -148,7 +155,7 @@ public class Message extends SimpleEvent {
    */
   public Message(int messageType, Object body, Object value) {
     super(messageType);
-    this.id = (ID_GENERATOR++);
+    this.id = ID_GENERATOR.next();
     this.body = body;
     this.value = value;
   }
@@ -289,6 +296,8 @@ public class Message extends SimpleEvent {
         return "MSG_GET_ANY_SAMPLE_RESPONSE";
       case MSG_SEED_SAMPLE:
         return "MSG_SEED_SAMPLE";
+      case MSG_PULL_SEED:
+        return "MSG_PULL_SEED";
       default:
         return "UNKNOW:" + type;
     }
@@ -0,0 +1,258 @@
+package peersim.kademlia;
+
+import java.math.BigInteger;
+
+/**
+ * An immutable 256-bit Kademlia identifier, stored as four longs (most significant first).
+ *
+ * <p>IDs are ordered as unsigned numbers, i.e. as the equivalent non-negative {@link BigInteger},
+ * and hash like it. Unlike {@link Util#xorDistance} and {@link Util#logDistance}, the distance
+ * operations of this class do not allocate, which matters in the routing table and in lookups.
+ */
+public final class NodeId implements Comparable<NodeId> {
+
+  /** Number of bits of an ID */
+  public static final int BITS = 256;
+
+  /** The ID 0 */
+  public static final NodeId ZERO = new NodeId(0, 0, 0, 0);
+
+  private static final BigInteger MASK = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+  /** The 64-bit words, w0 being the most significant */
+  private final long w0, w1, w2, w3;
+
+  /** The equivalent BigInteger, computed on demand */
+  private BigInteger value;
+
+  /**
+   * Creates an ID from its 64-bit words.
+   *
+   * @param w0 bits 255..192
+   * @param w1 bits 191..128
+   * @param w2 bits 127..64
+   * @param w3 bits 63..0
+   */
+  public NodeId(long w0, long w1, long w2, long w3) {
+    this.w0 = w0;
+    this.w1 = w1;
+    this.w2 = w2;
+    this.w3 = w3;
+  }
+
+  /**
+   * Returns the ID equal to a BigInteger.
+   *
+   * @param b a non-negative value of at most 256 bits
+   * @return the ID
+   * @throws IllegalArgumentException if b is negative or too large
+   */
+  public static NodeId valueOf(BigInteger b) {
+    if (b.signum() < 0 || b.bitLength() > BITS)
+      throw new IllegalArgumentException("Not a " + BITS + "-bit ID: " + b);
+    NodeId id =
+        new NodeId(
+            b.shiftRight(192).longValue(),
+            b.shiftRight(128).longValue(),
+            b.shiftRight(64).longValue(),
+            b.longValue());
+    id.value = b;
+    return id;
+  }
+
+  /**
+   * Returns the equivalent BigInteger. The value is kept, so that repeated conversions of the same
+   * ID are free.
+   *
+   * @return the ID as a non-negative BigInteger
+   */
+  public BigInteger toBigInteger() {
+    BigInteger b = value;
+    if (b == null) {
+      b = word(w0);
+      b = b.shiftLeft(64).or(word(w1));
+      b = b.shiftLeft(64).or(word(w2));
+      b = b.shiftLeft(64).or(word(w3));
+      value = b;
+    }
+    return b;
+  }
+
+  private static BigInteger word(long w) {
+    return BigInteger.valueOf(w).and(MASK);
+  }
+
+  /**
+   * Returns the word of index i, 0 being the most significant.
+   *
+   * @param i index between 0 and 3
+   * @return the word
+   */
+  public long word(int i) {
+    switch (i) {
+      case 0:
+        return w0;
+      case 1:
+        return w1;
+      case 2:
+        return w2;
+      case 3:
+        return w3;
+      default:
+        throw new IndexOutOfBoundsException("Invalid word index: " + i);
+    }
+  }
+
+  // ______________________________________________________________________________________________
+  /**
+   * Returns the XOR distance to another ID, as a new ID.
+   *
+   * @param o the other ID
+   * @return this XOR o
+   */
+  public NodeId xor(NodeId o) {
+    return new NodeId(w0 ^ o.w0, w1 ^ o.w1, w2 ^ o.w2, w3 ^ o.w3);
+  }
+
+  /**
+   * Compares the XOR distances of two IDs to this one, without computing them.
+   *
+   * @param a the first ID
+   * @param b the second ID
+   * @return a negative number, zero, or a positive number if a is closer than, as close as, or
+   *     farther than b from this ID
+   */
+  public int xorCompare(NodeId a, NodeId b) {
+    if (a.w0 != b.w0) return Long.compareUnsigned(a.w0 ^ w0, b.w0 ^ w0);
+    if (a.w1 != b.w1) return Long.compareUnsigned(a.w1 ^ w1, b.w1 ^ w1);
+    if (a.w2 != b.w2) return Long.compareUnsigned(a.w2 ^ w2, b.w2 ^ w2);
+    return Long.compareUnsigned(a.w3 ^ w3, b.w3 ^ w3);
+  }
+
+  /**
+   * Returns the log-distance to another ID, i.e. the bit length of their XOR distance. It is the
+   * same as {@link Util#logDistance} on the equivalent BigIntegers.
+   *
+   * @param o the other ID
+   * @return a value between 0 (same ID) and 256
+   */
+  public int logDistance(NodeId o) {
+    return BITS - commonPrefixLength(o);
+  }
+
+  /**
+   * Returns the number of leading bits this ID has in common with another one.
+   *
+   * @param o the other ID
+   * @return a value between 0 and 256 (same ID)
+   */
+  public int commonPrefixLength(NodeId o) {
+    long x = w0 ^ o.w0;
+    if (x != 0) return Long.numberOfLeadingZeros(x);
+    x = w1 ^ o.w1;
+    if (x != 0) return 64 + Long.numberOfLeadingZeros(x);
+    x = w2 ^ o.w2;
+    if (x != 0) return 128 + Long.numberOfLeadingZeros(x);
+    return 192 + Long.numberOfLeadingZeros(w3 ^ o.w3);
+  }
+
+  /**
+   * Returns the number of bits of the ID, without leading zeros.
+   *
+   * @return a value between 0 and 256
+   */
+  public int bitLength() {
+    return logDistance(ZERO);
+  }
+
+  /**
+   * Tests a bit of the ID.
+   *
+   * @param index the bit index, 0 being the least significant
+   * @return true if the bit is set
+   */
+  public boolean testBit(int index) {
+    checkIndex(index);
+    return (word(3 - (index >>> 6)) >>> (index & 63) & 1) != 0;
+  }
+
+  /**
+   * Returns the ID with one bit flipped.
+   *
+   * @param index the bit index, 0 being the least significant
+   * @return the new ID
+   */
+  public NodeId flipBit(int index) {
+    checkIndex(index);
+    long bit = 1L << (index & 63);
+    switch (index >>> 6) {
+      case 3:
+        return new NodeId(w0 ^ bit, w1, w2, w3);
+      case 2:
+        return new NodeId(w0, w1 ^ bit, w2, w3);
+      case 1:
+        return new NodeId(w0, w1, w2 ^ bit, w3);
+      default:
+        return new NodeId(w0, w1, w2, w3 ^ bit);
+    }
+  }
+
+  private static void checkIndex(int index) {
+    if (index < 0 || index >= BITS)
+      throw new IndexOutOfBoundsException("Invalid bit index: " + index);
+  }
+
+  // ______________________________________________________________________________________________
+  /**
+   * Compares two IDs as unsigned numbers.
+   *
+   * @param o the other ID
+   * @return a negative number, zero, or a positive number if this ID is less than, equal to, or
+   *     greater than o
+   */
+  public int compareTo(NodeId o) {
+    if (w0 != o.w0) return Long.compareUnsigned(w0, o.w0);
+    if (w1 != o.w1) return Long.compareUnsigned(w1, o.w1);
+    if (w2 != o.w2) return Long.compareUnsigned(w2, o.w2);
+    return Long.compareUnsigned(w3, o.w3);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof NodeId)) return false;
+    NodeId n = (NodeId) o;
+    return w0 == n.w0 && w1 == n.w1 && w2 == n.w2 && w3 == n.w3;
+  }
+
+  /**
+   * Returns the hash code of the equivalent BigInteger, computed from the words.
+   *
+   * @return the hash code
+   */
+  @Override
+  public int hashCode() {
+    int h = 0;
+    boolean leading = true;
+    for (int i = 0; i < 4; i++) {
+      long w = word(i);
+      for (int shift = 32; shift >= 0; shift -= 32) {
+        int half = (int) (w >>> shift);
+        if (leading && half == 0) continue;
+        leading = false;
+        h = 31 * h + half;
+      }
+    }
+    return h;
+  }
+
+  /**
+   * Returns the ID in decimal, like the equivalent BigInteger.
+   *
+   * @return the string representation of the ID
+   */
+  @Override
+  public String toString() {
+    return toBigInteger().toString();
+  }
+}
@@ -0,0 +1,72 @@
+package peersim.kademlia;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import peersim.core.Node;
+
+/**
+ * Global index from Kademlia IDs to the nodes currently in the {@link peersim.core.Network}.
+ *
+ * <p>A node is indexed under the ID of every {@link KademliaProtocol} it runs that has a {@link
+ * KademliaNode} assigned. The network calls {@link #add} and {@link #remove} when nodes join or
+ * leave it, and initializers that assign IDs to nodes already in the network call {@link #add}
+ * again afterwards. Reordering the network (e.g. sorting it) does not affect the index.
+ */
+public class NodeIndex {
+
+  /** The nodes in the network, by Kademlia ID */
+  private static final HashMap<BigInteger, Node> nodes = new HashMap<>();
+
+  private NodeIndex() {}
+
+  /**
+   * Indexes the node under the IDs of its Kademlia protocols. Protocols without an ID are skipped,
+   * so this can be called before IDs are assigned and again once they are.
+   *
+   * @param n the node, which must be part of the network
+   */
+  public static void add(Node n) {
+    for (int i = 0; i < n.protocolSize(); i++) {
+      BigInteger id = idOf(n, i);
+      if (id != null) nodes.put(id, n);
+    }
+  }
+
+  /**
+   * Removes the node from the index. Lookups of its IDs return null afterwards.
+   *
+   * @param n the node leaving the network
+   */
+  public static void remove(Node n) {
+    for (int i = 0; i < n.protocolSize(); i++) {
+      BigInteger id = idOf(n, i);
+      if (id != null && nodes.get(id) == n) nodes.remove(id);
+    }
+  }
+
+  /**
+   * Returns the node with the given ID.
+   *
+   * @param id the Kademlia ID
+   * @return the node, or null if no node of the network has this ID (e.g. it has been removed)
+   */
+  public static Node get(BigInteger id) {
+    return nodes.get(id);
+  }
+
+  /** Empties the index, when the network is reset. */
+  public static void clear() {
+    nodes.clear();
+  }
+
+  /** Number of indexed IDs. */
+  public static int size() {
+    return nodes.size();
+  }
+
+  private static BigInteger idOf(Node n, int pid) {
+    if (!(n.getProtocol(pid) instanceof KademliaProtocol)) return null;
+    KademliaNode kn = ((KademliaProtocol) n.getProtocol(pid)).getKademliaNode();
+    return kn == null ? null : kn.getId();
+  }
+}
@@ -2,8 +2,6 @@ package peersim.kademlia;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.List;
-import java.util.TreeMap;
 
 /**
  * Provides an implementation for the routing table component of a Kademlia node.
@@ -14,10 +12,10 @@ import java.util.TreeMap;
 public class RoutingTable implements Cloneable {
 
   /** Node ID of the node. */
-  protected BigInteger nodeId = null;
+  protected NodeId nodeId = null;
 
-  /** K-buckets. */
-  protected TreeMap<Integer, KBucket> k_buckets = null;
+  /** K-buckets, by bucket index. */
+  protected KBucket[] k_buckets = null;
 
   /** Number of k-buckets. */
   protected int nBuckets;
@@ -41,7 +39,7 @@ public class RoutingTable implements Cloneable {
    */
   public RoutingTable(int nBuckets, int k, int maxReplacements) {
     // Initialize k-buckets.
-    k_buckets = new TreeMap<Integer, KBucket>();
+    k_buckets = new KBucket[nBuckets];
 
     this.nBuckets = nBuckets;
 
@@ -53,23 +51,33 @@ public class RoutingTable implements Cloneable {
 
     this.findMode = KademliaCommonConfig.FINDMODE;
 
-    /** Fills the k-buckets map with empty buckets. */
+    /** Fills the k-buckets array with empty buckets. */
     for (int i = 0; i < nBuckets; i++) {
-      k_buckets.put(i, new KBucket());
+      k_buckets[i] = new KBucket();
     }
   }
 
   // Add a neighbour to the correct k-bucket
-  public boolean addNeighbour(BigInteger node) {
+  public boolean addNeighbour(NodeId node) {
     // Add the node to the k-bucket
-    return bucketAtDistance(Util.logDistance(nodeId, node)).addNeighbour(node);
+    return bucketAtDistance(nodeId.logDistance(node)).addNeighbour(node);
+  }
+
+  // Add a neighbour given as a BigInteger to the correct k-bucket
+  public boolean addNeighbour(BigInteger node) {
+    return addNeighbour(NodeId.valueOf(node));
   }
 
   // Remove a neighbour from the correct k-bucket
-  public void removeNeighbour(BigInteger node) {
+  public void removeNeighbour(NodeId node) {
 
     // Remove the node from the k-bucket
-    bucketAtDistance(Util.logDistance(nodeId, node)).removeNeighbour(node);
+    bucketAtDistance(nodeId.logDistance(node)).removeNeighbour(node);
+  }
+
+  // Remove a neighbour given as a BigInteger from the correct k-bucket
+  public void removeNeighbour(BigInteger node) {
+    removeNeighbour(NodeId.valueOf(node));
   }
 
   /**
@@ -77,94 +85,131 @@ public class RoutingTable implements Cloneable {
    *
    * @param key the key to find neighbors for
    * @param src the source node ID
-   * @return an array of BigInteger representing the closest neighbors
+   * @return an array of NodeId representing the closest neighbors
    */
   // Return the neighbours with a specific common prefix len
-  public BigInteger[] getNeighbours(final int dist) {
-    BigInteger[] result = new BigInteger[0];
-    ArrayList<BigInteger> resultList = new ArrayList<BigInteger>();
+  public NodeId[] getNeighbours(final int dist) {
+    NodeId[] result = new NodeId[0];
+    ArrayList<NodeId> resultList = new ArrayList<NodeId>();
     // Add neighbors at the given distance
-    resultList.addAll(bucketAtDistance(dist).neighbours.keySet());
+    resultList.addAll(bucketAtDistance(dist).getNeighbours());
 
     if (resultList.size() < k && (dist + 1) <= 256) {
       // Add neighbors at the next distance
 
-      resultList.addAll(bucketAtDistance(dist + 1).neighbours.keySet());
+      resultList.addAll(bucketAtDistance(dist + 1).getNeighbours());
       // Remove excess neighbors until the size is <= k
       while (resultList.size() > k) resultList.remove(resultList.size() - 1);
     }
     // Add neighbors at the previous distance
     if (resultList.size() < k & (dist - 1) >= 0) {
-      resultList.addAll(bucketAtDistance(dist - 1).neighbours.keySet());
+      resultList.addAll(bucketAtDistance(dist - 1).getNeighbours());
       while (resultList.size() > k) resultList.remove(resultList.size() - 1);
     }
     return resultList.toArray(result);
   }
 
   /**
-   * Return the closest neighbour to a key from the correct k-bucket.
+   * Return the K neighbours closest to a key, by XOR distance.
+   *
+   * <p>Buckets are visited from the one of the key outwards: first the bucket of the key, then the
+   * closer buckets (whose nodes all share the same log distance to the key), then the farther
+   * buckets in increasing order. The best nodes so far are kept in a bounded max-heap, and a bucket
+   * is skipped when none of its nodes can be closer than the farthest of them.
    *
    * @param key The key to find the closest neighbour to.
    * @param src The source identifier to exclude from neighbour candidates.
-   * @return An array of the closest neighbours.
+   * @return An array of the closest neighbours, from the closest to the farthest.
    */
-  public BigInteger[] getNeighbours(final BigInteger key, final BigInteger src) {
-    // Resulting neighbours
-    BigInteger[] result = new BigInteger[KademliaCommonConfig.K];
-
-    // Neighbour candidates
-    ArrayList<BigInteger> neighbour_candidates = new ArrayList<BigInteger>();
-
-    // Get the length of the longest common prefix
-    int prefix_len = Util.logDistance(nodeId, key);
+  public NodeId[] getNeighbours(final NodeId key, final NodeId src) {
+    int dist = nodeId.logDistance(key);
+    int start = Util.bucketIndex(dist, nBuckets);
+
+    // size the result from the number of candidates, so that it is the only allocation
+    int candidates = 0;
+    for (KBucket b : k_buckets) candidates += b.getNeighborCount();
+    if (src != null && getBucket(src).contains(src)) candidates--;
+    NodeId[] heap = new NodeId[Math.min(candidates, KademliaCommonConfig.K)];
+    if (heap.length == 0) return heap;
+    int n = 0;
 
-    if (prefix_len < 0) return new BigInteger[] {nodeId};
-    // Return the k-bucket if it is full
-    if (bucketAtDistance(prefix_len).neighbours.size() >= KademliaCommonConfig.K) {
-      return bucketAtDistance(prefix_len).neighbours.keySet().toArray(result);
+    for (int i = 0; i < nBuckets; i++) {
+      // start, start - 1, ..., 0, start + 1, ..., nBuckets - 1
+      int b = i <= start ? start - i : i;
+      if (n == heap.length && b != start && key.logDistance(heap[0]) < minLogDistance(b, dist)) {
+        // no node of the bucket is closer than the farthest kept, and the next ones are farther
+        if (b > start) break;
+        continue;
+      }
+      KBucket bucket = k_buckets[b];
+      for (int j = 0; j < bucket.getNeighborCount(); j++) {
+        NodeId node = bucket.getNeighbour(j);
+        if (node.equals(src)) continue;
+        if (n < heap.length) {
+          heap[n] = node;
+          siftUp(heap, n++, key);
+        } else if (key.xorCompare(node, heap[0]) < 0) {
+          heap[0] = node;
+          siftDown(heap, 0, n, key);
+        }
+      }
     }
 
-    // Else get k closest nodes from all k-buckets
-    prefix_len = 0;
-    while (prefix_len < KademliaCommonConfig.BITS) {
-      neighbour_candidates.addAll(bucketAtDistance(prefix_len).neighbours.keySet());
-      // Remove source id
-      neighbour_candidates.remove(src);
-      prefix_len++;
+    // sort in place, from the closest to the farthest
+    for (int end = n - 1; end > 0; end--) {
+      NodeId farthest = heap[0];
+      heap[0] = heap[end];
+      heap[end] = farthest;
+      siftDown(heap, 0, end, key);
     }
+    return heap;
+  }
 
-    // Create a map (distance, node)
-    TreeMap<Integer, List<BigInteger>> distance_map = new TreeMap<Integer, List<BigInteger>>();
-
-    for (BigInteger node : neighbour_candidates) {
-      if (distance_map.get(Util.logDistance(node, key)) == null) {
-        List<BigInteger> l = new ArrayList<BigInteger>();
-        l.add(node);
-        distance_map.put(Util.logDistance(node, key), l);
+  /**
+   * Smallest possible log distance to a key of the nodes of a bucket, other than the bucket of the
+   * key itself.
+   *
+   * @param bucket the bucket index
+   * @param dist the log distance between this node and the key
+   */
+  private int minLogDistance(int bucket, int dist) {
+    // nodes of the lowest bucket, and of the buckets closer to us than the key, share the prefix we
+    // have in common with the key, and differ from it where we differ from it
+    if (bucket == 0) return dist;
+    return Math.max(dist, bucket + bucketMinDistance + 1);
+  }
 
-      } else {
-        distance_map.get(Util.logDistance(node, key)).add(node);
-      }
+  /** Restores the max-heap order by XOR distance to key, moving up the node at index i. */
+  private static void siftUp(NodeId[] heap, int i, NodeId key) {
+    NodeId node = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (key.xorCompare(heap[parent], node) >= 0) break;
+      heap[i] = heap[parent];
+      i = parent;
     }
+    heap[i] = node;
+  }
 
-    List<BigInteger> bestNeighbours = new ArrayList<BigInteger>();
-    for (List<BigInteger> list : distance_map.values()) {
-      for (BigInteger i : list) {
-        if (bestNeighbours.size() < KademliaCommonConfig.K) bestNeighbours.add(i);
-        else break;
-      }
+  /** Restores the max-heap order of the first n nodes, moving down the node at index i. */
+  private static void siftDown(NodeId[] heap, int i, int n, NodeId key) {
+    NodeId node = heap[i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= n) break;
+      if (child + 1 < n && key.xorCompare(heap[child + 1], heap[child]) > 0) child++;
+      if (key.xorCompare(node, heap[child]) >= 0) break;
+      heap[i] = heap[child];
+      i = child;
     }
-    if (bestNeighbours.size() < KademliaCommonConfig.K)
-      result = new BigInteger[bestNeighbours.size()];
-
-    return bestNeighbours.toArray(result);
+    heap[i] = node;
   }
 
   // ______________________________________________________________________________________________
   public Object clone() {
     RoutingTable dolly = new RoutingTable(nBuckets, k, maxReplacements);
-    for (int i = 0; i < k_buckets.size(); i++) {
-      k_buckets.put(i, new KBucket()); // (KBucket) k_buckets.get(i).clone());
+    for (int i = 0; i < k_buckets.length; i++) {
+      k_buckets[i] = new KBucket(); // (KBucket) k_buckets[i].clone());
     }
     return dolly;
   }
@@ -183,46 +228,37 @@ public class RoutingTable implements Cloneable {
       // Print the number of elements in each k-bucket
       //  sb.append("KBucket ").append(i);
 
-      sb.append(k_buckets.get(i).getNeighborCount()).append("\n");
+      sb.append(k_buckets[i].getNeighborCount()).append("\n");
 
       // Uncomment to print all the elements in this k-bucket (row)
-      // KBucket kBucket = k_buckets.get(i);
+      // KBucket kBucket = k_buckets[i];
       // sb.append(kBucket.toString()).append("\n");
     }
 
     return sb.toString();
   }
 
-  public KBucket getBucket(BigInteger node) {
-    return bucketAtDistance(Util.logDistance(nodeId, node));
+  public KBucket getBucket(NodeId node) {
+    return bucketAtDistance(nodeId.logDistance(node));
   }
 
-  public int getBucketNum(BigInteger node) {
-    int dist = Util.logDistance(nodeId, node);
-    if (dist <= bucketMinDistance) {
-      return 0;
-    }
-    return dist - bucketMinDistance - 1;
+  public int getBucketNum(NodeId node) {
+    return Util.bucketIndex(nodeId, node, nBuckets);
   }
 
   protected KBucket bucketAtDistance(int distance) {
-
-    if (distance <= bucketMinDistance) {
-      return k_buckets.get(0);
-    }
-
-    return k_buckets.get(distance - bucketMinDistance - 1);
+    return k_buckets[Util.bucketIndex(distance, nBuckets)];
   }
 
   public int getbucketMinDistance() {
     return bucketMinDistance;
   }
 
-  public void setNodeId(BigInteger id) {
+  public void setNodeId(NodeId id) {
     this.nodeId = id;
   }
 
-  public BigInteger getNodeId() {
+  public NodeId getNodeId() {
     return this.nodeId;
   }
 
@@ -0,0 +1,134 @@
+package peersim.kademlia;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Round-trip time estimate of a peer, used to set the timeout of the requests sent to it.
+ *
+ * <p>It follows the retransmission timer of TCP (RFC 6298): a smoothed RTT and RTT variation are
+ * updated with every measured round trip, and the timeout is <code>SRTT + 4 * RTTVAR</code>. Every
+ * timeout doubles the next one (up to {@value #MAX_BACKOFF} doublings), until a response is
+ * measured again.
+ */
+public class RttEstimator {
+
+  /** Gain of the smoothed RTT */
+  private static final double ALPHA = 1.0 / 8;
+
+  /** Gain of the RTT variation */
+  private static final double BETA = 1.0 / 4;
+
+  /** Maximum number of timeout doublings */
+  public static final int MAX_BACKOFF = 6;
+
+  /** Maximum number of peers a {@link Cache} keeps estimates of */
+  public static final int MAX_PEERS = 512;
+
+  /** Smoothed round-trip time, negative before the first measure */
+  private double srtt = -1;
+
+  /** Round-trip time variation */
+  private double rttvar = 0;
+
+  /** Consecutive timeouts since the last measure */
+  private int failures = 0;
+
+  /**
+   * Updates the estimate with a measured round trip.
+   *
+   * @param rtt the time between the request and its response
+   */
+  public void sample(long rtt) {
+    if (srtt < 0) {
+      srtt = rtt;
+      rttvar = rtt / 2.0;
+    } else {
+      rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+      srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+    }
+    failures = 0;
+  }
+
+  /** Records a request that timed out, which backs the timeout off. */
+  public void timeout() {
+    failures++;
+  }
+
+  /**
+   * Checks whether a round trip has been measured.
+   *
+   * @return true if {@link #getRto} is based on measures
+   */
+  public boolean hasSample() {
+    return srtt >= 0;
+  }
+
+  /**
+   * Returns the number of consecutive timeouts since the last measure.
+   *
+   * @return the number of failures
+   */
+  public int getFailures() {
+    return failures;
+  }
+
+  /**
+   * Returns an estimate of a high percentile of the round trip, about the 95th for normally
+   * distributed round trips, without back-off. Used to hedge requests: a request not answered by
+   * then is likely stalled.
+   *
+   * @param initial the delay to use if no round trip has been measured yet
+   * @return the delay, at least 1
+   */
+  public long getHedgeDelay(long initial) {
+    long delay = hasSample() ? (long) Math.ceil(srtt + 2 * rttvar) : initial;
+    return Math.max(1, delay);
+  }
+
+  /**
+   * Returns the timeout of the next request, including the back-off of the last timeouts.
+   *
+   * @param initial the timeout to use if no round trip has been measured yet
+   * @return the timeout, at least 1
+   */
+  public long getRto(long initial) {
+    long rto = hasSample() ? (long) Math.ceil(srtt + Math.max(1, 4 * rttvar)) : initial;
+    return Math.max(1, rto) << Math.min(failures, MAX_BACKOFF);
+  }
+
+  /**
+   * The estimates of the peers a node sends requests to. Only the {@value #MAX_PEERS} most recently
+   * used are kept, so that the peers a node stopped talking to, e.g. because they left the network,
+   * do not pile up; a peer dropped from the cache starts again from the initial timeout.
+   *
+   * @param <K> the type of the peer IDs
+   */
+  public static class Cache<K> extends LinkedHashMap<K, RttEstimator> {
+
+    private static final long serialVersionUID = 1L;
+
+    public Cache() {
+      super(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the estimate of a peer, creating it if the peer has none.
+     *
+     * @param peer the ID of the peer
+     * @return the estimate
+     */
+    public RttEstimator of(K peer) {
+      RttEstimator r = get(peer);
+      if (r == null) {
+        r = new RttEstimator();
+        put(peer, r);
+      }
+      return r;
+    }
+
+    protected boolean removeEldestEntry(Map.Entry<K, RttEstimator> eldest) {
+      return size() > MAX_PEERS;
+    }
+  }
+}
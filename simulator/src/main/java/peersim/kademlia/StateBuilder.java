@@ -91,8 +91,7 @@ public class StateBuilder implements peersim.core.Control {
             Node n2 = (Node) o2;
             KademliaProtocol p1 = (KademliaProtocol) (n1.getProtocol(kademliaid));
             KademliaProtocol p2 = (KademliaProtocol) (n2.getProtocol(kademliaid));
-            return Util.put0(p1.getKademliaNode().getId())
-                .compareTo(Util.put0(p2.getKademliaNode().getId()));
+            return p1.getKademliaNode().getNodeId().compareTo(p2.getKademliaNode().getNodeId());
           }
         });
 
@@ -115,8 +115,7 @@ public class Turbulence implements Control {
             Node n2 = (Node) o2;
             KademliaProtocol p1 = (KademliaProtocol) (n1.getProtocol(kademliaid));
             KademliaProtocol p2 = (KademliaProtocol) (n2.getProtocol(kademliaid));
-            return Util.put0(p1.getKademliaNode().getId())
-                .compareTo(Util.put0(p2.getKademliaNode().getId()));
+            return p1.getKademliaNode().getNodeId().compareTo(p2.getKademliaNode().getNodeId());
           }
 
           // ______________________________________________________________________________________
@@ -197,6 +196,7 @@ public class Turbulence implements Control {
         new UniformRandomGenerator(KademliaCommonConfig.BITS, CommonState.r);
     KademliaNode node = new KademliaNode(urg.generate(), "127.0.0.1", 0);
     ((KademliaProtocol) (newNode.getProtocol(kademliaid))).setNode(node);
+    NodeIndex.add(newNode);
 
     // Sort the network
     sortNet();
@@ -1,9 +1,8 @@
 package peersim.kademlia;
 
 import java.math.BigInteger;
-import java.util.Set;
+import java.util.Collection;
 import peersim.core.CommonState;
-import peersim.core.Network;
 import peersim.core.Node;
 
 /**
@@ -23,13 +22,50 @@ public class Util {
    * @return int
    */
   public static final int prefixLen(BigInteger b1, BigInteger b2) {
-    String s1 = Util.put0(b1);
-    String s2 = Util.put0(b2);
-    int i = 0;
-    for (i = 0; i < s1.length(); i++) {
-      if (s1.charAt(i) != s2.charAt(i)) return i;
+    // the highest differing bit is the top bit of the longer number, unless lengths are equal
+    int len = b1.bitLength();
+    if (len != b2.bitLength()) return KademliaCommonConfig.BITS - Math.max(len, b2.bitLength());
+    for (int i = len - 1; i >= 0; i--) {
+      if (b1.testBit(i) != b2.testBit(i)) return KademliaCommonConfig.BITS - 1 - i;
     }
-    return i;
+    return KademliaCommonConfig.BITS;
+  }
+
+  /**
+   * Given two IDs, returns the length of their common prefix, i.e. how many bits they have in
+   * common from the most significant one
+   *
+   * @param a NodeId
+   * @param b NodeId
+   * @return int
+   */
+  public static final int prefixLen(NodeId a, NodeId b) {
+    return a.commonPrefixLength(b);
+  }
+
+  /**
+   * Returns the index of the k-bucket of a routing table holding the nodes at a log distance.
+   * Distances up to the one of the lowest bucket all go to bucket 0.
+   *
+   * @param logDistance the log distance between the owner of the table and the node
+   * @param nBuckets the number of k-buckets of the table
+   * @return the bucket index, between 0 and nBuckets - 1
+   */
+  public static final int bucketIndex(int logDistance, int nBuckets) {
+    int minDistance = KademliaCommonConfig.BITS - nBuckets;
+    return logDistance <= minDistance ? 0 : logDistance - minDistance - 1;
+  }
+
+  /**
+   * Returns the index of the k-bucket of the routing table of a node holding another node.
+   *
+   * @param self the ID of the owner of the routing table
+   * @param node the ID of the node to place
+   * @param nBuckets the number of k-buckets of the table
+   * @return the bucket index, between 0 and nBuckets - 1
+   */
+  public static final int bucketIndex(NodeId self, NodeId node, int nBuckets) {
+    return bucketIndex(self.logDistance(node), nBuckets);
   }
 
   /**
@@ -54,6 +90,20 @@ public class Util {
     return b;
   }
 
+  /**
+   * Given a NodeId and an index i, flip the bit at index i and return the updated NodeId.
+   *
+   * @param b NodeId
+   * @param index int
+   * @return NodeId
+   */
+  public static final NodeId flipBit(NodeId b, int index) {
+    if (index >= KademliaCommonConfig.BITS) {
+      throw new IndexOutOfBoundsException("Invalid bit index: " + index);
+    }
+    return b.flipBit(index);
+  }
+
   /**
    * Given a target key (BigInteger) and a set of closest peers, compute and return the minimum of
    * the common prefix lengths shared by the peers in the set and the target.
@@ -62,7 +112,8 @@ public class Util {
    * @param closest
    * @return BigInteger
    */
-  public static final int getMinCplWithSet(BigInteger targetKey, Set<BigInteger> closestSet) {
+  public static final int getMinCplWithSet(
+      BigInteger targetKey, Collection<BigInteger> closestSet) {
     int curr_minCPL = KademliaCommonConfig.BITS;
     for (BigInteger n : closestSet) {
       int cpl = Util.prefixLen(n, targetKey);
@@ -73,6 +124,25 @@ public class Util {
     return curr_minCPL;
   }
 
+  /**
+   * Given a target key (NodeId) and a set of closest peers, compute and return the minimum of the
+   * common prefix lengths shared by the peers in the set and the target.
+   *
+   * @param targetKey NodeId
+   * @param closestSet the peers
+   * @return int
+   */
+  public static final int getMinCplWithSet(NodeId targetKey, Collection<NodeId> closestSet) {
+    int curr_minCPL = KademliaCommonConfig.BITS;
+    for (NodeId n : closestSet) {
+      int cpl = n.commonPrefixLength(targetKey);
+      if (cpl < curr_minCPL) {
+        curr_minCPL = cpl;
+      }
+    }
+    return curr_minCPL;
+  }
+
   /**
    * return the distance between two number which is defined as (a XOR b)
    *
@@ -92,10 +162,10 @@ public class Util {
   public static final String put0(BigInteger b) {
     if (b == null) return null;
     String s = b.toString(2); // base 2
-    while (s.length() < KademliaCommonConfig.BITS) {
-      s = "0" + s;
-    }
-    return s;
+    if (s.length() >= KademliaCommonConfig.BITS) return s;
+    StringBuilder sb = new StringBuilder(KademliaCommonConfig.BITS);
+    for (int i = s.length(); i < KademliaCommonConfig.BITS; i++) sb.append('0');
+    return sb.append(s).toString();
   }
 
   /**
@@ -154,50 +224,27 @@ public class Util {
   }
 
   /**
-   * Search through the network for a node with a specific node ID, using binary search based on the
-   * ordering of the network. If the binary search does not find a node with the given ID, a
-   * traditional search is performed for more reliability (in case the network is not ordered).
+   * Returns the node of the network with a specific node ID, looked up in the {@link NodeIndex}.
    *
    * @param searchNodeId the ID of the node to search for
-   * @return the node with the given ID, or null if not found
+   * @param kademliaid the pid of the Kademlia protocol (IDs are unique among all protocols)
+   * @return the node with the given ID, or null if not found (e.g. it was removed from the network)
    */
   public static Node nodeIdtoNode(BigInteger searchNodeId, int kademliaid) {
     // If the given searchNodeId is null, return null
     if (searchNodeId == null) return null;
+    return NodeIndex.get(searchNodeId);
+  }
 
-    // Set the initial search range to cover the entire network
-    int inf = 0;
-    int sup = Network.size() - 1;
-    int m;
-
-    // Perform binary search until the search range is empty
-    while (inf <= sup) {
-      // Calculate the midpoint of the search range
-      m = (inf + sup) / 2;
-
-      // Get the ID of the node at the midpoint
-      BigInteger mId =
-          ((KademliaProtocol) Network.get(m).getProtocol(kademliaid)).getKademliaNode().getId();
-
-      // If the midpoint node has the desired ID, return it
-      if (mId.equals(searchNodeId)) return Network.get(m);
-
-      // If the midpoint node has a smaller ID than the desired ID, narrow the search range to the
-      // upper half of the current range
-      if (mId.compareTo(searchNodeId) < 0) inf = m + 1;
-      // Otherwise, narrow the search range to the lower half of the current range
-      else sup = m - 1;
-    }
-
-    // If the binary search did not find a node with the desired ID, perform a traditional search
-    // through the network
-    BigInteger mId;
-    for (int i = Network.size() - 1; i >= 0; i--) {
-      mId = ((KademliaProtocol) Network.get(i).getProtocol(kademliaid)).getKademliaNode().getId();
-      if (mId.equals(searchNodeId)) return Network.get(i);
-    }
-
-    // If no node with the desired ID was found, return null
-    return null;
+  /**
+   * Returns the node of the network with a specific node ID, looked up in the {@link NodeIndex}.
+   *
+   * @param searchNodeId the ID of the node to search for
+   * @param kademliaid the pid of the Kademlia protocol (IDs are unique among all protocols)
+   * @return the node with the given ID, or null if not found (e.g. it was removed from the network)
+   */
+  public static Node nodeIdtoNode(NodeId searchNodeId, int kademliaid) {
+    if (searchNodeId == null) return null;
+    return NodeIndex.get(searchNodeId.toBigInteger());
   }
 }
@@ -2,21 +2,26 @@ package peersim.kademlia.das;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Stack;
-import java.util.TreeSet;
 import peersim.core.CommonState;
 import peersim.core.Network;
 import peersim.kademlia.KademliaCommonConfig;
 
+/**
+ * A block of samples, as a square matrix.
+ *
+ * <p>Samples are not stored: they are fully determined by the block ID and their coordinates, so
+ * {@link #getSample} returns a new {@link Sample} view every time, whose IDs are computed on first
+ * use. Queries by ID are answered arithmetically for the region-based mapping. For the random
+ * mapping, the 64-bit prefixes of the sample IDs are sorted once, on the first such query, and
+ * searched by bisection.
+ */
 public class Block implements Iterator<Sample>, Cloneable {
 
-  /** The square matrix of samples */
-  private Sample[][] blockSamples;
-
   /** Block identifier */
   private long blockId;
 
@@ -38,39 +43,23 @@ public class Block implements Iterator<Sample>, Cloneable {
   /** number of samples in a block */
   private int numSamples;
 
-  // private TreeSet<BigInteger> samples;
-  private TreeSet<BigInteger> samplesByRow;
-  private TreeSet<BigInteger> samplesByColumn;
   private HashMap<BigInteger, Parcel> parcelMap;
   private HashMap<Integer, List<Parcel>> parcelByRow;
   private HashMap<Integer, List<Parcel>> parcelByColumn;
 
-  // Constructor with block id
-  public Block(long id) {
-
-    SIZE = 512;
-    this.numSamples = this.SIZE * this.SIZE;
-    _init();
-
-    samplesByRow = new TreeSet<>();
-    samplesByColumn = new TreeSet<>();
-    // sampleMap = new HashMap<>();
+  /**
+   * Sample IDs of the random mapping, sorted, built on first use. Each key is the 64-bit prefix of
+   * an ID, sign-flipped so that signed order is unsigned order, whose low bits are replaced by the
+   * cell of the sample.
+   */
+  private long[] prefixIndex;
 
-    this.blockId = id;
-    blockSamples = new Sample[SIZE][SIZE];
-    row = column = 0;
+  /** Mask of the low bits of the prefix index keys holding the cell */
+  private long cellMask;
 
-    parcelMap = new HashMap<>();
-    parcelByRow = new HashMap<>();
-    parcelByColumn = new HashMap<>();
-    for (int i = 1; i <= blockSamples.length; i++) {
-      for (int j = 1; j <= blockSamples[0].length; j++) {
-        blockSamples[i][j] = new Sample(blockId, i + 1, j + 1, this);
-        samplesByRow.add(blockSamples[i][j].getIdByRow());
-        samplesByColumn.add(blockSamples[i][j].getIdByColumn());
-        // sampleMap.put(blockSamples[i][j].getIdByColumn(), blockSamples[i][j].getIdByRow());
-      }
-    }
+  // Constructor with block id
+  public Block(long id) {
+    this(512, id);
   }
 
   // Constructor specifying block id and matrix size
@@ -79,57 +68,22 @@ public class Block implements Iterator<Sample>, Cloneable {
     SIZE = size;
     this.numSamples = this.SIZE * this.SIZE;
     _init();
-    samplesByRow = new TreeSet<>();
-    samplesByColumn = new TreeSet<>();
-    // sampleMap = new HashMap<>();
 
     this.blockId = id;
-    blockSamples = new Sample[SIZE][SIZE];
     row = column = 0;
 
     parcelMap = new HashMap<>();
     parcelByRow = new HashMap<>();
     parcelByColumn = new HashMap<>();
-
-    for (int i = 0; i < blockSamples.length; i++) {
-      for (int j = 0; j < blockSamples[0].length; j++) {
-        blockSamples[i][j] = new Sample(blockId, i + 1, j + 1, this);
-        samplesByRow.add(blockSamples[i][j].getIdByRow());
-        samplesByColumn.add(blockSamples[i][j].getIdByColumn());
-        // sampleMap.put(blockSamples[i][j].getIdByColumn(), blockSamples[i][j].getIdByRow());
-      }
-    }
-  }
-
-  // Constructor used when cloning
-  public Block(Sample[][] blockSamples, int size, long id) {
-    SIZE = size;
-    this.numSamples = this.SIZE * this.SIZE;
-    _init();
-    this.blockSamples = blockSamples;
-    row = column = 0;
-    this.blockId = id;
-    // samples = new TreeSet<>();
-    samplesByRow = new TreeSet<>();
-    samplesByColumn = new TreeSet<>();
-
-    for (int i = 0; i < blockSamples.length; i++) {
-      for (int j = 0; j < blockSamples[0].length; j++) {
-        blockSamples[i][j] = new Sample(blockId, i + 1, j + 1, this);
-        samplesByRow.add(blockSamples[i][j].getIdByRow());
-        samplesByColumn.add(blockSamples[i][j].getIdByColumn());
-        // sampleMap.put(blockSamples[i][j].getIdByColumn(), blockSamples[i][j].getIdByRow());
-      }
-    }
   }
 
   public void generateRowParcels(int parcelSize) {
     int samplesNum = 0;
     Stack<Sample> samples = new Stack<>();
-    for (int i = 0; i < blockSamples.length; i++) {
+    for (int i = 0; i < SIZE; i++) {
       List<Parcel> l = new ArrayList<>();
-      for (int j = 0; j < blockSamples.length; j++) {
-        samples.push(blockSamples[i][j]);
+      for (int j = 0; j < SIZE; j++) {
+        samples.push(getSample(i, j));
         samplesNum++;
         // System.out.println("Samples size " + samples.size() + " " + parcelSize);
         if (samplesNum == parcelSize) {
@@ -153,10 +107,10 @@ public class Block implements Iterator<Sample>, Cloneable {
     int samplesNum = 0;
     Stack<Sample> samples = new Stack<>();
     Parcel p;
-    for (int i = 0; i < blockSamples.length; i++) {
+    for (int i = 0; i < SIZE; i++) {
       List<Parcel> l = new ArrayList<>();
-      for (int j = 0; j < blockSamples.length; j++) {
-        samples.push(blockSamples[j][i]);
+      for (int j = 0; j < SIZE; j++) {
+        samples.push(getSample(j, i));
         samplesNum++;
         if (samplesNum == parcelSize) {
           p = new Parcel(parcelSize);
@@ -193,7 +147,7 @@ public class Block implements Iterator<Sample>, Cloneable {
    */
   public Object clone() {
     initIterator();
-    Block dolly = new Block(this.blockSamples, this.SIZE, this.blockId);
+    Block dolly = new Block(this.SIZE, this.blockId);
     return dolly;
   }
 
@@ -234,20 +188,26 @@ public class Block implements Iterator<Sample>, Cloneable {
     return this.blockId;
   }
 
-  /* Returns all the block samples */
+  /* Returns all the block samples, as a new matrix */
   public Sample[][] getSamples() {
-    return this.blockSamples;
+    Sample[][] samples = new Sample[SIZE][];
+    for (int i = 0; i < SIZE; i++) samples[i] = getSamplesByRow(i + 1);
+    return samples;
   }
 
   public Sample[] getSamplesByRow(int row) {
-    return this.blockSamples[row - 1];
+    Sample[] samples = new Sample[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      samples[i] = getSample(row - 1, i);
+    }
+    return samples;
   }
 
   public Sample[] getSamplesByColumn(int column) {
 
     Sample[] samples = new Sample[SIZE];
-    for (int i = 0; i < blockSamples.length; i++) {
-      samples[i] = this.blockSamples[i][column - 1];
+    for (int i = 0; i < SIZE; i++) {
+      samples[i] = getSample(i, column - 1);
     }
     return samples;
   }
@@ -259,7 +219,7 @@ public class Block implements Iterator<Sample>, Cloneable {
     for (int i = 0; i < samples.length; i++) {
       int r = CommonState.r.nextInt(SIZE);
       int c = CommonState.r.nextInt(SIZE);
-      samples[i] = this.blockSamples[r][c].getId();
+      samples[i] = getSample(r, c).getId();
     }
     return samples;
   }
@@ -271,14 +231,80 @@ public class Block implements Iterator<Sample>, Cloneable {
     for (int i = 0; i < samples.length; i++) {
       int r = CommonState.r.nextInt(SIZE);
       int c = CommonState.r.nextInt(SIZE);
-      samples[i] = this.blockSamples[r][c];
+      samples[i] = getSample(r, c);
     }
     return samples;
   }
 
-  /* Returns the ids of n random selected samples */
+  /**
+   * Returns a sample of this block. Samples are views created on each call, equal to each other
+   * when they have the same block and coordinates.
+   *
+   * @param row the row, from 0
+   * @param column the column, from 0
+   */
   public Sample getSample(int row, int column) {
-    return this.blockSamples[row][column];
+    return new Sample(blockId, row + 1, column + 1, this);
+  }
+
+  /**
+   * Returns the cell of a sample of this block, given either of its IDs.
+   *
+   * @param id the ID of the sample, by row or by column
+   * @return the cell, as (row - 1) * size + (column - 1), or -1 if the ID is not a sample of this
+   *     block
+   */
+  public int getCell(BigInteger id) {
+    if (KademliaCommonConfigDas.MAPPING_FN == KademliaCommonConfigDas.SAMPLE_MAPPING_REGION_BASED) {
+      // inverse of Sample.computeID: id = gap * number + blockId (+ 1 if numbered by column)
+      BigInteger[] qr =
+          id.subtract(BigInteger.valueOf(blockId)).divideAndRemainder(INTER_SAMPLE_GAP);
+      // divideAndRemainder truncates toward zero: IDs just below blockId give a remainder of -1
+      if (qr[0].signum() < 0 || qr[0].bitLength() > 31) return -1;
+      if (qr[1].signum() < 0 || qr[1].compareTo(BigInteger.ONE) > 0) return -1;
+      int n = qr[0].intValue();
+      if (n >= numSamples) return -1;
+      return qr[1].signum() == 0 ? n : (n % SIZE) * SIZE + n / SIZE;
+    }
+    if (id.signum() < 0 || id.bitLength() > Sample.RANDOM_ID_BITS) return -1;
+    long key = prefixKey(id);
+    long[] index = getPrefixIndex();
+    for (int i = lowerBound(index, key & ~cellMask); i < index.length; i++) {
+      if ((index[i] & ~cellMask) != (key & ~cellMask)) break;
+      int cell = (int) (index[i] & cellMask);
+      if (getSample(cell / SIZE, cell % SIZE).getIdByRow().equals(id)) return cell;
+    }
+    return -1;
+  }
+
+  /** Returns the prefix index of the random mapping, building it on first use. */
+  private synchronized long[] getPrefixIndex() {
+    if (prefixIndex == null) {
+      cellMask = Long.highestOneBit(Math.max(1, numSamples - 1)) * 2 - 1;
+      long[] index = new long[numSamples];
+      for (int i = 0; i < numSamples; i++) {
+        index[i] = (prefixKey(getSample(i / SIZE, i % SIZE).getIdByRow()) & ~cellMask) | i;
+      }
+      Arrays.sort(index);
+      prefixIndex = index;
+    }
+    return prefixIndex;
+  }
+
+  /** Returns the 64-bit prefix of a random mapping ID, sign-flipped to sort as unsigned. */
+  private static long prefixKey(BigInteger id) {
+    return id.shiftRight(Sample.RANDOM_ID_BITS - 64).longValue() ^ Long.MIN_VALUE;
+  }
+
+  /** Returns the index of the first key not lower than the given one. */
+  private static int lowerBound(long[] index, long key) {
+    int lo = 0, hi = index.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (index[mid] < key) lo = mid + 1;
+      else hi = mid;
+    }
+    return lo;
   }
 
   @Override
@@ -292,7 +318,7 @@ public class Block implements Iterator<Sample>, Cloneable {
   @Override
   public Sample next() {
 
-    Sample s = blockSamples[row][column];
+    Sample s = getSample(row, column);
 
     column++;
     if (column == SIZE) {
@@ -324,44 +350,74 @@ public class Block implements Iterator<Sample>, Cloneable {
     return this.numSamples;
   }
 
-  /* Returns the total number of samples in the block */
+  /* Returns the ids of the samples within the radius to the peerId specified*/
   public BigInteger[] getSamplesByRadius(BigInteger peerId, BigInteger radius) {
-    BigInteger top = peerId.add(radius);
-    BigInteger bottom = peerId.subtract(radius);
-
-    Collection<BigInteger> subSet = samplesByRow.subSet(bottom, true, top, true);
-    return (BigInteger[]) subSet.toArray(new BigInteger[0]);
+    return getSamplesByRadiusByRow(peerId, radius);
   }
 
   /* Returns the ids of the samples within the radius to the peerId specified*/
   public BigInteger[] getSamplesByRadiusByRow(BigInteger peerId, BigInteger radius) {
-    BigInteger top = peerId.add(radius);
-    BigInteger bottom = peerId.subtract(radius);
-
-    Collection<BigInteger> subSet = samplesByRow.subSet(bottom, true, top, true);
-    return (BigInteger[]) subSet.toArray(new BigInteger[0]);
+    return getSamplesInRange(peerId.subtract(radius), peerId.add(radius), 0);
   }
 
   /* Returns the ids of the samples within the radius to the peerId specified, using sample column id*/
   public BigInteger[] getSamplesByRadiusByColumn(BigInteger peerId, BigInteger radius) {
-    BigInteger top = peerId.add(radius);
-    BigInteger bottom = peerId.subtract(radius);
-
-    Collection<BigInteger> subSet = samplesByColumn.subSet(bottom, true, top, true);
+    return getSamplesInRange(peerId.subtract(radius), peerId.add(radius), 1);
+  }
 
-    /*List<BigInteger> result = new ArrayList<>();
-    for (BigInteger sampleId : subSet) {
-      result.add(sampleMap.get(sampleId));
+  /**
+   * Returns the sample IDs between two keys, included, in ascending order.
+   *
+   * @param offset 0 for the IDs by row, 1 for the IDs by column
+   */
+  private BigInteger[] getSamplesInRange(BigInteger bottom, BigInteger top, int offset) {
+    if (KademliaCommonConfigDas.MAPPING_FN == KademliaCommonConfigDas.SAMPLE_MAPPING_REGION_BASED) {
+      // id = gap * number + blockId + offset, for numbers from 0 to numSamples - 1
+      BigInteger base = BigInteger.valueOf(blockId + offset);
+      BigInteger first = floorDiv(bottom.subtract(base).subtract(BigInteger.ONE), INTER_SAMPLE_GAP);
+      BigInteger last = floorDiv(top.subtract(base), INTER_SAMPLE_GAP);
+      long from = clamp(first, -1, numSamples) + 1;
+      long to = Math.min(numSamples - 1, clamp(last, -1, numSamples));
+      if (from > to) return new BigInteger[0];
+      BigInteger[] ids = new BigInteger[(int) (to - from + 1)];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = INTER_SAMPLE_GAP.multiply(BigInteger.valueOf(from + i)).add(base);
+      }
+      return ids;
+    }
+    // the random mapping gives the same ID by row and by column
+    if (top.signum() < 0 || (bottom.signum() > 0 && bottom.bitLength() > Sample.RANDOM_ID_BITS))
+      return new BigInteger[0];
+    long[] index = getPrefixIndex();
+    long low = bottom.signum() < 0 ? Long.MIN_VALUE : prefixKey(bottom) & ~cellMask;
+    long high =
+        top.bitLength() > Sample.RANDOM_ID_BITS ? Long.MAX_VALUE : prefixKey(top) | cellMask;
+    List<BigInteger> ids = new ArrayList<>();
+    for (int i = lowerBound(index, low); i < index.length && index[i] <= high; i++) {
+      int cell = (int) (index[i] & cellMask);
+      BigInteger id = getSample(cell / SIZE, cell % SIZE).getIdByRow();
+      // only the keys sharing their prefix with a bound may be out of range
+      if (id.compareTo(bottom) >= 0 && id.compareTo(top) <= 0) ids.add(id);
     }
-    return (BigInteger[]) result.toArray(new BigInteger[0]);*/
-    return (BigInteger[]) subSet.toArray(new BigInteger[0]);
+    BigInteger[] result = ids.toArray(new BigInteger[0]);
+    Arrays.sort(result);
+    return result;
+  }
+
+  private static long clamp(BigInteger v, long min, long max) {
+    return v.max(BigInteger.valueOf(min)).min(BigInteger.valueOf(max)).longValue();
+  }
+
+  private static BigInteger floorDiv(BigInteger a, BigInteger b) {
+    BigInteger[] qr = a.divideAndRemainder(b);
+    return qr[1].signum() < 0 ? qr[0].subtract(BigInteger.ONE) : qr[0];
   }
 
   /* Returns the ids of the all the samples in a specific row*/
   public BigInteger[] getSamplesIdsByRow(int row) {
     BigInteger[] samples = new BigInteger[this.SIZE];
     for (int i = 0; i < samples.length; i++) {
-      samples[i] = this.blockSamples[row - 1][i].getIdByRow();
+      samples[i] = getSample(row - 1, i).getIdByRow();
     }
     return samples;
   }
@@ -370,7 +426,7 @@ public class Block implements Iterator<Sample>, Cloneable {
   public BigInteger[] getSamplesIdsByColumn(int column) {
     BigInteger[] samples = new BigInteger[this.SIZE];
     for (int i = 0; i < samples.length; i++) {
-      samples[i] = this.blockSamples[i][column - 1].getIdByColumn();
+      samples[i] = getSample(i, column - 1).getIdByColumn();
     }
     return samples;
   }
@@ -10,6 +10,7 @@ import peersim.core.Node;
 import peersim.kademlia.KademliaCommonConfig;
 import peersim.kademlia.KademliaNode;
 import peersim.kademlia.KademliaProtocol;
+import peersim.kademlia.NodeIndex;
 import peersim.kademlia.UniformRandomGenerator;
 
 /**
@@ -104,6 +105,7 @@ public class CustomDistributionDas implements peersim.core.Control {
       kadProt = ((KademliaProtocol) (Network.get(i).getProtocol(protocolKadID)));
       kadProt.setProtocolID(protocolKadID);
       kadProt.setNode(node);
+      NodeIndex.add(generalNode);
 
       if (i == 0) {
 
@@ -154,12 +156,12 @@ public class CustomDistributionDas implements peersim.core.Control {
     System.out.println("Validators " + validatorsIds.size());
     System.out.println("Non-Validators " + nonValidatorsIds.size());
 
+    // all the nodes share the same membership, referenced instead of copied
+    MembershipDirectory.publish(new MembershipDirectory(validatorsIds, nonValidatorsIds));
+
     // for (DASProtocol validator : validators) {
     for (int i = 0; i < Network.size(); i++) {
       Node generalNode = Network.get(i);
-      // if (i == 0) //
-      generalNode.getDASProtocol().setNonValidators(nonValidatorsIds);
-      generalNode.getDASProtocol().addKnownValidator(validatorsIds.toArray(new BigInteger[0]));
       // Populate builder's searchtable with all the validators
       if (generalNode.getDASProtocol().isBuilder()) {
         for (Node n : validators)
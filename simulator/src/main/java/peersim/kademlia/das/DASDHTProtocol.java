@@ -10,6 +10,9 @@ import peersim.kademlia.operations.Operation;
 
 public class DASDHTProtocol extends DASProtocol {
 
+  /** Samples received per row and column */
+  protected int[] row, column;
+
   protected static String prefix = null;
 
   public DASDHTProtocol(String prefix) {
@@ -31,7 +34,7 @@ public class DASDHTProtocol extends DASProtocol {
   protected void handleInitNewBlock(Message m, int myPid) {
     time = CommonState.getTime();
     currentBlock = (Block) m.body;
-    kv.erase();
+    sampleStore.reset(currentBlock);
     // samplesRequested = 0;
     row = new int[KademliaCommonConfigDas.BLOCK_DIM_SIZE + 1];
     column = new int[KademliaCommonConfigDas.BLOCK_DIM_SIZE + 1];
@@ -62,7 +65,7 @@ public class DASDHTProtocol extends DASProtocol {
             this.isValidator,
             validatorsList.length,
             this);
-    op.elaborateResponse(kv.getAll().toArray(new Sample[0]));
+    op.elaborateResponse(sampleStore.toArray());
     samplingOp.put(op.getId(), op);
     logger.warning("Sampling operation started random");
     op.setAvailableRequests(KademliaCommonConfigDas.ALPHA);
@@ -116,7 +119,7 @@ public class DASDHTProtocol extends DASProtocol {
             validatorsList.length,
             this);
 
-    op.elaborateResponse(kv.getAll().toArray(new Sample[0]));
+    op.elaborateResponse(sampleStore.toArray());
     samplingOp.put(op.getId(), op);
     logger.warning(
         "Sampling operation started validator "
@@ -246,4 +249,20 @@ public class DASDHTProtocol extends DASProtocol {
 
     return m;
   }
+
+  @Override
+  protected int rowWithHighestNumSamples() {
+    int max = 1;
+    for (int i = 0; i < row.length; i++) if (row[max] < row[i]) max = i;
+
+    return max;
+  }
+
+  @Override
+  protected int columnWithHighestNumSamples() {
+    int max = 1;
+    for (int i = 0; i < column.length; i++) if (column[max] < column[i]) max = i;
+
+    return max;
+  }
 }
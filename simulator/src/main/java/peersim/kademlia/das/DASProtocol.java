@@ -3,12 +3,10 @@ package peersim.kademlia.das;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.logging.Logger;
 import peersim.config.Configuration;
 import peersim.core.CommonState;
@@ -19,8 +17,8 @@ import peersim.edsim.EDSimulator;
 import peersim.kademlia.KademliaEvents;
 import peersim.kademlia.KademliaObserver;
 import peersim.kademlia.KademliaProtocol;
-import peersim.kademlia.KeyValueStore;
 import peersim.kademlia.Message;
+import peersim.kademlia.RttEstimator;
 import peersim.kademlia.SimpleEvent;
 import peersim.kademlia.Timeout;
 import peersim.kademlia.Util;
@@ -31,12 +29,17 @@ import peersim.kademlia.operations.FindOperation;
 import peersim.kademlia.operations.Operation;
 import peersim.transport.UnreliableTransport;
 
-public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEvents, MissingNode {
+public abstract class DASProtocol
+    implements Cloneable, EDProtocol, KademliaEvents, MissingNode, RatingListener {
 
   protected static final String PAR_TRANSPORT = "transport";
   protected static final String PAR_KADEMLIA = "kademlia";
   protected static final String PAR_ALPHA = "alpha";
   protected static final String PAR_PARCEL = "parcelSize";
+  protected static final String PAR_GOSSIP_FANOUT = "gossipFanout";
+  protected static final String PAR_GOSSIP_PULL_DELAY = "gossipPullDelay";
+  protected static final String PAR_HEDGING = "hedging";
+  protected static final String PAR_DIVERSE_SELECTION = "diverseSelection";
   private static String prefix = null;
   private UnreliableTransport transport;
   /** Store the time until which this node's uplink is busy sending data */
@@ -57,7 +60,8 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
 
   protected boolean isValidator;
 
-  protected KeyValueStore kv;
+  /** Samples of the current block held by the node */
+  protected SampleStore sampleStore;
 
   protected Block currentBlock;
 
@@ -69,8 +73,6 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
 
   protected SearchTable searchTable;
 
-  protected int[] row, column;
-
   protected HashSet<BigInteger> queried;
 
   protected int dasID;
@@ -78,13 +80,20 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
   /** trace message sent for timeout purpose */
   protected TreeMap<Long, Long> sentMsg;
 
-  protected long time;
+  /** Round-trip time estimate of the peers sample requests have been sent to lately */
+  protected RttEstimator.Cache<BigInteger> rtt;
 
-  protected TreeSet<BigInteger> nonValidatorsIndexed; // , samplesIndexed;
+  /** Round-trip time estimate over all the peers, for the peers not measured yet */
+  protected RttEstimator anyRtt;
+
+  protected long time;
 
   protected boolean isEvil;
 
   protected boolean missing;
+
+  /** Samples found for a sample request, reused between requests */
+  private Sample[] responseBuffer = new Sample[0];
   /**
    * Replicate this object by returning an identical copy.<br>
    * It is called by the initializer and do not fill any particular field.
@@ -106,7 +115,18 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
 
     KademliaCommonConfigDas.PARCEL_SIZE =
         Configuration.getInt(prefix + "." + PAR_PARCEL, KademliaCommonConfigDas.PARCEL_SIZE);
-    kv = new KeyValueStore();
+    KademliaCommonConfigDas.GOSSIP_FANOUT =
+        Configuration.getInt(
+            prefix + "." + PAR_GOSSIP_FANOUT, KademliaCommonConfigDas.GOSSIP_FANOUT);
+    KademliaCommonConfigDas.GOSSIP_PULL_DELAY =
+        Configuration.getInt(
+            prefix + "." + PAR_GOSSIP_PULL_DELAY, KademliaCommonConfigDas.GOSSIP_PULL_DELAY);
+    KademliaCommonConfigDas.HEDGING =
+        Configuration.getBoolean(prefix + "." + PAR_HEDGING, KademliaCommonConfigDas.HEDGING);
+    KademliaCommonConfigDas.DIVERSE_SELECTION =
+        Configuration.getBoolean(
+            prefix + "." + PAR_DIVERSE_SELECTION, KademliaCommonConfigDas.DIVERSE_SELECTION);
+    sampleStore = new SampleStore();
     samplingOp = new LinkedHashMap<Long, SamplingOperation>();
     kadOps = new LinkedHashMap<Operation, SamplingOperation>();
     samplingStarted = false;
@@ -115,9 +135,11 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
     uploadInterfaceBusyUntil = 0;
 
     sentMsg = new TreeMap<Long, Long>();
+    rtt = new RttEstimator.Cache<BigInteger>();
+    anyRtt = new RttEstimator();
 
     searchTable = new SearchTable();
-    nonValidatorsIndexed = new TreeSet<>();
+    searchTable.setRatingListener(this);
     isBuilder = false;
   }
 
@@ -168,10 +190,21 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
         m = (Message) event;
         handleSeedSample(m, myPid);
         break;
+      case Message.MSG_PULL_SEED:
+        m = (Message) event;
+        handlePullSeed(m, myPid);
+        break;
+      case GossipPull.GOSSIP_PULL:
+        handleGossipPull((GossipPull) event, myPid);
+        break;
       case Message.MSG_GET_SAMPLE_RESPONSE:
         m = (Message) event;
         // logger.warning("Send message removed " + m.ackId);
-        sentMsg.remove(m.ackId);
+        Long sent = sentMsg.remove(m.ackId);
+        if (sent != null) {
+          rttOf(m.src.getId()).sample(CommonState.getTime() - sent);
+          anyRtt.sample(CommonState.getTime() - sent);
+        }
         this.searchTable.successfulSample(m.src.getId());
         handleGetSampleResponse(m, myPid);
         break;
@@ -183,16 +216,31 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
           logger.warning("Timeouuuuut! " + t.msgID);
           sentMsg.remove(t.msgID);
           this.searchTable.failedSample(t.node);
+          rttOf(t.node).timeout();
           SamplingOperation sop = samplingOp.get(t.opID);
           if (sop != null) {
             if (!sop.completed()) {
               logger.warning("Samping operation found");
-
+              // the node will not answer: free its request, as an empty response would
+              sop.elaborateResponse(new Sample[0], t.node);
               doSampling(sop);
             }
           }
         }
         break;
+
+      case Hedge.HEDGE:
+        Hedge h = (Hedge) event;
+        if (sentMsg.containsKey(h.msgID)) { // the response is late
+          SamplingOperation sop = samplingOp.get(h.opID);
+          if (sop != null && !sop.completed()) {
+            logger.warning("Hedging request " + h.msgID + " to " + h.node);
+            // let other nodes be asked for the samples the slow node was asked for
+            sop.releaseNode(h.node);
+            doSampling(sop);
+          }
+        }
+        break;
     }
   }
 
@@ -244,9 +292,7 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
     missing = false;
     time = CommonState.getTime();
     currentBlock = (Block) m.body;
-    kv.erase();
-    row = new int[currentBlock.getSize()];
-    column = new int[currentBlock.getSize()];
+    sampleStore.reset(currentBlock);
 
     // clearing any pending operation from previous block
     for (SamplingOperation sop : samplingOp.values()) {
@@ -266,32 +312,32 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
     System.exit(-1);
   }
 
+  // Only the builder is asked for the samples it seeded.
+  protected void handlePullSeed(Message m, int myPid) {
+    logger.warning("Pull seed request received by a non-builder node - ignored " + this);
+  }
+
+  // Only validators pull the samples of their region.
+  protected void handleGossipPull(GossipPull p, int myPid) {}
+
   protected abstract void handleInitGetSample(Message m, int myPid);
 
   // Sample request received. Sends samples in case of have it
   protected void handleGetSample(Message m, int myPid) {
-    // kv is for storing the sample you have
-    logger.info("KV size " + kv.occupancy() + " from:" + m.src.getId() + " " + m.id);
-    // sample IDs that are requested in the message
-    List<BigInteger> samples = Arrays.asList((BigInteger[]) m.body);
-    // samples to return
-    List<Sample> s = new ArrayList<>();
-
-    for (BigInteger id : samples) {
-      Sample sample = (Sample) kv.get(id);
-      if (sample != null) {
-        s.add(sample);
-      }
+    // sampleStore is for storing the sample you have
+    logger.info("KV size " + sampleStore.size() + " from:" + m.src.getId() + " " + m.id);
+    // samples held among those requested in the message, gathered in the reused buffer
+    BigInteger[] requested = (BigInteger[]) m.body;
+    if (responseBuffer.length < requested.length) responseBuffer = new Sample[requested.length];
+    int held = 0;
+    for (BigInteger id : requested) {
+      Sample sample = sampleStore.get(id);
+      if (sample != null) responseBuffer[held++] = sample;
     }
-    Collections.shuffle(s);
-    Sample[] returnedSamples;
-    if (s.size() > KademliaCommonConfigDas.MAX_SAMPLES_RETURNED)
-      returnedSamples =
-          new HashSet<Sample>(s.subList(0, KademliaCommonConfigDas.MAX_SAMPLES_RETURNED))
-              .toArray(new Sample[0]);
-    else returnedSamples = s.toArray(new Sample[0]);
+    Sample[] returnedSamples = pickSamples(held, KademliaCommonConfigDas.MAX_SAMPLES_RETURNED);
+    Arrays.fill(responseBuffer, 0, held, null);
 
-    logger.info("Get sample request responding with " + s.size() + " samples");
+    logger.info("Get sample request responding with " + held + " samples");
 
     Message response = new Message(Message.MSG_GET_SAMPLE_RESPONSE, returnedSamples);
     response.operationId = m.operationId;
@@ -300,48 +346,44 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
     response.ackId = m.id; // set ACK number
 
     if (m.value instanceof BigInteger[]) {
-      BigInteger[] smpls = (BigInteger[]) m.value;
-      List<Neighbour> neigh = new ArrayList<>();
-      for (int i = 0; i < smpls.length; i++) {
-        Neighbour[] neighs =
-            searchTable.getNeighbours(
-                smpls[i],
-                currentBlock.computeRegionRadius(
-                    KademliaCommonConfigDas.NUM_SAMPLE_COPIES_PER_PEER));
-        for (Neighbour n : neighs) {
-          neigh.add(n);
-          if (neigh.size() >= KademliaCommonConfigDas.MAX_NODES_RETURNED) break;
-        }
-        if (neigh.size() >= KademliaCommonConfigDas.MAX_NODES_RETURNED) break;
-      }
-      response.value = neigh.toArray(new Neighbour[0]);
-      // logger.warning("targeted sample request " + neigh.size());
+      response.value =
+          searchTable.getNeighbours(
+              (BigInteger[]) m.value,
+              currentBlock.computeRegionRadius(KademliaCommonConfigDas.NUM_SAMPLE_COPIES_PER_PEER));
     } else {
       response.value = searchTable.getNeighbours();
     }
     sendMessage(response, m.src.getId(), myPid);
   }
 
+  /**
+   * Returns the first samples of the response buffer, or a random subset of them if there are more
+   * than allowed, picked by a partial Fisher-Yates shuffle of the buffer.
+   *
+   * @param held the number of samples in the buffer
+   * @param max the maximum number of samples returned
+   */
+  private Sample[] pickSamples(int held, int max) {
+    if (held <= max) return Arrays.copyOf(responseBuffer, held);
+    for (int i = 0; i < max; i++) {
+      int j = i + CommonState.r.nextInt(held - i);
+      Sample picked = responseBuffer[j];
+      responseBuffer[j] = responseBuffer[i];
+      responseBuffer[i] = picked;
+    }
+    return Arrays.copyOf(responseBuffer, max);
+  }
+
   // This process creates the missing samples of a row or column when already received part of it.
   private void reconstruct(Sample s) {
-    column[s.getColumn() - 1]++;
-    row[s.getRow() - 1]++;
-    if (column[s.getColumn() - 1] >= column.length / 2
-        && column[s.getColumn() - 1] != column.length) {
-      Sample[] samples = currentBlock.getSamplesByColumn(s.getColumn());
-      for (Sample sam : samples) {
-        kv.add((BigInteger) sam.getIdByRow(), sam);
-        kv.add((BigInteger) sam.getIdByColumn(), sam);
-      }
-      column[s.getColumn() - 1] = currentBlock.getSize();
+    int half = currentBlock.getSize() / 2;
+    int columnCount = sampleStore.getColumnCount(s.getColumn());
+    if (columnCount >= half && columnCount != currentBlock.getSize()) {
+      sampleStore.addColumn(s.getColumn());
     }
-    if (row[s.getRow() - 1] >= row.length / 2 && row[s.getRow() - 1] != row.length) {
-      Sample[] samples = currentBlock.getSamplesByRow(s.getRow());
-      for (Sample sam : samples) {
-        kv.add((BigInteger) sam.getIdByRow(), sam);
-        kv.add((BigInteger) sam.getIdByColumn(), sam);
-      }
-      row[s.getRow() - 1] = currentBlock.getSize();
+    int rowCount = sampleStore.getRowCount(s.getRow());
+    if (rowCount >= half && rowCount != currentBlock.getSize()) {
+      sampleStore.addRow(s.getRow());
     }
   }
 
@@ -360,10 +402,8 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
     }
     for (Sample s : samples) {
 
-      kv.add((BigInteger) s.getIdByRow(), s);
-      kv.add((BigInteger) s.getIdByColumn(), s);
-      // count # of samples for each row and column and reconstruct if more than half received
-      reconstruct(s);
+      // reconstruct the row and column if more than half of their samples are held
+      if (sampleStore.add(s)) reconstruct(s);
     }
 
     SamplingOperation op = (SamplingOperation) samplingOp.get(m.operationId);
@@ -414,6 +454,18 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
     }
   }
 
+  /**
+   * Returns a propagation latency of the transport layer from this node to another one, at least
+   * the minimum delay of the transport.
+   *
+   * @param dest the destination node
+   * @return the latency in ms
+   */
+  protected long getLatency(Node dest) {
+    transport = (UnreliableTransport) (Network.prototype).getProtocol(tid);
+    return transport.getLatency(this.kadProtocol.getNode(), dest);
+  }
+
   /**
    * send a message with current transport layer and starting the timeout timer (wich is an event)
    * if the message is a request
@@ -481,9 +533,27 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
       // add to sent msg
       this.sentMsg.put(m.id, m.timestamp);
       EDSimulator.add(4 * latency, t, src, myPid); // set delay = 2*RTT
+
+      // hedge the request once it is slower than most round trips measured; until a round trip
+      // has been measured, use 3 times the network latency
+      if (KademliaCommonConfigDas.HEDGING) {
+        long delay = rttOf(destId).getHedgeDelay(anyRtt.getHedgeDelay(3 * latency));
+        if (delay < 4 * latency)
+          EDSimulator.add(delay, new Hedge(destId, m.id, m.operationId), src, myPid);
+      }
     }
   }
 
+  /**
+   * Returns the round-trip time estimate of a peer, creating it at the first request.
+   *
+   * @param peer the ID of the peer
+   * @return the estimate
+   */
+  private RttEstimator rttOf(BigInteger peer) {
+    return rtt.of(peer);
+  }
+
   // Starts random sampling, fetching 75 random samples
   protected void startRandomSampling() {
 
@@ -498,7 +568,7 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
             this.isValidator,
             KademliaCommonConfigDas.validatorsSize,
             this);
-    op.elaborateResponse(kv.getAll().toArray(new Sample[0]));
+    op.elaborateResponse(sampleStore.toArray());
     samplingOp.put(op.getId(), op);
     logger.warning("Sampling operation started random");
 
@@ -516,49 +586,51 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
       return true;
     } else {
       boolean success = false;
-      if (sop.getAvailableRequests() == 0) {
-        logger.warning("Doing sampling again " + sop.getId());
-        BigInteger[] nextNodes = sop.doSampling(searchTable);
-        for (BigInteger nextNode : nextNodes) {
-          BigInteger[] reqSamples = sop.getSamples();
-          logger.warning(
-              "sending to node "
-                  + nextNode
-                  + " "
-                  + reqSamples.length
-                  + " "
-                  + sop.getAvailableRequests()
-                  + " "
-                  + sop.getId());
-
-          Message msg = generateGetSampleMessage(reqSamples);
-          msg.operationId = sop.getId();
-          msg.src = this.kadProtocol.getKademliaNode();
-          if (missing) msg.value = reqSamples;
-          success = true;
-
-          msg.dst =
-              Util.nodeIdtoNode(nextNode, kademliaId)
-                  .getKademliaProtocol()
-                  .getKademliaNode(); // <-- Change here for selection of right node?
-
-          sop.addMessage(msg.id);
-          sendMessage(msg, nextNode, dasID);
-          sop.getMessages();
-        }
-        if (!success) {
-          if (sop instanceof ValidatorSamplingOperation)
-            logger.warning("Sampling operation finished validator failed " + sop.getId());
-          else {
-            logger.warning("Sampling operation finished random failed " + sop.getId());
-            for (BigInteger id : sop.getSamples()) {
-              logger.warning("Missing sample " + id + " for op " + sop.getId());
-            }
+      // requests are sent as soon as nodes are left to ask: a response lacking some samples or a
+      // hedged request widens those samples alone, so that alternative nodes are asked for them
+      // at once; all the samples are widened once all the requests have been answered
+      boolean widen = sop.getAvailableRequests() == 0;
+      if (widen) logger.warning("Doing sampling again " + sop.getId());
+      BigInteger[] nextNodes = sop.doSampling(searchTable, widen);
+      for (BigInteger nextNode : nextNodes) {
+        BigInteger[] reqSamples = sop.getSamples();
+        logger.warning(
+            "sending to node "
+                + nextNode
+                + " "
+                + reqSamples.length
+                + " "
+                + sop.getAvailableRequests()
+                + " "
+                + sop.getId());
+
+        Message msg = generateGetSampleMessage(reqSamples);
+        msg.operationId = sop.getId();
+        msg.src = this.kadProtocol.getKademliaNode();
+        if (missing) msg.value = reqSamples;
+        success = true;
+
+        msg.dst =
+            Util.nodeIdtoNode(nextNode, kademliaId)
+                .getKademliaProtocol()
+                .getKademliaNode(); // <-- Change here for selection of right node?
+
+        sop.addMessage(msg.id);
+        sendMessage(msg, nextNode, dasID);
+        sop.getMessages();
+      }
+      if (!success && sop.getAvailableRequests() == 0) {
+        if (sop instanceof ValidatorSamplingOperation)
+          logger.warning("Sampling operation finished validator failed " + sop.getId());
+        else {
+          logger.warning("Sampling operation finished random failed " + sop.getId());
+          for (BigInteger id : sop.getSamples()) {
+            logger.warning("Missing sample " + id + " for op " + sop.getId());
           }
-
-          samplingOp.remove(sop.getId());
-          KademliaObserver.reportOperation(sop);
         }
+
+        samplingOp.remove(sop.getId());
+        KademliaObserver.reportOperation(sop);
       }
       return success;
     }
@@ -662,6 +734,12 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
     }
   }
 
+  // Keeps the node ratings of the ongoing sampling operations up to date
+  @Override
+  public void ratingChanged(BigInteger id, double rating) {
+    for (SamplingOperation sop : samplingOp.values()) sop.ratingChanged(id, rating);
+  }
+
   // Only logging in case there are still missing samples during sampling
   @Override
   public void missing(BigInteger sample, Operation op) {
@@ -705,16 +783,20 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
     return this.getKademliaProtocol().getKademliaNode().getId();
   }
 
+  /** Returns the row with the most samples held, from 1. */
   protected int rowWithHighestNumSamples() {
     int max = 1;
-    for (int i = 0; i < row.length; i++) if (row[max] < row[i]) max = i;
+    for (int i = 1; i <= currentBlock.getSize(); i++)
+      if (sampleStore.getRowCount(max) < sampleStore.getRowCount(i)) max = i;
 
     return max;
   }
 
+  /** Returns the column with the most samples held, from 1. */
   protected int columnWithHighestNumSamples() {
     int max = 1;
-    for (int i = 0; i < column.length; i++) if (column[max] < column[i]) max = i;
+    for (int i = 1; i <= currentBlock.getSize(); i++)
+      if (sampleStore.getColumnCount(max) < sampleStore.getColumnCount(i)) max = i;
 
     return max;
   }
@@ -725,13 +807,6 @@ public abstract class DASProtocol implements Cloneable, EDProtocol, KademliaEven
     if (isBuilder()) searchTable.addValidatorNodes(ids);
   }
 
-  public void setNonValidators(List<BigInteger> nonValidators) {
-    for (BigInteger id : nonValidators) {
-      nonValidatorsIndexed.add(id);
-    }
-    searchTable.addNodes(nonValidators.toArray(new BigInteger[0]));
-  }
-
   public SearchTable getSearchTable() {
     return searchTable;
   }
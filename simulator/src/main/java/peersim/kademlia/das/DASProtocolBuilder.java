@@ -1,7 +1,10 @@
 package peersim.kademlia.das;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import peersim.core.Node;
 import peersim.edsim.EDSimulator;
 import peersim.kademlia.Message;
@@ -32,6 +35,27 @@ public class DASProtocolBuilder extends DASProtocol {
     System.exit(-1);
   }
 
+  @Override
+  protected void handlePullSeed(Message m, int myPid) {
+    // seed again the samples of the current block a validator did not receive by gossip
+    List<Sample> samples = new ArrayList<>();
+    int size = currentBlock.getSize();
+    for (BigInteger id : (BigInteger[]) m.body) {
+      int cell = currentBlock.getCell(id);
+      if (cell >= 0) samples.add(currentBlock.getSample(cell / size, cell % size));
+    }
+    if (samples.isEmpty()) return;
+
+    Node n = Util.nodeIdtoNode(m.src.getId(), kademliaId);
+    DASProtocol dasProt = n.getDASProtocol();
+    logger.warning("Sending " + samples.size() + " pulled samples to validator " + m.src.getId());
+    Message msg = generateSeedSampleMessage(samples.toArray(new Sample[0]));
+    msg.operationId = -1;
+    msg.src = this.getKademliaProtocol().getKademliaNode();
+    msg.dst = m.src;
+    sendMessage(msg, m.src.getId(), dasProt.getDASProtocolID());
+  }
+
   @Override
   protected void handleInitNewBlock(Message m, int myPid) {
     super.handleInitNewBlock(m, myPid);
@@ -43,86 +67,40 @@ public class DASProtocolBuilder extends DASProtocol {
 
     BigInteger radiusNonValidator =
         currentBlock.computeRegionRadius(KademliaCommonConfigDas.NUM_SAMPLE_COPIES_PER_PEER);
+    BigInteger radiusValidator =
+        currentBlock.computeRegionRadius(
+            KademliaCommonConfigDas.NUM_SAMPLE_COPIES_PER_PEER, searchTable.getValidatorsCount());
+
+    // samples to seed, by validator, in the order validators are first met
+    LinkedHashMap<BigInteger, List<Sample>> batches = new LinkedHashMap<>();
+    BigInteger radiusGossip = GossipTree.radius(currentBlock);
 
     while (currentBlock.hasNext()) {
-      boolean inRegion = false;
       Sample s = currentBlock.next();
 
-      BigInteger radiusValidator =
-          currentBlock.computeRegionRadius(
-              KademliaCommonConfigDas.NUM_SAMPLE_COPIES_PER_PEER,
-              searchTable.getValidatorsIndexed().size());
-
-      while (!inRegion) {
-
-        List<BigInteger> idsValidators =
-            searchTable.getValidatorNodesbySample(s.getIdByRow(), radiusValidator);
-
-        for (BigInteger id : idsValidators) {
-
-          logger.warning(
-              "Sending sample to validator "
-                  + s.getIdByRow()
-                  + " "
-                  + s.getIdByColumn()
-                  + " to "
-                  + id);
-          Node n = Util.nodeIdtoNode(id, kademliaId);
-          DASProtocol dasProt = ((DASProtocol) (n.getDASProtocol()));
-          if (dasProt.isBuilder()) continue;
-          if (n.isUp()) {
-            Sample[] samples = {s};
-            Message msg = generateSeedSampleMessage(samples);
-            msg.operationId = -1;
-            msg.src = this.getKademliaProtocol().getKademliaNode();
-            msg.dst = n.getKademliaProtocol().getKademliaNode();
-            sendMessage(msg, id, dasProt.getDASProtocolID());
-            samplesValidators++;
-            if (inRegion == false) {
-              samplesWithinRegion++;
-              inRegion = true;
-            }
-          }
+      int root = -1;
+      if (KademliaCommonConfigDas.GOSSIP_FANOUT > 0) {
+        // seed the root of the sample's gossip tree only, which forwards it to the others
+        List<BigInteger> region = GossipTree.region(s, radiusGossip);
+        root = GossipTree.root(s, region, kademliaId);
+        if (root >= 0) {
+          batches.computeIfAbsent(region.get(root), v -> new ArrayList<>()).add(s);
+          samplesWithinRegion++;
+          samplesValidators++;
         }
-        if (!inRegion) radiusValidator = radiusValidator.multiply(BigInteger.valueOf(2));
       }
-      inRegion = false;
-      while (!inRegion) {
-
-        List<BigInteger> idsValidators =
-            searchTable.getValidatorNodesbySample(s.getIdByColumn(), radiusValidator);
-
-        for (BigInteger id : idsValidators) {
-
-          logger.warning(
-              "Sending sample to validator "
-                  + s.getIdByRow()
-                  + " "
-                  + s.getIdByColumn()
-                  + " to "
-                  + id);
-          Node n = Util.nodeIdtoNode(id, kademliaId);
-          DASProtocol dasProt = ((DASProtocol) (n.getDASProtocol()));
-          if (dasProt.isBuilder()) continue;
-          if (n.isUp()) {
-            Sample[] samples = {s};
-            Message msg = generateSeedSampleMessage(samples);
-            msg.operationId = -1;
-            msg.src = this.getKademliaProtocol().getKademliaNode();
-            msg.dst = n.getKademliaProtocol().getKademliaNode();
-            sendMessage(msg, id, dasProt.getDASProtocolID());
-            samplesValidators++;
-            if (inRegion == false) {
-              samplesWithinRegion++;
-              inRegion = true;
-            }
-          }
-        }
-        if (!inRegion) radiusValidator = radiusValidator.multiply(BigInteger.valueOf(2));
+      if (root < 0) {
+        int sent = addToSeedBatches(s, s.getIdByRow(), radiusValidator, batches);
+        if (sent > 0) samplesWithinRegion++;
+        samplesValidators += sent;
+        sent = addToSeedBatches(s, s.getIdByColumn(), radiusValidator, batches);
+        if (sent > 0) samplesWithinRegion++;
+        samplesValidators += sent;
       }
 
       List<BigInteger> idsNonValidators =
-          searchTable.getNonValidatorNodesbySample(s.getIdByRow(), radiusNonValidator);
+          new ArrayList<>(
+              searchTable.getNonValidatorNodesbySample(s.getIdByRow(), radiusNonValidator));
       idsNonValidators.addAll(
           searchTable.getNonValidatorNodesbySample(s.getIdByColumn(), radiusNonValidator));
       for (BigInteger id : idsNonValidators) {
@@ -139,13 +117,29 @@ public class DASProtocolBuilder extends DASProtocol {
         if (n.isUp()) {
           samplesNonValidators++;
 
+          // the non-validator is told after a network delay, never below the lookahead of the
+          // parallel engine
           if (!dasProt.isValidator()) {
-            EDSimulator.add(2, generateNewSampleMessage(s.getId()), n, dasProt.getDASProtocolID());
+            EDSimulator.add(
+                getLatency(n), generateNewSampleMessage(s.getId()), n, dasProt.getDASProtocolID());
           }
         }
       }
     }
 
+    // one seed message per validator, sized by its number of samples
+    for (Map.Entry<BigInteger, List<Sample>> batch : batches.entrySet()) {
+      BigInteger id = batch.getKey();
+      Node n = Util.nodeIdtoNode(id, kademliaId);
+      DASProtocol dasProt = ((DASProtocol) (n.getDASProtocol()));
+      logger.warning("Sending " + batch.getValue().size() + " samples to validator " + id);
+      Message msg = generateSeedSampleMessage(batch.getValue().toArray(new Sample[0]));
+      msg.operationId = -1;
+      msg.src = this.getKademliaProtocol().getKademliaNode();
+      msg.dst = n.getKademliaProtocol().getKademliaNode();
+      sendMessage(msg, id, dasProt.getDASProtocolID());
+    }
+
     logger.warning(
         samplesWithinRegion
             + " samples out of "
@@ -157,6 +151,33 @@ public class DASProtocolBuilder extends DASProtocol {
             + samplesNonValidators);
   }
 
+  /**
+   * Adds a sample to the seed batches of the validators whose region contains one of its IDs. The
+   * radius is doubled until at least one validator is up in the region.
+   *
+   * @param s the sample
+   * @param id the ID of the sample, by row or by column
+   * @param radius the radius of the validators' regions
+   * @param batches the samples to seed, by validator
+   * @return the number of validators the sample is added for
+   */
+  private int addToSeedBatches(
+      Sample s, BigInteger id, BigInteger radius, Map<BigInteger, List<Sample>> batches) {
+    int sent = 0;
+    while (sent == 0) {
+      for (BigInteger validator : searchTable.getValidatorNodesbySample(id, radius)) {
+        Node n = Util.nodeIdtoNode(validator, kademliaId);
+        if (n.getDASProtocol().isBuilder() || !n.isUp()) continue;
+        List<Sample> batch = batches.computeIfAbsent(validator, v -> new ArrayList<>());
+        // a sample in both regions of a validator is sent once
+        if (batch.isEmpty() || batch.get(batch.size() - 1) != s) batch.add(s);
+        sent++;
+      }
+      if (sent == 0) radius = radius.multiply(BigInteger.valueOf(2));
+    }
+    return sent;
+  }
+
   @Override
   protected void handleInitGetSample(Message m, int myPid) {
     logger.warning("Error. Init block builder node - getting samples. do nothing " + this);
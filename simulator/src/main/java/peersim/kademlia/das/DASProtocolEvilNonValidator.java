@@ -22,8 +22,8 @@ public class DASProtocolEvilNonValidator extends DASProtocolNonValidator {
   }
 
   /*protected void handleGetSample(Message m, int myPid) {
-    // kv is for storing the sample you have
-    logger.info("KV size " + kv.occupancy() + " from:" + m.src.getId() + " " + m.id);
+    // sampleStore is for storing the sample you have
+    logger.info("KV size " + sampleStore.size() + " from:" + m.src.getId() + " " + m.id);
     // sample IDs that are requested in the message
 
     Message response = new Message(Message.MSG_GET_SAMPLE_RESPONSE, new Sample[] {});
@@ -28,9 +28,15 @@ public class DASProtocolEvilValidator extends DASProtocolValidator {
     // super.handleInitGetSample(m, myPid);
   }
 
+  /** Forwards seeded samples in the gossip trees until the attack time, like other validators. */
+  @Override
+  protected boolean forwardsSeeds() {
+    return CommonState.getTime() < attackTime;
+  }
+
   protected void handleGetSample(Message m, int myPid) {
-    // kv is for storing the sample you have
-    logger.info("KV size " + kv.occupancy() + " from:" + m.src.getId() + " " + m.id);
+    // sampleStore is for storing the sample you have
+    logger.info("KV size " + sampleStore.size() + " from:" + m.src.getId() + " " + m.id);
     // sample IDs that are requested in the message
 
     if (CommonState.getTime() < attackTime) {
@@ -34,8 +34,7 @@ public class DASProtocolNonValidator extends DASProtocol {
     BigInteger[] samples = {(BigInteger) m.body};
     BigInteger radius =
         currentBlock.computeRegionRadius(
-            KademliaCommonConfigDas.NUM_SAMPLE_COPIES_PER_PEER,
-            searchTable.getValidatorsIndexed().size());
+            KademliaCommonConfigDas.NUM_SAMPLE_COPIES_PER_PEER, searchTable.getValidatorsCount());
     for (BigInteger sample : samples) {
       if (!reqSamples.contains(sample)) {
         for (BigInteger id :
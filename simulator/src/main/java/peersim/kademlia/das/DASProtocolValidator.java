@@ -1,8 +1,17 @@
 package peersim.kademlia.das;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import peersim.core.CommonState;
+import peersim.core.Node;
+import peersim.edsim.EDSimulator;
+import peersim.kademlia.KademliaObserver;
 import peersim.kademlia.Message;
+import peersim.kademlia.Util;
 import peersim.kademlia.das.operations.ValidatorSamplingOperation;
 
 // DAS Protocol process functions executed only by validators. It stores samples received by the
@@ -11,6 +20,21 @@ public class DASProtocolValidator extends DASProtocol {
 
   protected static String prefix = null;
 
+  /** Samples of the current block received by seeding, from the builder or by gossip */
+  private SampleStore seeded = new SampleStore();
+
+  /** Radius of the region of the node for the current block */
+  private BigInteger custodyRadius;
+
+  /** Number of samples of the current block in the region of the node */
+  private int custodyTarget;
+
+  /** Number of samples of the region of the node held */
+  private int custodyHeld;
+
+  /** One ID of each sample of the current block in the region of the node */
+  private BigInteger[] custodyIds = new BigInteger[0];
+
   public DASProtocolValidator(String prefix) {
     super(prefix);
     DASProtocolValidator.prefix = prefix;
@@ -24,10 +48,11 @@ public class DASProtocolValidator extends DASProtocol {
     if (m.body == null) return;
 
     Sample[] samples = (Sample[]) m.body;
+    List<Sample> fresh = new ArrayList<>();
     for (Sample s : samples) {
       logger.warning(
           "Received sample:"
-              + kv.occupancy()
+              + sampleStore.size()
               + " "
               + s.getRow()
               + " "
@@ -37,11 +62,81 @@ public class DASProtocolValidator extends DASProtocol {
               + " "
               + s.getIdByColumn());
 
-      kv.add((BigInteger) s.getIdByRow(), s);
-      kv.add((BigInteger) s.getIdByColumn(), s);
-      // count # of samples for each row and column
-      column[s.getColumn() - 1]++;
-      row[s.getRow() - 1]++;
+      sampleStore.add(s);
+      // samples already fetched by sampling are still counted and forwarded once
+      if (seeded.add(s)) fresh.add(s);
+    }
+    if (fresh.isEmpty()) return;
+
+    for (Sample s : fresh) {
+      if (this.isEvil || custodyTarget == 0) break;
+      if (inCustody(s.getIdByRow()) || inCustody(s.getIdByColumn())) {
+        if (++custodyHeld == custodyTarget)
+          KademliaObserver.reportCustody(CommonState.getTime() - time);
+      }
+    }
+    if (KademliaCommonConfigDas.GOSSIP_FANOUT > 0 && forwardsSeeds()) forwardSamples(fresh);
+  }
+
+  /** Checks whether the node forwards the samples it is seeded to its children in their trees. */
+  protected boolean forwardsSeeds() {
+    return true;
+  }
+
+  @Override
+  protected void handleGossipPull(GossipPull p, int myPid) {
+    if (p.blockId != currentBlock.getBlockId() || custodyHeld >= custodyTarget) return;
+    // a node of the trees above did not forward: ask the builder for what is missing
+    List<BigInteger> missing = new ArrayList<>();
+    for (BigInteger id : custodyIds) if (!seeded.contains(id)) missing.add(id);
+    if (missing.isEmpty()) return;
+
+    Node n = Util.nodeIdtoNode(builderAddress, kademliaId);
+    logger.warning("Pulling " + missing.size() + " samples from the builder");
+    Message msg = new Message(Message.MSG_PULL_SEED, missing.toArray(new BigInteger[0]));
+    msg.timestamp = CommonState.getTime();
+    msg.operationId = -1;
+    msg.src = this.getKademliaProtocol().getKademliaNode();
+    msg.dst = n.getKademliaProtocol().getKademliaNode();
+    sendMessage(msg, builderAddress, myPid);
+  }
+
+  /** Checks whether a sample ID is in the region of the node for the current block. */
+  private boolean inCustody(BigInteger id) {
+    return id.subtract(this.getKademliaId()).abs().compareTo(custodyRadius) <= 0;
+  }
+
+  /**
+   * Forwards samples just received to the children of the node in their gossip trees. Samples are
+   * only forwarded the first time they are received.
+   *
+   * @param samples the samples, new to this node
+   */
+  private void forwardSamples(List<Sample> samples) {
+    Map<BigInteger, List<Sample>> batches = new LinkedHashMap<>();
+    for (Sample s : samples) {
+      List<BigInteger> region = GossipTree.region(s, custodyRadius);
+      int root = GossipTree.root(s, region, kademliaId);
+      List<BigInteger> children =
+          GossipTree.children(
+              region,
+              root,
+              this.getKademliaId(),
+              KademliaCommonConfigDas.GOSSIP_FANOUT,
+              kademliaId);
+      for (BigInteger id : children) batches.computeIfAbsent(id, v -> new ArrayList<>()).add(s);
+    }
+
+    for (Map.Entry<BigInteger, List<Sample>> batch : batches.entrySet()) {
+      BigInteger id = batch.getKey();
+      Node n = Util.nodeIdtoNode(id, kademliaId);
+      DASProtocol dasProt = n.getDASProtocol();
+      logger.warning("Forwarding " + batch.getValue().size() + " samples to validator " + id);
+      Message msg = generateSeedSampleMessage(batch.getValue().toArray(new Sample[0]));
+      msg.operationId = -1;
+      msg.src = this.getKademliaProtocol().getKademliaNode();
+      msg.dst = n.getKademliaProtocol().getKademliaNode();
+      sendMessage(msg, id, dasProt.getDASProtocolID());
     }
   }
 
@@ -53,6 +148,7 @@ public class DASProtocolValidator extends DASProtocol {
   @Override
   protected void handleInitNewBlock(Message m, int myPid) {
     super.handleInitNewBlock(m, myPid);
+    startCustody(myPid);
     // Onur: I think the sampling should only be done is this is node is not evil
     if (!this.isEvil) {
       startRowsandColumnsSampling();
@@ -60,6 +156,35 @@ public class DASProtocolValidator extends DASProtocol {
     }
   }
 
+  /**
+   * Computes the samples of the new block in the region of the node, which the builder seeds
+   * directly or by gossip, to measure the time it takes to hold all of them. Under gossip, the
+   * missing ones are pulled from the builder after GOSSIP_PULL_DELAY.
+   *
+   * @param myPid protocol pid
+   */
+  private void startCustody(int myPid) {
+    custodyRadius = GossipTree.radius(currentBlock);
+    Map<Integer, BigInteger> cells = new HashMap<>();
+    for (BigInteger id : currentBlock.getSamplesByRadiusByRow(this.getKademliaId(), custodyRadius))
+      cells.putIfAbsent(currentBlock.getCell(id), id);
+    for (BigInteger id :
+        currentBlock.getSamplesByRadiusByColumn(this.getKademliaId(), custodyRadius))
+      cells.putIfAbsent(currentBlock.getCell(id), id);
+    custodyTarget = cells.size();
+    custodyIds = cells.values().toArray(new BigInteger[0]);
+    custodyHeld = 0;
+    seeded.reset(currentBlock);
+    if (this.isEvil || custodyTarget == 0) return;
+    KademliaObserver.reportCustodyExpected();
+    if (KademliaCommonConfigDas.GOSSIP_FANOUT > 0)
+      EDSimulator.add(
+          KademliaCommonConfigDas.GOSSIP_PULL_DELAY,
+          new GossipPull(currentBlock.getBlockId()),
+          this.getKademliaProtocol().getNode(),
+          myPid);
+  }
+
   /**
    * Starts getting rows and columns, only for validators
    *
@@ -71,11 +196,11 @@ public class DASProtocolValidator extends DASProtocol {
         "Starting rows and columns fetch "
             + rowWithHighestNumSamples()
             + " "
-            + row[rowWithHighestNumSamples()]
+            + sampleStore.getRowCount(rowWithHighestNumSamples())
             + " "
             + columnWithHighestNumSamples()
             + " "
-            + column[columnWithHighestNumSamples()]);
+            + sampleStore.getColumnCount(columnWithHighestNumSamples()));
 
     // start 2 row 2 column Validator operation (1 row/column with the highest number of samples
     // already downloaded and another random)
@@ -104,7 +229,7 @@ public class DASProtocolValidator extends DASProtocol {
     samplingOp.put(op.getId(), op);
     logger.warning("Sampling operation started validator " + op.getId());
 
-    op.elaborateResponse(kv.getAll().toArray(new Sample[0]));
+    op.elaborateResponse(sampleStore.toArray());
     doSampling(op);
   }
 
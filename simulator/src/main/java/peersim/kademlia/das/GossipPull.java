@@ -0,0 +1,22 @@
+package peersim.kademlia.das;
+
+import peersim.kademlia.SimpleEvent;
+
+/**
+ * This class represents the custody timer of a validator under gossip seeding: if the validator
+ * does not hold all the samples of its region when it fires, it pulls the missing ones from the
+ * builder.
+ */
+public class GossipPull extends SimpleEvent {
+
+  /** Event Type: GOSSIP_PULL */
+  public static final int GOSSIP_PULL = 102;
+
+  /** The ID of the block the timer is set for */
+  public long blockId;
+
+  public GossipPull(long blockId) {
+    super(GOSSIP_PULL);
+    this.blockId = blockId;
+  }
+}
@@ -0,0 +1,122 @@
+package peersim.kademlia.das;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import peersim.core.Node;
+import peersim.kademlia.Util;
+
+/**
+ * The tree a seeded sample is disseminated along, among the validators of its region.
+ *
+ * <p>The region of a sample is the set of validators within a radius of either of its IDs, taken
+ * from the {@link MembershipDirectory}, so that every node computes the same one. Its members are
+ * sorted by ID and arranged in a FANOUT-ary tree, rooted at a member chosen from the sample's
+ * coordinates, so that the roots of the samples of a block are spread over the validators. The
+ * builder seeds the root, and every member forwards the sample to its children: each validator of
+ * the region receives it once. Members that are down, or builders, are skipped, their children
+ * being adopted by their parent. Members that are up but do not forward are not: their descendants
+ * pull the sample from the builder instead.
+ */
+public final class GossipTree {
+
+  private GossipTree() {}
+
+  /**
+   * Returns the radius of the validators' regions, from the number of validators in the directory,
+   * the same for all the nodes.
+   *
+   * @param block the block
+   */
+  public static BigInteger radius(Block block) {
+    return block.computeRegionRadius(
+        KademliaCommonConfigDas.NUM_SAMPLE_COPIES_PER_PEER,
+        MembershipDirectory.getCurrent().getValidatorsCount());
+  }
+
+  /**
+   * Returns the validators of the region of a sample, sorted by ID.
+   *
+   * @param s the sample
+   * @param radius the radius of the validators' regions, as given by {@link #radius}
+   */
+  public static List<BigInteger> region(Sample s, BigInteger radius) {
+    TreeSet<BigInteger> region = new TreeSet<>();
+    region.addAll(range(s.getIdByRow(), radius));
+    region.addAll(range(s.getIdByColumn(), radius));
+    return new ArrayList<>(region);
+  }
+
+  /**
+   * Returns the root of the tree of a sample, the first member that is up from a position given by
+   * the sample's coordinates.
+   *
+   * @param s the sample
+   * @param region the region of the sample
+   * @param kademliaId the Kademlia protocol ID, to find the nodes
+   * @return the index of the root in the region, or -1 if no member is up
+   */
+  public static int root(Sample s, List<BigInteger> region, int kademliaId) {
+    int n = region.size();
+    if (n == 0) return -1;
+    int start = Math.floorMod(s.getRow() * 31 + s.getColumn(), n);
+    for (int i = 0; i < n; i++) {
+      int index = (start + i) % n;
+      if (isAlive(region.get(index), kademliaId)) return index;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the members a node forwards a sample to.
+   *
+   * @param region the region of the sample
+   * @param root the index of the root in the region
+   * @param id the ID of the node
+   * @param fanout the number of children of each member
+   * @param kademliaId the Kademlia protocol ID, to find the nodes
+   * @return the IDs of the members, empty if the node is not in the region
+   */
+  public static List<BigInteger> children(
+      List<BigInteger> region, int root, BigInteger id, int fanout, int kademliaId) {
+    int index = Collections.binarySearch(region, id);
+    if (root < 0 || index < 0) return Collections.emptyList();
+    int n = region.size();
+    List<BigInteger> children = new ArrayList<>(fanout);
+    addChildren(region, root, Math.floorMod(index - root, n), fanout, kademliaId, children);
+    return children;
+  }
+
+  /** Adds the children of a position, relative to the root, adopting those of dead children. */
+  private static void addChildren(
+      List<BigInteger> region,
+      int root,
+      int position,
+      int fanout,
+      int kademliaId,
+      List<BigInteger> children) {
+    int n = region.size();
+    for (long p = (long) fanout * position + 1;
+        p <= (long) fanout * position + fanout && p < n;
+        p++) {
+      BigInteger child = region.get((int) ((root + p) % n));
+      if (isAlive(child, kademliaId)) children.add(child);
+      else addChildren(region, root, (int) p, fanout, kademliaId, children);
+    }
+  }
+
+  private static boolean isAlive(BigInteger id, int kademliaId) {
+    Node n = Util.nodeIdtoNode(id, kademliaId);
+    return n != null && n.isUp() && !n.getDASProtocol().isBuilder();
+  }
+
+  private static List<BigInteger> range(BigInteger sampleId, BigInteger radius) {
+    BigInteger bottom = sampleId.subtract(radius);
+    if (bottom.signum() < 0) bottom = BigInteger.ZERO;
+    BigInteger top = sampleId.add(radius);
+    if (top.compareTo(Block.MAX_KEY) > 0) top = Block.MAX_KEY;
+    return MembershipDirectory.getCurrent().getValidators(bottom, top);
+  }
+}
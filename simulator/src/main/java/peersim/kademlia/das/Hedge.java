@@ -0,0 +1,30 @@
+package peersim.kademlia.das;
+
+import java.math.BigInteger;
+import peersim.kademlia.SimpleEvent;
+
+/**
+ * This class represents the hedging timer of a sample request: if the request has not been answered
+ * when it fires, its samples are requested from other nodes, without waiting for the timeout.
+ */
+public class Hedge extends SimpleEvent {
+
+  /** Event Type: HEDGE */
+  public static final int HEDGE = 101;
+
+  /** The node which is slow to respond */
+  public BigInteger node;
+
+  /** The ID of the message sent to the node */
+  public long msgID;
+
+  /** The ID of the operation in which the message has been sent */
+  public long opID;
+
+  public Hedge(BigInteger node, long msgID, long opID) {
+    super(HEDGE);
+    this.node = node;
+    this.msgID = msgID;
+    this.opID = opID;
+  }
+}
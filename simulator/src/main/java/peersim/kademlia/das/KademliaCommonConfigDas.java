@@ -30,6 +30,32 @@ public class KademliaCommonConfigDas {
   public static int MAX_SAMPLING_FAILED = 3;
 
   public static int PARCEL_SIZE = 128;
+
+  /**
+   * Number of validators of the region a validator forwards each new seeded sample to. With 0, the
+   * builder seeds every validator of the region itself; otherwise it seeds one of them and the
+   * samples spread by gossip.
+   *
+   * <p>A validator that does not forward, such as an evil one after its attack time, cuts its
+   * subtree off: only down nodes are skipped by the trees. Its descendants get the samples by
+   * pulling them from the builder after GOSSIP_PULL_DELAY, so an evil root or inner node delays
+   * custody by that much rather than preventing it.
+   */
+  public static int GOSSIP_FANOUT = 0;
+
+  /**
+   * Time after a new block, in ms, at which a validator pulls from the builder the samples of its
+   * region it has not received by gossip. Only used when GOSSIP_FANOUT is greater than 0.
+   */
+  public static int GOSSIP_PULL_DELAY = 1000;
+
+  /**
+   * Whether sample requests are hedged: the samples of a request not answered within a high
+   * percentile of the peer's round trip are requested from other nodes, before the timeout. Off by
+   * default.
+   */
+  public static boolean HEDGING = false;
+
   /**
    * Size of a node record (a single neighbor information returned alongside samples in
    * GET_SAMPLE_RESPONSE) in Mbits - I used ENR size for this, which is 300 bytes
@@ -70,6 +96,13 @@ public class KademliaCommonConfigDas {
 
   public static boolean SECURITY_ACTIVE = true;
 
+  /**
+   * Whether secured sampling rounds pick the nodes to ask greedily by rating and by the diversity
+   * of their ancestors in the rated list, weighted by DIVERSITY_WEIGHT and RATING_WEIGHT, instead
+   * of by rating only.
+   */
+  public static boolean DIVERSE_SELECTION = false;
+
   public static double DIVERSITY_WEIGHT = 0.5;
   public static double RATING_WEIGHT = 0.5;
 
@@ -0,0 +1,298 @@
+package peersim.kademlia.das;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import peersim.kademlia.KademliaCommonConfig;
+
+/**
+ * A sorted set of keys of the keyspace, for range queries.
+ *
+ * <p>Keys are kept in a sorted array, along with their 64-bit words, most significant first, in a
+ * flat <code>long</code> array that is bisected without touching the BigInteger objects. Arrays are
+ * never modified once built: ranges are returned as views on them, which stay valid, as snapshots,
+ * after the index changes.
+ *
+ * <p>Keys added or removed one at a time go to two small sorted arrays, of keys added and of
+ * indexed keys removed, which queries consult along with the main arrays. They are merged into the
+ * main arrays once they hold more than about the square root of the number of keys, so that a
+ * single change costs O(sqrt(n)) amortized instead of a copy of the index. Bulk changes are merged
+ * in one pass.
+ */
+public class KeyIndex {
+
+  /** Least number of single changes kept before merging them */
+  private static final int MIN_CHANGES = 16;
+
+  /** The keys, sorted */
+  private BigInteger[] keys = new BigInteger[0];
+
+  /** The words of the keys, {@link #width} per key, in the order of the keys */
+  private long[] words = new long[0];
+
+  /** Number of 64-bit words per key, set with the first keys */
+  private int width = 0;
+
+  /** Keys added one at a time and not in the main arrays, sorted */
+  private BigInteger[] added = new BigInteger[MIN_CHANGES];
+
+  /** Number of keys added */
+  private int addedCount = 0;
+
+  /** Keys of the main arrays removed one at a time, sorted */
+  private BigInteger[] removed = new BigInteger[MIN_CHANGES];
+
+  /** Number of keys removed */
+  private int removedCount = 0;
+
+  /**
+   * Adds a key. Adding an indexed key again has no effect.
+   *
+   * @param key the key, a non-negative integer of at most BITS bits
+   */
+  public void add(BigInteger key) {
+    check(key);
+    int r = Arrays.binarySearch(removed, 0, removedCount, key);
+    if (r >= 0) {
+      removedCount = delete(removed, removedCount, r);
+      return;
+    }
+    if (Arrays.binarySearch(keys, key) >= 0) return;
+    int a = Arrays.binarySearch(added, 0, addedCount, key);
+    if (a >= 0) return;
+    if (addedCount == added.length) added = Arrays.copyOf(added, 2 * addedCount);
+    a = -a - 1;
+    System.arraycopy(added, a, added, a + 1, addedCount - a);
+    added[a] = key;
+    addedCount++;
+    mergeIfLarge();
+  }
+
+  /**
+   * Adds keys, in a single pass.
+   *
+   * @param keys the keys, possibly repeated or already indexed
+   */
+  public void addAll(BigInteger[] keys) {
+    for (BigInteger key : keys) check(key);
+    merge(keys.clone(), null);
+  }
+
+  /**
+   * Replaces all the keys at once.
+   *
+   * @param keys the new keys, possibly repeated
+   */
+  public void rebuild(Collection<BigInteger> keys) {
+    this.keys = new BigInteger[0];
+    this.words = new long[0];
+    added = new BigInteger[MIN_CHANGES];
+    addedCount = 0;
+    removed = new BigInteger[MIN_CHANGES];
+    removedCount = 0;
+    addAll(keys.toArray(new BigInteger[0]));
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @param key the key
+   * @return true if the key was indexed
+   */
+  public boolean remove(BigInteger key) {
+    int a = Arrays.binarySearch(added, 0, addedCount, key);
+    if (a >= 0) {
+      addedCount = delete(added, addedCount, a);
+      return true;
+    }
+    if (Arrays.binarySearch(keys, key) < 0) return false;
+    int r = Arrays.binarySearch(removed, 0, removedCount, key);
+    if (r >= 0) return false;
+    if (removedCount == removed.length) removed = Arrays.copyOf(removed, 2 * removedCount);
+    r = -r - 1;
+    System.arraycopy(removed, r, removed, r + 1, removedCount - r);
+    removed[r] = key;
+    removedCount++;
+    mergeIfLarge();
+    return true;
+  }
+
+  /**
+   * Removes keys, in a single pass.
+   *
+   * @param removed the keys to remove
+   */
+  public void removeAll(Collection<BigInteger> removed) {
+    if (removed.isEmpty()) return;
+    Set<BigInteger> set =
+        removed instanceof Set ? (Set<BigInteger>) removed : new HashSet<>(removed);
+    merge(new BigInteger[0], set);
+  }
+
+  /**
+   * Checks whether a key is indexed.
+   *
+   * @param key the key
+   */
+  public boolean contains(BigInteger key) {
+    if (Arrays.binarySearch(added, 0, addedCount, key) >= 0) return true;
+    return Arrays.binarySearch(keys, key) >= 0
+        && Arrays.binarySearch(removed, 0, removedCount, key) < 0;
+  }
+
+  /** Returns the number of keys. */
+  public int size() {
+    return keys.length + addedCount - removedCount;
+  }
+
+  /** Returns all the keys, in ascending order, as a read-only view of the keys indexed. */
+  public List<BigInteger> keys() {
+    if (addedCount > 0 || removedCount > 0) merge(new BigInteger[0], null);
+    return Collections.unmodifiableList(Arrays.asList(keys));
+  }
+
+  /**
+   * Returns the keys between two bounds, included, in ascending order. The list is a read-only view
+   * of the keys indexed at the time of the call.
+   *
+   * @param bottom the lowest key, at least 0
+   * @param top the highest key, at most the maximum key
+   */
+  public List<BigInteger> subList(BigInteger bottom, BigInteger top) {
+    if (size() == 0 || bottom.compareTo(top) > 0) return Collections.emptyList();
+    int from = keys.length == 0 ? 0 : lowerBound(toWords(bottom, width), 0);
+    int to = keys.length == 0 ? 0 : lowerBound(toWords(top, width), 1);
+    if (addedCount == 0 && removedCount == 0)
+      return Collections.unmodifiableList(Arrays.asList(keys).subList(from, to));
+
+    // merge the range of the main arrays with the single changes in it
+    int a = bound(added, addedCount, bottom, false);
+    int aTo = bound(added, addedCount, top, true);
+    int r = bound(removed, removedCount, bottom, false);
+    List<BigInteger> range = new ArrayList<>(to - from + aTo - a);
+    for (int i = from; i < to; i++) {
+      while (a < aTo && added[a].compareTo(keys[i]) < 0) range.add(added[a++]);
+      if (r < removedCount && removed[r].equals(keys[i])) r++;
+      else range.add(keys[i]);
+    }
+    while (a < aTo) range.add(added[a++]);
+    return Collections.unmodifiableList(range);
+  }
+
+  /**
+   * Returns the index of the first key greater than (or equal to, if not strict) the given words.
+   */
+  private int lowerBound(long[] key, int strict) {
+    int lo = 0, hi = keys.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (compare(mid, key) < strict) lo = mid + 1;
+      else hi = mid;
+    }
+    return lo;
+  }
+
+  /** Compares the key at an index with the given words. */
+  private int compare(int index, long[] key) {
+    int base = index * width;
+    for (int i = 0; i < width; i++) {
+      int c = Long.compareUnsigned(words[base + i], key[i]);
+      if (c != 0) return c;
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the index, in a sorted array, of the first key greater than (or equal to, if not
+   * strict) the given one.
+   */
+  private static int bound(BigInteger[] a, int count, BigInteger key, boolean strict) {
+    int i = Arrays.binarySearch(a, 0, count, key);
+    if (i < 0) return -i - 1;
+    return strict ? i + 1 : i;
+  }
+
+  /** Removes the element at an index of a sorted array, and returns the new count. */
+  private static int delete(BigInteger[] a, int count, int index) {
+    System.arraycopy(a, index + 1, a, index, count - index - 1);
+    a[count - 1] = null;
+    return count - 1;
+  }
+
+  /** Merges the single changes once there are too many of them to scan. */
+  private void mergeIfLarge() {
+    int changes = addedCount + removedCount;
+    if (changes > MIN_CHANGES && (long) changes * changes > keys.length)
+      merge(new BigInteger[0], null);
+  }
+
+  /**
+   * Builds new main arrays from the indexed keys, the single changes, and bulk changes.
+   *
+   * @param more keys to add, possibly repeated or already indexed; sorted in place
+   * @param less keys to remove, or null
+   */
+  private void merge(BigInteger[] more, Set<BigInteger> less) {
+    if (width == 0) width = (KademliaCommonConfig.BITS + 63) >>> 6;
+    BigInteger[] in = more;
+    if (addedCount > 0) {
+      in = Arrays.copyOf(more, more.length + addedCount);
+      System.arraycopy(added, 0, in, more.length, addedCount);
+    }
+    Arrays.sort(in);
+
+    BigInteger[] k = new BigInteger[keys.length + in.length];
+    long[] w = new long[k.length * width];
+    int i = 0, j = 0, r = 0, n = 0;
+    while (i < keys.length || j < in.length) {
+      int c = i == keys.length ? 1 : j == in.length ? -1 : keys[i].compareTo(in[j]);
+      BigInteger key;
+      if (c <= 0) {
+        key = keys[i];
+        boolean gone = r < removedCount && removed[r].equals(key);
+        if (gone) r++;
+        // added copies of an indexed key are skipped, and bring it back if it was removed
+        while (c == 0 && j < in.length && in[j].equals(key)) j++;
+        if ((gone && c != 0) || (less != null && less.contains(key))) {
+          i++;
+          continue;
+        }
+        System.arraycopy(words, i * width, w, n * width, width);
+        i++;
+      } else {
+        key = in[j++];
+        if ((n > 0 && key.equals(k[n - 1])) || (less != null && less.contains(key))) continue;
+        System.arraycopy(toWords(key, width), 0, w, n * width, width);
+      }
+      k[n++] = key;
+    }
+    keys = n == k.length ? k : Arrays.copyOf(k, n);
+    words = n == k.length ? w : Arrays.copyOf(w, n * width);
+    Arrays.fill(added, 0, addedCount, null);
+    Arrays.fill(removed, 0, removedCount, null);
+    addedCount = 0;
+    removedCount = 0;
+    if (added.length > 1024) added = new BigInteger[MIN_CHANGES];
+    if (removed.length > 1024) removed = new BigInteger[MIN_CHANGES];
+  }
+
+  /** Checks that a key is a non-negative integer of at most BITS bits. */
+  private static void check(BigInteger key) {
+    if (key.signum() < 0 || key.bitLength() > KademliaCommonConfig.BITS)
+      throw new IllegalArgumentException("Key out of the keyspace: " + key);
+  }
+
+  /** Returns the words of a non-negative key, most significant first. */
+  private static long[] toWords(BigInteger key, int width) {
+    if (key.signum() < 0 || key.bitLength() > 64 * width)
+      throw new IllegalArgumentException("Key out of the keyspace: " + key);
+    long[] w = new long[width];
+    for (int i = 0; i < width; i++) w[width - 1 - i] = key.shiftRight(64 * i).longValue();
+    return w;
+  }
+}
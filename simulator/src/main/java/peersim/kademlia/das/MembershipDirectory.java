@@ -0,0 +1,135 @@
+package peersim.kademlia.das;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The validators and non-validators of the network, shared by all the nodes.
+ *
+ * <p>A directory is immutable: changes, such as a validator joining, publish a new version of it,
+ * which the nodes see from their next query on. Nodes keep their own exclusions (blacklisted or
+ * removed nodes) in their {@link SearchTable}, so that the membership is stored once rather than
+ * once per node. An ID is either a validator or a non-validator.
+ */
+public final class MembershipDirectory {
+
+  /** The current version, read by all the nodes */
+  private static volatile MembershipDirectory current = new MembershipDirectory();
+
+  /** Number of changes since the first version */
+  private final long version;
+
+  /** The validators, indexed once built */
+  private final KeyIndex validators;
+
+  /** The non-validators, indexed once built */
+  private final KeyIndex nonValidators;
+
+  private MembershipDirectory() {
+    this(0, new KeyIndex(), new KeyIndex());
+  }
+
+  private MembershipDirectory(long version, KeyIndex validators, KeyIndex nonValidators) {
+    this.version = version;
+    this.validators = validators;
+    this.nonValidators = nonValidators;
+    // index the keys now, so that the indexes are never modified afterwards
+    validators.size();
+    nonValidators.size();
+  }
+
+  /**
+   * Creates the first version of a directory.
+   *
+   * @param validators the IDs of the validators
+   * @param nonValidators the IDs of the non-validators; the validators among them are ignored
+   */
+  public MembershipDirectory(
+      Collection<BigInteger> validators, Collection<BigInteger> nonValidators) {
+    this(0, index(validators), new KeyIndex());
+    for (BigInteger id : nonValidators)
+      if (!this.validators.contains(id)) this.nonValidators.add(id);
+    this.nonValidators.size();
+  }
+
+  /** Returns the current version of the directory. */
+  public static MembershipDirectory getCurrent() {
+    return current;
+  }
+
+  /**
+   * Makes a directory the current version, seen by all the nodes.
+   *
+   * @param directory the directory
+   */
+  public static void publish(MembershipDirectory directory) {
+    current = directory;
+  }
+
+  /** Returns the number of changes since the first version. */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns a new version of this directory, with more validators. Non-validators among them become
+   * validators.
+   *
+   * @param ids the IDs of the new validators
+   * @return the new version
+   */
+  public MembershipDirectory withValidators(BigInteger[] ids) {
+    KeyIndex v = index(validators.keys());
+    v.addAll(ids);
+    KeyIndex nv = new KeyIndex();
+    for (BigInteger id : nonValidators.keys()) if (!v.contains(id)) nv.add(id);
+    return new MembershipDirectory(version + 1, v, nv);
+  }
+
+  /** Checks whether an ID is a validator. */
+  public boolean isValidator(BigInteger id) {
+    return validators.contains(id);
+  }
+
+  /** Checks whether an ID is a non-validator. */
+  public boolean isNonValidator(BigInteger id) {
+    return nonValidators.contains(id);
+  }
+
+  /** Returns the number of validators. */
+  public int getValidatorsCount() {
+    return validators.size();
+  }
+
+  /** Returns the number of non-validators. */
+  public int getNonValidatorsCount() {
+    return nonValidators.size();
+  }
+
+  /**
+   * Returns the validators between two keys, included, as a read-only view in ascending order.
+   *
+   * @param bottom the lowest key, at least 0
+   * @param top the highest key, at most the maximum key
+   */
+  public List<BigInteger> getValidators(BigInteger bottom, BigInteger top) {
+    return validators.subList(bottom, top);
+  }
+
+  /**
+   * Returns the non-validators between two keys, included, as a read-only view in ascending order.
+   *
+   * @param bottom the lowest key, at least 0
+   * @param top the highest key, at most the maximum key
+   */
+  public List<BigInteger> getNonValidators(BigInteger bottom, BigInteger top) {
+    return nonValidators.subList(bottom, top);
+  }
+
+  private static KeyIndex index(Collection<BigInteger> ids) {
+    KeyIndex index = new KeyIndex();
+    index.addAll(ids.toArray(new BigInteger[0]));
+    return index;
+  }
+}
@@ -0,0 +1,70 @@
+package peersim.kademlia.das;
+
+import java.util.Arrays;
+
+/**
+ * MinHash sketches of sets of rated list members, to estimate the Jaccard distance between the
+ * ancestors of two members in a time independent of the size of the sets.
+ *
+ * <p>The sketch of a set keeps, for each of SIZE hash functions, the lowest hash of its elements.
+ * Two sets share the minimum of a hash function with a probability equal to their Jaccard
+ * similarity, so the fraction of equal entries of their sketches estimates it. The sketch of a
+ * union is the entry-wise minimum of the sketches, which lets a member's sketch be built from the
+ * ones of its parents.
+ */
+public final class MinHash {
+
+  /** Number of hash functions: the standard error of the estimate is at most 1/(2*sqrt(SIZE)) */
+  public static final int SIZE = 32;
+
+  private MinHash() {}
+
+  /** Returns the sketch of the empty set. */
+  public static int[] empty() {
+    int[] sketch = new int[SIZE];
+    Arrays.fill(sketch, Integer.MAX_VALUE);
+    return sketch;
+  }
+
+  /**
+   * Adds an element to a sketch.
+   *
+   * @param sketch the sketch, modified
+   * @param element the number of the element
+   */
+  public static void add(int[] sketch, int element) {
+    for (int k = 0; k < SIZE; k++) sketch[k] = Math.min(sketch[k], hash(k, element));
+  }
+
+  /**
+   * Adds the elements of a set to a sketch.
+   *
+   * @param sketch the sketch, modified
+   * @param other the sketch of the set
+   */
+  public static void union(int[] sketch, int[] other) {
+    for (int k = 0; k < SIZE; k++) sketch[k] = Math.min(sketch[k], other[k]);
+  }
+
+  /**
+   * Estimates the Jaccard distance of two sets, 1 minus their Jaccard similarity.
+   *
+   * @param a the sketch of the first set
+   * @param b the sketch of the second set
+   * @return the estimate, between 0 and 1
+   */
+  public static double distance(int[] a, int[] b) {
+    int equal = 0;
+    for (int k = 0; k < SIZE; k++) if (a[k] == b[k]) equal++;
+    return 1.0 - (double) equal / SIZE;
+  }
+
+  /** The k-th hash function, a SplitMix64 finalizer on the element and the function number. */
+  private static int hash(int k, int element) {
+    long z = element * 0x9E3779B97F4A7C15L + (k + 1) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z = z ^ (z >>> 31);
+    return (int) (z >>> 33);
+  }
+}
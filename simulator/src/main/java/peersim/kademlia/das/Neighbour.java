@@ -12,6 +12,9 @@ public class Neighbour implements Comparable<Neighbour> {
   protected Node n;
   protected boolean isEvil;
 
+  /** Neighbours seen just more and just less recently, in the {@link NeighbourList} holding it */
+  Neighbour newer, older;
+
   Neighbour(BigInteger id, Node n, boolean isEvil) {
     this.id = id;
     this.last_seen = CommonState.getTime();
@@ -19,6 +22,14 @@ public class Neighbour implements Comparable<Neighbour> {
     this.isEvil = isEvil;
   }
 
+  /** Copy of a neighbour as currently seen, e.g. to hand it over to another node. */
+  Neighbour(Neighbour other) {
+    this.id = other.id;
+    this.last_seen = other.last_seen;
+    this.n = other.n;
+    this.isEvil = other.isEvil;
+  }
+
   public BigInteger getId() {
     return id;
   }
@@ -0,0 +1,136 @@
+package peersim.kademlia.das;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The neighbours of a search table, by ID and from the most to the least recently seen.
+ *
+ * <p>Neighbours are linked in a list sorted by last seen time, through fields of their own, so that
+ * a neighbour seen again is moved to the front in place, without being recreated, the most recently
+ * seen ones are read from the front, and the expired ones are dropped from the back. A neighbour is
+ * in one list at most: the list owns the neighbours added to it.
+ */
+class NeighbourList {
+
+  /** The neighbours, by ID */
+  private final HashMap<BigInteger, Neighbour> byId = new HashMap<>();
+
+  /** The most recently seen neighbour */
+  private Neighbour head;
+
+  /** The least recently seen neighbour */
+  private Neighbour tail;
+
+  /** Returns the number of neighbours. */
+  int size() {
+    return byId.size();
+  }
+
+  /** Returns the neighbour of an ID, or null. */
+  Neighbour get(BigInteger id) {
+    return byId.get(id);
+  }
+
+  /** Checks whether a node is a neighbour. */
+  boolean contains(BigInteger id) {
+    return byId.containsKey(id);
+  }
+
+  /** Returns the neighbours, in no particular order. */
+  Collection<Neighbour> values() {
+    return byId.values();
+  }
+
+  /**
+   * Adds a neighbour at its place by last seen time.
+   *
+   * @param n the neighbour, in no list and with an ID not in this one
+   */
+  void add(Neighbour n) {
+    byId.put(n.getId(), n);
+    Neighbour older = head;
+    while (older != null && older.last_seen > n.last_seen) older = older.older;
+    linkBefore(n, older);
+  }
+
+  /**
+   * Updates the last seen time of a neighbour, if it is more recent, and moves it towards the front
+   * accordingly: to the front directly if it was seen now.
+   *
+   * @param n the neighbour, in this list
+   * @param time the time it was seen
+   */
+  void touch(Neighbour n, long time) {
+    if (time <= n.last_seen) return;
+    n.updateLastSeen(time);
+    Neighbour newer = n.newer;
+    if (newer == null || newer.last_seen >= time) return;
+    unlink(n);
+    if (head.last_seen <= time) {
+      linkBefore(n, head);
+      return;
+    }
+    while (newer.newer != null && newer.newer.last_seen < time) newer = newer.newer;
+    linkBefore(n, newer);
+  }
+
+  /**
+   * Removes the neighbour of an ID.
+   *
+   * @param id the ID
+   * @return the neighbour, or null if there was none
+   */
+  Neighbour remove(BigInteger id) {
+    Neighbour n = byId.remove(id);
+    if (n != null) unlink(n);
+    return n;
+  }
+
+  /**
+   * Copies the most recently seen neighbours.
+   *
+   * @param max the maximum number of neighbours
+   * @return copies of the neighbours, most recent first
+   */
+  Neighbour[] mostRecent(int max) {
+    Neighbour[] result = new Neighbour[Math.min(max, byId.size())];
+    Neighbour n = head;
+    for (int i = 0; i < result.length; i++, n = n.older) result[i] = new Neighbour(n);
+    return result;
+  }
+
+  /**
+   * Removes the expired neighbours, which are the least recently seen ones.
+   *
+   * @return the IDs of the neighbours removed
+   */
+  List<BigInteger> removeExpired() {
+    List<BigInteger> removed = new ArrayList<>();
+    while (tail != null && tail.expired()) removed.add(remove(tail.getId()).getId());
+    return removed;
+  }
+
+  /** Links a neighbour before another one, or at the back if null. */
+  private void linkBefore(Neighbour n, Neighbour older) {
+    Neighbour newer = older == null ? tail : older.newer;
+    n.older = older;
+    n.newer = newer;
+    if (older == null) tail = n;
+    else older.newer = n;
+    if (newer == null) head = n;
+    else newer.older = n;
+  }
+
+  private void unlink(Neighbour n) {
+    if (n.newer == null) head = n.older;
+    else n.newer.older = n.older;
+    if (n.older == null) tail = n.newer;
+    else n.older.newer = n.newer;
+    n.newer = null;
+    n.older = null;
+  }
+}
@@ -0,0 +1,309 @@
+package peersim.kademlia.das;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * The rated list of a node: the peers it knows, arranged in levels by the peers that returned them,
+ * with a rating each.
+ *
+ * <p>A peer returned by another one becomes its child, one level below it, the peers known from the
+ * start being the children of a root at level -1. A peer with many parents forms a DAG rather than
+ * a tree. When a peer answers a sample request, or fails to, the rating of the peer and of all its
+ * ancestors goes up, or down exponentially with the consecutive failures.
+ *
+ * <p>Members are numbered in the order they join, and their data is kept in arrays indexed by these
+ * numbers: ratings, levels, and the parents and children of each member as int arrays. The
+ * ancestors of a member are cached as a bitset, computed from the ones of its parents, and dropped
+ * for the member and its descendants when it gets a new parent, so that updating the ratings of a
+ * member and its ancestors is a single pass over a bitset. A {@link MinHash} sketch of the
+ * ancestors is cached the same way, to compare the ancestors of two members quickly.
+ */
+public class RatedList {
+
+  /** ID of the root */
+  public static final BigInteger ROOT_ID = BigInteger.valueOf(-1);
+
+  /** The base for the exponential rating decrease */
+  private static final int BASE = 3;
+
+  /** Maximum number of children of a member, except for the bottom level, which is unlimited */
+  private final int maxChildren = KademliaCommonConfigDas.MAX_NODES_RETURNED;
+
+  /** The lowest level members can be on */
+  private final int maxLevel = KademliaCommonConfigDas.MAX_RATED_LEVEL;
+
+  /** Change in rating of a successful sample */
+  private final double successChange = KademliaCommonConfigDas.RATED_SUCCESSFUL_SAMPLE_CHANGE;
+
+  /** The maximum possible rating */
+  private final double maxRating = KademliaCommonConfigDas.MAX_RATING;
+
+  /** Base change in rating of a failed sample */
+  private final double failureChange =
+      failedSampleChange(maxRating, KademliaCommonConfigDas.MAX_ACCEPTED_FAILURES);
+
+  /** The rating of new members */
+  private final double initialRating;
+
+  /** Index of each member, by ID */
+  private final HashMap<BigInteger, Integer> index = new HashMap<>();
+
+  /** Number of members, including the root */
+  private int size = 0;
+
+  /** Data of the members, by number */
+  private BigInteger[] ids = new BigInteger[16];
+
+  private int[] level = new int[16];
+  private double[] rating = new double[16];
+  private int[] failures = new int[16];
+
+  /** Direct parents and children of each member, sorted, with their numbers */
+  private int[][] parents = new int[16][];
+
+  private int[] parentCount = new int[16];
+  private int[][] children = new int[16][];
+  private int[] childCount = new int[16];
+
+  /** Ancestors of each member, null until computed or after a change */
+  private BitSet[] ancestors = new BitSet[16];
+
+  /** MinHash sketches of the ancestors of each member, null until computed or after a change */
+  private int[][] sketches = new int[16][];
+
+  /** Notified of the rating changes, if set */
+  private RatingListener listener;
+
+  /**
+   * Creates a rated list with only the root.
+   *
+   * @param initialRating the rating of new members
+   */
+  public RatedList(double initialRating) {
+    this.initialRating = initialRating;
+    newMember(ROOT_ID, -1);
+  }
+
+  /**
+   * Sets the listener notified when the rating of a member changes.
+   *
+   * @param listener the listener, or null
+   */
+  public void setRatingListener(RatingListener listener) {
+    this.listener = listener;
+  }
+
+  /** Returns the number of members, including the root. */
+  public int size() {
+    return size;
+  }
+
+  /** Checks whether a peer, or the root, is a member. */
+  public boolean contains(BigInteger id) {
+    return index.containsKey(id);
+  }
+
+  /**
+   * Adds a peer as a child of a member, one level below it if it is new.
+   *
+   * <p>The peer is refused if the parent is on the lowest level or already has the maximum number
+   * of children. A member already known can only become the child of a member on a higher level (a
+   * lower number); members of the bottom level, and members on the level of the parent, are still
+   * counted as its children.
+   *
+   * @param childId the ID of the peer
+   * @param parentId the ID of the member that returned it
+   * @return true if the peer is a child of the member
+   */
+  public boolean addChild(BigInteger childId, BigInteger parentId) {
+    int parent = index.get(parentId);
+    if (level[parent] == maxLevel) return false;
+
+    Integer known = index.get(childId);
+    if (known == null) {
+      int childLevel = level[parent] + 1;
+      if (childLevel != 0 && childCount[parent] >= maxChildren) return false;
+      int child = newMember(childId, childLevel);
+      link(parent, child);
+      return true;
+    }
+
+    int child = known;
+    if (level[child] != 0) {
+      if (childCount[parent] >= maxChildren) return false;
+      if (level[child] > maxLevel) return false;
+      if (level[child] < level[parent]) return false;
+    }
+    if (!containsSorted(children[parent], childCount[parent], child))
+      children[parent] = insertNew(children[parent], childCount[parent]++, child);
+    if (level[parent] >= level[child]) return false;
+    if (!containsSorted(parents[child], parentCount[child], parent)) {
+      parents[child] = insertNew(parents[child], parentCount[child]++, parent);
+      invalidate(child);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the rating of a member.
+   *
+   * @param id the ID of the member
+   * @return the rating, or NaN if the peer is not a member
+   */
+  public double getRating(BigInteger id) {
+    Integer i = index.get(id);
+    return i == null ? Double.NaN : rating[i];
+  }
+
+  /**
+   * Returns the ancestors of a member, as a bitset of member numbers. The bitset must not be
+   * modified.
+   *
+   * @param id the ID of the member
+   * @return the ancestors, empty if the peer is not a member
+   */
+  public BitSet getAncestors(BigInteger id) {
+    Integer i = index.get(id);
+    return i == null ? new BitSet() : ancestors(i);
+  }
+
+  /**
+   * Returns a MinHash sketch of the ancestors of a member. The sketch must not be modified.
+   *
+   * @param id the ID of the member
+   * @return the sketch, the one of the empty set if the peer is not a member
+   */
+  public int[] getAncestorSketch(BigInteger id) {
+    Integer i = index.get(id);
+    return i == null ? MinHash.empty() : sketch(i);
+  }
+
+  /**
+   * Raises the rating of a member and of its ancestors, after a successful sample.
+   *
+   * @param id the ID of the member
+   */
+  public void successfulSample(BigInteger id) {
+    int m = index.get(id);
+    BitSet a = ancestors(m);
+    succeed(m);
+    for (int i = a.nextSetBit(0); i >= 0; i = a.nextSetBit(i + 1)) succeed(i);
+  }
+
+  /**
+   * Lowers the rating of a member and of its ancestors, after a failed sample. The decrease grows
+   * exponentially with the consecutive failures of each.
+   *
+   * @param id the ID of the member
+   */
+  public void failedSample(BigInteger id) {
+    int m = index.get(id);
+    BitSet a = ancestors(m);
+    fail(m);
+    for (int i = a.nextSetBit(0); i >= 0; i = a.nextSetBit(i + 1)) fail(i);
+  }
+
+  /**
+   * Returns the base decrease of the rating, so that a member at the maximum rating reaches zero
+   * after the maximum number of accepted consecutive failures.
+   */
+  public static double failedSampleChange(double maxRating, int maxAcceptedFailures) {
+    int denominator = (int) Math.pow(BASE, maxAcceptedFailures) - 1;
+    return maxRating * (BASE - 1) / denominator;
+  }
+
+  private void succeed(int i) {
+    rating[i] = Math.min(rating[i] + successChange, maxRating);
+    failures[i] = 0;
+    if (listener != null) listener.ratingChanged(ids[i], rating[i]);
+  }
+
+  private void fail(int i) {
+    failures[i]++;
+    rating[i] = rating[i] - failureChange * Math.pow(BASE, failures[i]);
+    if (listener != null) listener.ratingChanged(ids[i], rating[i]);
+  }
+
+  /** Returns the ancestors of a member, computing them from the ones of its parents if needed. */
+  private BitSet ancestors(int m) {
+    BitSet a = ancestors[m];
+    if (a != null) return a;
+    a = new BitSet();
+    for (int k = 0; k < parentCount[m]; k++) {
+      int p = parents[m][k];
+      a.set(p);
+      a.or(ancestors(p));
+    }
+    ancestors[m] = a;
+    return a;
+  }
+
+  /** Returns the sketch of the ancestors of a member, computing it if needed. */
+  private int[] sketch(int m) {
+    int[] sketch = sketches[m];
+    if (sketch != null) return sketch;
+    sketch = MinHash.empty();
+    for (int k = 0; k < parentCount[m]; k++) {
+      int p = parents[m][k];
+      MinHash.add(sketch, p);
+      MinHash.union(sketch, sketch(p));
+    }
+    sketches[m] = sketch;
+    return sketch;
+  }
+
+  /** Drops the cached ancestors of a member and of its descendants. */
+  private void invalidate(int m) {
+    if (ancestors[m] == null && sketches[m] == null) return;
+    ancestors[m] = null;
+    sketches[m] = null;
+    for (int k = 0; k < childCount[m]; k++) invalidate(children[m][k]);
+  }
+
+  private int newMember(BigInteger id, int memberLevel) {
+    if (size == ids.length) grow();
+    int i = size++;
+    ids[i] = id;
+    level[i] = memberLevel;
+    rating[i] = initialRating;
+    index.put(id, i);
+    return i;
+  }
+
+  /** Links a new member to its first parent. */
+  private void link(int parent, int child) {
+    children[parent] = insertNew(children[parent], childCount[parent]++, child);
+    parents[child] = insertNew(parents[child], parentCount[child]++, parent);
+  }
+
+  private void grow() {
+    int n = 2 * ids.length;
+    ids = Arrays.copyOf(ids, n);
+    level = Arrays.copyOf(level, n);
+    rating = Arrays.copyOf(rating, n);
+    failures = Arrays.copyOf(failures, n);
+    parents = Arrays.copyOf(parents, n);
+    parentCount = Arrays.copyOf(parentCount, n);
+    children = Arrays.copyOf(children, n);
+    childCount = Arrays.copyOf(childCount, n);
+    ancestors = Arrays.copyOf(ancestors, n);
+    sketches = Arrays.copyOf(sketches, n);
+  }
+
+  private static boolean containsSorted(int[] a, int n, int v) {
+    return a != null && Arrays.binarySearch(a, 0, n, v) >= 0;
+  }
+
+  /** Inserts a value, absent from the first n values of a sorted array, growing it if needed. */
+  private static int[] insertNew(int[] a, int n, int v) {
+    if (a == null) a = new int[2];
+    else if (n == a.length) a = Arrays.copyOf(a, 2 * n);
+    int pos = -Arrays.binarySearch(a, 0, n, v) - 1;
+    System.arraycopy(a, pos, a, pos + 1, n - pos);
+    a[pos] = v;
+    return a;
+  }
+}
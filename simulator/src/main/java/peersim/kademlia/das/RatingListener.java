@@ -0,0 +1,15 @@
+package peersim.kademlia.das;
+
+import java.math.BigInteger;
+
+/** Callback of a {@link SearchTable}, when the rating of a member of its rated list changes. */
+public interface RatingListener {
+
+  /**
+   * Called when the rating of a member has changed.
+   *
+   * @param id the ID of the member
+   * @param rating its new rating
+   */
+  void ratingChanged(BigInteger id, double rating);
+}
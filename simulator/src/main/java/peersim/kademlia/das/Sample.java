@@ -5,21 +5,30 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+/**
+ * A sample of a block, identified by its block and its coordinates. Its keys in the DHT keyspace
+ * are computed on first use, so that samples can be created on demand as lightweight views.
+ */
 public class Sample {
 
+  /** Length of the keys of the random mapping, a SHA-256 hash */
+  public static final int RANDOM_ID_BITS = 256;
+
   /** Row and column numbers of a sample within a block */
   private int row, column;
   /** The unique ID of the block that this sample belongs to */
   private long blockId;
 
-  /** The key of a sample in the DHT keyspace using rows number as reference */
+  /** The key of a sample in the DHT keyspace using rows number as reference, null until computed */
   private BigInteger idByRow;
-  /** The key of a sample in the DHT keyspace using column number as reference */
+  /**
+   * The key of a sample in the DHT keyspace using column number as reference, null until computed
+   */
   private BigInteger idByColumn;
   /** Block that this sample is part of */
   private Block block;
 
-  /** Initialise a sample instance and map it to the keyspace */
+  /** Initialise a sample instance; it is mapped to the keyspace on first use */
   public Sample(long blockId, int row, int column, Block b) {
 
     this.idByColumn = this.idByRow = null;
@@ -27,7 +36,6 @@ public class Sample {
     this.row = row;
     this.column = column;
     this.blockId = blockId;
-    computeID();
   }
 
   /**
@@ -55,8 +63,7 @@ public class Sample {
         MessageDigest digest = MessageDigest.getInstance("SHA-256");
         byte[] hash = digest.digest(idName.getBytes(StandardCharsets.UTF_8));
         // this.id = new BigInteger(1, hash);
-        this.idByColumn = new BigInteger(1, hash);
-        this.idByRow = new BigInteger(1, hash);
+        this.idByColumn = this.idByRow = new BigInteger(1, hash);
       } catch (NoSuchAlgorithmException e) {
         e.printStackTrace();
       }
@@ -88,8 +95,8 @@ public class Sample {
   /** Given the peerID of a node, determine if this sample falls within the region of the node. */
   public boolean isInRegionByColumn(BigInteger peerID, BigInteger radius) {
     /** (peerID - radius) < this.id < (peerID + radius) */
-    if ((this.idByColumn.compareTo(peerID.subtract(radius)) == 1)
-        && (this.idByColumn.compareTo(peerID.add(radius)) == -1)) {
+    if ((getIdByColumn().compareTo(peerID.subtract(radius)) == 1)
+        && (getIdByColumn().compareTo(peerID.add(radius)) == -1)) {
       return true;
     } else {
       return false;
@@ -99,8 +106,8 @@ public class Sample {
   /** Given the peerID of a node, determine if this sample falls within the region of the node. */
   public boolean isInRegionByRow(BigInteger peerID, BigInteger radius) {
     /** (peerID - radius) < this.id < (peerID + radius) */
-    if ((this.idByRow.compareTo(peerID.subtract(radius)) == 1)
-        && (this.idByRow.compareTo(peerID.add(radius)) == -1)) {
+    if ((getIdByRow().compareTo(peerID.subtract(radius)) == 1)
+        && (getIdByRow().compareTo(peerID.add(radius)) == -1)) {
       return true;
     } else {
       return false;
@@ -117,6 +124,11 @@ public class Sample {
     return this.column;
   }
 
+  /** Block which the sample is part of */
+  public Block getBlock() {
+    return block;
+  }
+
   /** Block id which the sample is part of */
   public long getBlockId() {
     return blockId;
@@ -124,7 +136,7 @@ public class Sample {
 
   /** Computed identifier of the sample, depending of the mapping mode */
   public BigInteger getId() {
-    return idByRow;
+    return getIdByRow();
   }
 
   /**
@@ -132,6 +144,7 @@ public class Sample {
    * case of random mapping
    */
   public BigInteger getIdByRow() {
+    if (idByRow == null) computeID();
     return idByRow;
   }
 
@@ -140,6 +153,20 @@ public class Sample {
    * case of random mapping
    */
   public BigInteger getIdByColumn() {
+    if (idByColumn == null) computeID();
     return idByColumn;
   }
+
+  /** Samples are equal when they are the same cell of the same block */
+  @Override
+  public boolean equals(Object object) {
+    if (!(object instanceof Sample)) return false;
+    Sample s = (Sample) object;
+    return blockId == s.blockId && row == s.row && column == s.column;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(blockId) * 31 * 31 + row * 31 + column;
+  }
 }
@@ -0,0 +1,200 @@
+package peersim.kademlia.das;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The samples of the current block held by a node.
+ *
+ * <p>Since a sample is fully determined by its block and its coordinates, the store only keeps a
+ * bitset of the cells held, allocated row by row as samples arrive, and the number of cells held in
+ * each row and column. A sample is looked up by either of its IDs through {@link Block#getCell}, in
+ * constant time, and the Sample objects are those of the block.
+ */
+public class SampleStore implements Iterable<Sample> {
+
+  /** The block the samples belong to, null before the first block */
+  private Block block;
+
+  /** Block dimension */
+  private int size;
+
+  /** Cells held, by row; null for the rows without any */
+  private long[][] cells;
+
+  /** Number of cells held in each row and column, 0-based */
+  private int[] rowCount, columnCount;
+
+  /** Number of cells held */
+  private int count;
+
+  /** Creates an empty store. */
+  public SampleStore() {
+    reset(null);
+  }
+
+  /**
+   * Empties the store, to hold the samples of a new block.
+   *
+   * @param block the new block, or null
+   */
+  public void reset(Block block) {
+    this.block = block;
+    this.size = block == null ? 0 : block.getSize();
+    this.cells = new long[size][];
+    this.rowCount = new int[size];
+    this.columnCount = new int[size];
+    this.count = 0;
+  }
+
+  /** Returns the block of the samples, or null if no block has been set. */
+  public Block getBlock() {
+    return block;
+  }
+
+  /**
+   * Adds a sample. Samples of another block than the current one are ignored; if there is no
+   * current block, the block of the sample becomes the current one.
+   *
+   * @param s the sample
+   * @return true if the sample was not held yet
+   */
+  public boolean add(Sample s) {
+    if (block == null) reset(s.getBlock());
+    if (s.getBlockId() != block.getBlockId()) return false;
+    return set(s.getRow() - 1, s.getColumn() - 1);
+  }
+
+  /**
+   * Adds all the samples of a row.
+   *
+   * @param row the row, from 1
+   */
+  public void addRow(int row) {
+    for (int c = 0; c < size; c++) set(row - 1, c);
+  }
+
+  /**
+   * Adds all the samples of a column.
+   *
+   * @param column the column, from 1
+   */
+  public void addColumn(int column) {
+    for (int r = 0; r < size; r++) set(r, column - 1);
+  }
+
+  private boolean set(int r, int c) {
+    long[] bits = cells[r];
+    if (bits == null) bits = cells[r] = new long[(size + 63) >>> 6];
+    long mask = 1L << c;
+    if ((bits[c >>> 6] & mask) != 0) return false;
+    bits[c >>> 6] |= mask;
+    rowCount[r]++;
+    columnCount[c]++;
+    count++;
+    return true;
+  }
+
+  private boolean isSet(int r, int c) {
+    long[] bits = cells[r];
+    return bits != null && (bits[c >>> 6] & (1L << c)) != 0;
+  }
+
+  /**
+   * Checks whether a sample is held.
+   *
+   * @param id the ID of the sample, by row or by column
+   * @return true if the sample is held
+   */
+  public boolean contains(BigInteger id) {
+    return get(id) != null;
+  }
+
+  /**
+   * Returns a sample, if it is held.
+   *
+   * @param id the ID of the sample, by row or by column
+   * @return the sample, or null if it is not held
+   */
+  public Sample get(BigInteger id) {
+    if (count == 0) return null;
+    int cell = block.getCell(id);
+    if (cell < 0) return null;
+    int r = cell / size;
+    int c = cell % size;
+    return isSet(r, c) ? block.getSample(r, c) : null;
+  }
+
+  /**
+   * Returns the number of samples held in a row.
+   *
+   * @param row the row, from 1
+   */
+  public int getRowCount(int row) {
+    return rowCount[row - 1];
+  }
+
+  /**
+   * Returns the number of samples held in a column.
+   *
+   * @param column the column, from 1
+   */
+  public int getColumnCount(int column) {
+    return columnCount[column - 1];
+  }
+
+  /** Returns the number of samples held. */
+  public int size() {
+    return count;
+  }
+
+  /** Returns the samples held, by row. */
+  public Sample[] toArray() {
+    Sample[] samples = new Sample[count];
+    int i = 0;
+    for (Sample s : this) samples[i++] = s;
+    return samples;
+  }
+
+  /**
+   * Returns an iterator over the samples held, by row. The samples are found as the iteration goes,
+   * and the store must not be modified meanwhile.
+   */
+  public Iterator<Sample> iterator() {
+    return new Iterator<Sample>() {
+      /** Next cell to look at, as row * size + column */
+      private int cell = 0;
+
+      /** Samples returned */
+      private int returned = 0;
+
+      public boolean hasNext() {
+        return returned < count;
+      }
+
+      public Sample next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        while (true) {
+          int r = cell / size;
+          long[] bits = cells[r];
+          if (bits == null || rowCount[r] == 0) {
+            cell = (r + 1) * size;
+            continue;
+          }
+          int c = cell % size;
+          long word = bits[c >>> 6] & (-1L << c);
+          if (word == 0) {
+            int next = ((c >>> 6) + 1) << 6;
+            cell = next >= size ? (r + 1) * size : r * size + next;
+            continue;
+          }
+          c = ((c >>> 6) << 6) + Long.numberOfTrailingZeros(word);
+          cell = r * size + c + 1;
+          returned++;
+          return block.getSample(r, c);
+        }
+      }
+    };
+  }
+}
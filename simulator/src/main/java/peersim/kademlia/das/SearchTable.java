@@ -2,14 +2,14 @@ package peersim.kademlia.das;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.logging.Logger;
+import peersim.core.CommonState;
 import peersim.core.Node;
 import peersim.kademlia.KademliaProtocol;
 
@@ -20,13 +20,14 @@ public class SearchTable {
   protected KademliaProtocol kadProtocol;
 
   // Used to send known nodes to other peers
-  private HashMap<BigInteger, Neighbour> neighbours;
+  private NeighbourList neighbours;
   private static Double initialRating = KademliaCommonConfigDas.INITIAL_RATING;
 
   // Used for local sampling
-  private TreeSet<BigInteger> nodesIndexed;
-  private static TreeSet<BigInteger> validatorsIndexed = new TreeSet<>();
-  private TreeSet<BigInteger> nonValidatorsIndexed;
+  private KeyIndex nodesIndexed;
+
+  // Members of the shared MembershipDirectory removed from this table
+  private HashSet<BigInteger> removed;
 
   // Builder node
   private BigInteger builderAddress;
@@ -36,19 +37,14 @@ public class SearchTable {
   private List<BigInteger> evilIds;
   private boolean onlyAddEvilNghbrs = false;
 
-  private RatedListMember root;
-
-  private HashMap<BigInteger, RatedListMember> allRatedMembers;
+  private RatedList ratedList;
 
   public SearchTable() {
-    this.nodesIndexed = new TreeSet<>();
-    this.nonValidatorsIndexed = new TreeSet<>();
+    this.nodesIndexed = new KeyIndex();
+    this.removed = new HashSet<>();
     this.blackList = new HashSet<>();
-    this.neighbours = new HashMap<>();
-    this.allRatedMembers = new HashMap<>();
-
-    RatedListMember root = new RatedListMember(BigInteger.valueOf(-1), -1, initialRating);
-    allRatedMembers.put(BigInteger.valueOf(-1), root);
+    this.neighbours = new NeighbourList();
+    this.ratedList = new RatedList(initialRating);
   }
 
   /**
@@ -74,7 +70,7 @@ public class SearchTable {
       allowNewNeighbour = addNewChild(neigh.getId(), BigInteger.valueOf(-1));
     } else {
       // If not allowed to add a new null parent.
-      if (!allRatedMembers.containsKey(parentID)) {
+      if (!ratedList.contains(parentID)) {
         parentID = BigInteger.valueOf(-1);
       }
       if (!addNewChild(neigh.getId(), parentID)) {
@@ -86,12 +82,13 @@ public class SearchTable {
 
     if (allowNewNeighbour) {
       if (neigh.getId().compareTo(builderAddress) != 0) {
-        if (neighbours.get(neigh.getId()) == null) {
-          neighbours.put(neigh.getId(), neigh);
+        Neighbour known = neighbours.get(neigh.getId());
+        if (known == null) {
+          // our own copy, as the list links it
+          neighbours.add(new Neighbour(neigh));
           nodesIndexed.add(neigh.getId());
         } else {
-          if (neighbours.get(neigh.getId()).getLastSeen() < neigh.getLastSeen())
-            neighbours.get(neigh.getId()).updateLastSeen(neigh.getLastSeen());
+          neighbours.touch(known, neigh.getLastSeen());
         }
       }
     }
@@ -101,36 +98,33 @@ public class SearchTable {
     this.onlyAddEvilNghbrs = true;
   }
 
-  public void addNodes(BigInteger[] nodes) {
-
-    for (BigInteger id : nodes) {
-      if (id.compareTo(builderAddress) != 0) {
-        if (!blackList.contains(id)
-            && !validatorsIndexed.contains(id)
-            && !builderAddress.equals(id)) {
-          nonValidatorsIndexed.add(id);
-        }
-      }
-    }
-  }
-
   public void seenNeighbour(BigInteger id, Node n) {
     if (id.compareTo(builderAddress) != 0) {
-      if (neighbours.get(id) != null) {
-        neighbours.remove(id);
-        nodesIndexed.remove(id);
+      Neighbour known = neighbours.get(id);
+      if (known != null) {
+        neighbours.touch(known, CommonState.getTime());
+      } else {
+        nodesIndexed.add(id);
+        neighbours.add(new Neighbour(id, n, n.getDASProtocol().isEvil()));
       }
-      nodesIndexed.add(id);
-      neighbours.put(id, new Neighbour(id, n, n.getDASProtocol().isEvil()));
     }
   }
 
+  /**
+   * Adds validators to the shared {@link MembershipDirectory}, publishing a new version of it.
+   *
+   * @param nodes the IDs of the validators
+   */
   public void addValidatorNodes(BigInteger[] nodes) {
+    List<BigInteger> added = new ArrayList<>();
     for (BigInteger id : nodes) {
-      if (!blackList.contains(id) && id.compareTo(builderAddress) != 0) {
-        validatorsIndexed.add(id);
+      if (id.compareTo(builderAddress) != 0) {
+        added.add(id);
+        removed.remove(id);
       }
     }
+    MembershipDirectory.publish(
+        MembershipDirectory.getCurrent().withValidators(added.toArray(new BigInteger[0])));
   }
 
   public void setBuilderAddress(BigInteger builderAddress) {
@@ -139,19 +133,26 @@ public class SearchTable {
 
   public void removeNode(BigInteger node) {
     this.nodesIndexed.remove(node);
-    this.nonValidatorsIndexed.remove(node);
     this.neighbours.remove(node);
-    validatorsIndexed.remove(node);
+    this.removed.add(node);
   }
 
-  public TreeSet<BigInteger> nodesIndexed() {
+  public KeyIndex nodesIndexed() {
     return nodesIndexed;
   }
 
-  public TreeSet<BigInteger> getValidatorsIndexed() {
-    return validatorsIndexed;
+  /** Returns the number of validators of the directory, but those removed or blacklisted. */
+  public int getValidatorsCount() {
+    MembershipDirectory directory = MembershipDirectory.getCurrent();
+    int count = directory.getValidatorsCount();
+    for (BigInteger id : removed) if (directory.isValidator(id)) count--;
+    for (BigInteger id : blackList) if (!removed.contains(id) && directory.isValidator(id)) count--;
+    return count;
   }
 
+  /**
+   * Returns the nodes indexed within a radius of a sample, as a read-only view in ascending order.
+   */
   public List<BigInteger> getNodesbySample(BigInteger sampleId, BigInteger radius) {
 
     BigInteger bottom = sampleId.subtract(radius);
@@ -160,8 +161,7 @@ public class SearchTable {
     BigInteger top = sampleId.add(radius);
     if (top.compareTo(Block.MAX_KEY) == 1) top = Block.MAX_KEY;
 
-    Collection<BigInteger> subSet = nodesIndexed.subSet(bottom, true, top, true);
-    return new ArrayList<BigInteger>(subSet);
+    return nodesIndexed.subList(bottom, top);
   }
 
   public List<BigInteger> getValidatorNodesbySample(BigInteger sampleId, BigInteger radius) {
@@ -171,8 +171,7 @@ public class SearchTable {
 
     BigInteger top = sampleId.add(radius);
     if (top.compareTo(Block.MAX_KEY) == 1) top = Block.MAX_KEY;
-    Collection<BigInteger> subSet = validatorsIndexed.subSet(bottom, true, top, true);
-    return new ArrayList<BigInteger>(subSet);
+    return withoutExcluded(MembershipDirectory.getCurrent().getValidators(bottom, top));
   }
 
   public List<BigInteger> getNonValidatorNodesbySample(BigInteger sampleId, BigInteger radius) {
@@ -183,8 +182,17 @@ public class SearchTable {
     BigInteger top = sampleId.add(radius);
     if (top.compareTo(Block.MAX_KEY) == 1) top = Block.MAX_KEY;
 
-    Collection<BigInteger> subSet = nonValidatorsIndexed.subSet(bottom, true, top, true);
-    return new ArrayList<BigInteger>(subSet);
+    return withoutExcluded(MembershipDirectory.getCurrent().getNonValidators(bottom, top));
+  }
+
+  /** Drops the nodes removed or blacklisted from a list of directory members. */
+  private List<BigInteger> withoutExcluded(List<BigInteger> ids) {
+    if (removed.isEmpty() && blackList.isEmpty()) return ids;
+    List<BigInteger> result = new ArrayList<>(ids.size());
+    for (BigInteger id : ids) {
+      if (!removed.contains(id) && !blackList.contains(id)) result.add(id);
+    }
+    return result;
   }
 
   public List<BigInteger> getNodesbySample(Set<BigInteger> samples, BigInteger radius) {
@@ -210,37 +218,77 @@ public class SearchTable {
     this.evilIds = ids;
   }
 
+  /**
+   * Returns copies of the most recently seen neighbours, to be sent to other nodes. Copies keep the
+   * receiver's table independent from ours (and from our concurrent updates in parallel runs).
+   */
   public Neighbour[] getNeighbours() {
-
-    List<Neighbour> result = new ArrayList<>();
-    List<Neighbour> neighs = new ArrayList<>();
-    for (Neighbour n : neighbours.values()) {
-      neighs.add(n);
-    }
-    Collections.sort(neighs);
-
-    for (Neighbour neigh : neighs) {
-      if (result.size() < KademliaCommonConfigDas.MAX_NODES_RETURNED) result.add(neigh);
-      else break;
-    }
-    return result.toArray(new Neighbour[0]);
+    return neighbours.mostRecent(KademliaCommonConfigDas.MAX_NODES_RETURNED);
   }
 
   public Neighbour[] getNeighbours(BigInteger id, BigInteger radius) {
+    return getNeighbours(new BigInteger[] {id}, radius);
+  }
 
-    List<BigInteger> nodes = getNodesbySample(id, radius);
-    List<Neighbour> neighs = new ArrayList<>();
-    List<Neighbour> result = new ArrayList<>();
-    for (BigInteger n : nodes) {
-      neighs.add(neighbours.get(n));
+  /**
+   * Returns copies of the most recently seen neighbours within a radius of any of the given IDs.
+   * The ranges of the IDs are merged first, so that the index is walked once, and each neighbour is
+   * returned at most once.
+   *
+   * @param ids the IDs, of samples
+   * @param radius the radius around each ID
+   */
+  public Neighbour[] getNeighbours(BigInteger[] ids, BigInteger radius) {
+    BigInteger[] sorted = ids.clone();
+    Arrays.sort(sorted);
+    Neighbour[] best = new Neighbour[KademliaCommonConfigDas.MAX_NODES_RETURNED];
+    int count = 0;
+    BigInteger bottom = null, top = null;
+    for (BigInteger id : sorted) {
+      BigInteger from = id.subtract(radius).max(BigInteger.ZERO);
+      BigInteger to = id.add(radius).min(Block.MAX_KEY);
+      if (top != null && from.compareTo(top) <= 0) {
+        top = top.max(to);
+        continue;
+      }
+      if (top != null) count = keepMostRecent(best, count, bottom, top);
+      bottom = from;
+      top = to;
     }
-    Collections.sort(neighs);
+    if (top != null) count = keepMostRecent(best, count, bottom, top);
+    return copies(best, count);
+  }
 
-    for (Neighbour neigh : neighs) {
-      if (result.size() < KademliaCommonConfigDas.MAX_NODES_RETURNED) result.add(neigh);
-      else break;
+  /** Inserts the neighbours indexed between two bounds among the most recently seen ones. */
+  private int keepMostRecent(Neighbour[] best, int count, BigInteger bottom, BigInteger top) {
+    for (BigInteger id : nodesIndexed.subList(bottom, top)) {
+      Neighbour n = neighbours.get(id);
+      if (n != null) count = keepMostRecent(best, count, n);
     }
-    return result.toArray(new Neighbour[0]);
+    return count;
+  }
+
+  /**
+   * Inserts a neighbour among the most recently seen ones, sorted, if it is seen more recently than
+   * the last of them or if there is room. Neighbours seen at the same time keep the order they are
+   * inserted in, as with a stable sort.
+   *
+   * @return the new number of neighbours kept
+   */
+  private static int keepMostRecent(Neighbour[] best, int count, Neighbour n) {
+    int pos = count;
+    while (pos > 0 && best[pos - 1].compareTo(n) > 0) pos--;
+    if (pos == best.length) return count;
+    int moved = Math.min(count, best.length - 1) - pos;
+    System.arraycopy(best, pos, best, pos + 1, moved);
+    best[pos] = n;
+    return Math.min(count + 1, best.length);
+  }
+
+  private static Neighbour[] copies(Neighbour[] neighs, int count) {
+    Neighbour[] result = new Neighbour[count];
+    for (int i = 0; i < count; i++) result[i] = new Neighbour(neighs[i]);
+    return result;
   }
 
   public int getAllNeighboursCount() {
@@ -294,19 +342,11 @@ public class SearchTable {
   }
 
   public boolean isNeighbourKnown(Neighbour neighbour) {
-    return neighbours.containsKey(neighbour.getId());
+    return neighbours.contains(neighbour.getId());
   }
 
   public void refresh() {
-
-    List<Neighbour> toRemove = new ArrayList<>();
-    for (Neighbour neigh : neighbours.values()) {
-      if (neigh.expired()) {
-        toRemove.add(neigh);
-        nodesIndexed.remove(neigh.getId());
-      }
-    }
-    for (Neighbour n : toRemove) neighbours.remove(n.getId());
+    nodesIndexed.removeAll(neighbours.removeExpired());
   }
 
   /**
@@ -317,28 +357,7 @@ public class SearchTable {
    * @return True if the child successfully is added, false otherwise.
    */
   public Boolean addNewChild(BigInteger childID, BigInteger parentID) {
-    RatedListMember child;
-    RatedListMember parent = allRatedMembers.get(parentID);
-
-    if (parent.level == KademliaCommonConfigDas.MAX_RATED_LEVEL) {
-      // System.out.println("Cannot add a child to a parent at max level. Fail");
-      return false;
-    }
-
-    // Get the child or return a newly created child.
-    child =
-        allRatedMembers.getOrDefault(
-            childID, new RatedListMember(childID, parent.level + 1, initialRating));
-
-    if (parent.addChild(child)) {
-      // it shouldn't be possible to fail after this, but this is a santiy check.
-      if (child.addParent(parent)) {
-        allRatedMembers.put(childID, child);
-        return true;
-      }
-    }
-
-    return false;
+    return ratedList.addChild(childID, parentID);
   }
 
   /**
@@ -347,18 +366,8 @@ public class SearchTable {
    * @param failedNode The node ID of the node which failed to respond
    */
   public void failedSample(BigInteger failedNode) {
-    if (!allRatedMembers.containsKey(failedNode)) {
-      System.out.println("Tried to get node which doesn't exist. Adding to the bottom level");
-      addNewChild(failedNode, BigInteger.valueOf(-1));
-    }
-
-    RatedListMember failedRatedNode = allRatedMembers.get(failedNode);
-
-    Set<RatedListMember> parents = failedRatedNode.getAllParents();
-    failedRatedNode.failedSample();
-    for (RatedListMember parent : parents) {
-      parent.failedSample();
-    }
+    addIfUnknown(failedNode);
+    ratedList.failedSample(failedNode);
   }
 
   /**
@@ -368,28 +377,44 @@ public class SearchTable {
    * @param successfulNode The node ID of the responding node
    */
   public void successfulSample(BigInteger successfulNode) {
+    addIfUnknown(successfulNode);
+    ratedList.successfulSample(successfulNode);
+  }
 
-    if (!allRatedMembers.containsKey(successfulNode)) {
-      System.out.println("Tried to get node which doesn't exist. Adding to the bottom level");
-      addNewChild(successfulNode, BigInteger.valueOf(-1));
-    }
+  /**
+   * Sets the listener notified when the rating of a member of the rated list changes.
+   *
+   * @param listener the listener, or null
+   */
+  public void setRatingListener(RatingListener listener) {
+    ratedList.setRatingListener(listener);
+  }
 
-    RatedListMember successfulRatedNode = allRatedMembers.get(successfulNode);
+  // Returns the rating of a node in the ratedList, adding it to the bottom level if it doesn't
+  // already exist
+  public double getRating(BigInteger nodeID) {
+    addIfUnknown(nodeID);
+    return ratedList.getRating(nodeID);
+  }
 
-    Set<RatedListMember> parents = successfulRatedNode.getAllParents();
-    successfulRatedNode.successfulSample();
-    for (RatedListMember parent : parents) {
-      parent.successfulSample();
-    }
+  // Returns the ancestors of a node in the ratedList, as a set of member numbers, adding it to the
+  // bottom level if it doesn't already exist
+  public BitSet getAncestors(BigInteger nodeID) {
+    addIfUnknown(nodeID);
+    return ratedList.getAncestors(nodeID);
+  }
+
+  // Returns a MinHash sketch of the ancestors of a node in the ratedList, adding it to the bottom
+  // level if it doesn't already exist
+  public int[] getAncestorSketch(BigInteger nodeID) {
+    addIfUnknown(nodeID);
+    return ratedList.getAncestorSketch(nodeID);
   }
 
-  // Returns a RatedList member no matter what - creating a new one of
-  // the same ID if it doesn't already exist
-  public RatedListMember getRatedListMember(BigInteger nodeID) {
-    if (!allRatedMembers.containsKey(nodeID)) {
+  private void addIfUnknown(BigInteger nodeID) {
+    if (!ratedList.contains(nodeID)) {
       System.out.println("Tried to get node which doesn't exist. Adding to the bottom level");
-      addNewChild(nodeID, BigInteger.valueOf(-1));
+      addNewChild(nodeID, RatedList.ROOT_ID);
     }
-    return allRatedMembers.get(nodeID);
   }
 }
@@ -10,6 +10,7 @@ import peersim.dynamics.NodeInitializer;
 import peersim.kademlia.KademliaCommonConfig;
 import peersim.kademlia.KademliaNode;
 import peersim.kademlia.KademliaProtocol;
+import peersim.kademlia.NodeIndex;
 import peersim.kademlia.UniformRandomGenerator;
 
 /** TurbulenceDas adds/removes regular-nodes with a certain probability every step */
@@ -130,6 +131,7 @@ public class TurbulenceDas implements Control {
 
     newNode.setProtocol(dasprotbuildid, dasProt);
     newKad.setNode(node);
+    NodeIndex.add(newNode);
 
     dasProt.setKademliaProtocol(newKad);
     dasProt.setDASProtocolID(dasprotbuildid);
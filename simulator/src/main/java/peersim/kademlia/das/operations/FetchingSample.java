@@ -13,12 +13,16 @@ public class FetchingSample {
   public List<Node> askedNodes;
   public boolean beingFetched;
 
+  /** Number of nodes the sample may be fetched from at once, on top of the operation's */
+  private int aggressiveness;
+
   public FetchingSample(Sample s) {
     this.s = s;
     downloaded = false;
     beingFetchedFrom = new ArrayList<>();
     askedNodes = new ArrayList<>();
     beingFetched = false;
+    aggressiveness = 0;
   }
 
   public BigInteger getId() {
@@ -52,6 +56,18 @@ public class FetchingSample {
     return beingFetchedFrom;
   }
 
+  public int getAggressiveness() {
+    return aggressiveness;
+  }
+
+  /**
+   * Lets the sample be fetched from at least the given number of nodes at once, whatever the
+   * aggressiveness of the operation.
+   */
+  public void widen(int agr) {
+    aggressiveness = Math.max(aggressiveness, agr);
+  }
+
   public void addAskedNode(Node n) {
     askedNodes.add(n);
   }
@@ -11,6 +11,15 @@ public class Node implements Comparable<Node> {
   private int aggressiveness;
   private boolean beingAsked;
 
+  /** Position in the rating heap of the operation, or -1 if not in it */
+  int heapIndex = -1;
+
+  /** Order of the node among the ones of the same rating, or -1 before it enters the heap */
+  long heapOrder = -1;
+
+  /** Rating of the node, as last known by the rating heap */
+  double rating;
+
   public Node(BigInteger id) {
     this.id = id;
     samples = new ArrayList<>();
@@ -43,7 +52,8 @@ public class Node implements Comparable<Node> {
 
     for (FetchingSample s : samples) {
 
-      if (!s.isDownloaded() && s.beingFetchedFrom.size() < aggressiveness) {
+      if (!s.isDownloaded()
+          && s.beingFetchedFrom.size() < Math.max(aggressiveness, s.getAggressiveness())) {
         score += 1;
       }
     }
@@ -80,16 +80,10 @@ public class RandomSamplingOperation extends SamplingOperation {
   }
 
   public void elaborateResponse(Sample[] sam, BigInteger node) {
-    this.available_requests--;
+    // a node answering after its request timed out has been counted out already
+    if (nodes.containsKey(node)) this.available_requests--;
     // if (this.available_requests == 0) nodes.clear();
 
-    Node n = nodes.get(node);
-    if (n != null) {
-      for (FetchingSample s : n.getSamples()) {
-        s.removeFetchingNode(n);
-      }
-    }
-
     for (Sample s : sam) {
 
       if (samples.containsKey(s.getId()) || samples.containsKey(s.getIdByColumn())) {
@@ -110,7 +104,9 @@ public class RandomSamplingOperation extends SamplingOperation {
       }*/
     }
 
-    nodes.remove(node);
+    // the samples the node did not send can be asked to other nodes at once
+    Node n = nodes.remove(node);
+    if (n != null) release(n);
     askNodes.add(node);
   }
 
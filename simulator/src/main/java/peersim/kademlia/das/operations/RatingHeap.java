@@ -0,0 +1,141 @@
+package peersim.kademlia.das.operations;
+
+import java.util.Arrays;
+
+/**
+ * A max-heap of the nodes of a sampling operation, by rating in the rated list of the node
+ * sampling.
+ *
+ * <p>Each node keeps its position in the heap, so that its rating can be updated in O(log n) when
+ * it changes, and the best node comes out in O(log n). Nodes of the same rating come out in the
+ * order they were first added, as a stable sort would order them.
+ */
+class RatingHeap {
+
+  /** The nodes, as a binary heap */
+  private Node[] heap;
+
+  /** Number of nodes in the heap */
+  private int size = 0;
+
+  /** Number of nodes added for the first time, to order the nodes of the same rating */
+  private long added = 0;
+
+  /**
+   * Creates an empty heap.
+   *
+   * @param capacity the expected number of nodes
+   */
+  RatingHeap(int capacity) {
+    heap = new Node[Math.max(1, capacity)];
+  }
+
+  /** Returns the number of nodes in the heap. */
+  int size() {
+    return size;
+  }
+
+  /** Checks whether the heap is empty. */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Checks whether a node is in the heap. */
+  boolean contains(Node n) {
+    return n.heapIndex >= 0 && n.heapIndex < size && heap[n.heapIndex] == n;
+  }
+
+  /**
+   * Adds a node. A node added again, after being polled, keeps its order among the nodes of the
+   * same rating.
+   *
+   * @param n the node, not in the heap
+   * @param rating its rating
+   */
+  void add(Node n, double rating) {
+    if (n.heapOrder < 0) n.heapOrder = added++;
+    n.rating = rating;
+    if (size == heap.length) heap = Arrays.copyOf(heap, 2 * size);
+    heap[size] = n;
+    n.heapIndex = size++;
+    siftUp(n.heapIndex);
+  }
+
+  /**
+   * Adds a node again, with the rating it had when polled.
+   *
+   * @param n the node, not in the heap
+   */
+  void restore(Node n) {
+    add(n, n.rating);
+  }
+
+  /**
+   * Removes the node of highest rating.
+   *
+   * @return the node, or null if the heap is empty
+   */
+  Node poll() {
+    if (size == 0) return null;
+    Node top = heap[0];
+    Node last = heap[--size];
+    heap[size] = null;
+    if (size > 0) {
+      heap[0] = last;
+      last.heapIndex = 0;
+      siftDown(0);
+    }
+    top.heapIndex = -1;
+    return top;
+  }
+
+  /**
+   * Changes the rating of a node, if it is in the heap.
+   *
+   * @param n the node
+   * @param rating its new rating
+   */
+  void update(Node n, double rating) {
+    if (!contains(n)) return;
+    double old = n.rating;
+    n.rating = rating;
+    int c = Double.compare(rating, old);
+    if (c > 0) siftUp(n.heapIndex);
+    else if (c < 0) siftDown(n.heapIndex);
+  }
+
+  /** Checks whether a node comes out before another. */
+  private static boolean before(Node a, Node b) {
+    int c = Double.compare(a.rating, b.rating);
+    return c > 0 || (c == 0 && a.heapOrder < b.heapOrder);
+  }
+
+  private void siftUp(int i) {
+    Node n = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!before(n, heap[parent])) break;
+      place(heap[parent], i);
+      i = parent;
+    }
+    place(n, i);
+  }
+
+  private void siftDown(int i) {
+    Node n = heap[i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) break;
+      if (child + 1 < size && before(heap[child + 1], heap[child])) child++;
+      if (!before(heap[child], n)) break;
+      place(heap[child], i);
+      i = child;
+    }
+    place(n, i);
+  }
+
+  private void place(Node n, int i) {
+    heap[i] = n;
+    n.heapIndex = i;
+  }
+}
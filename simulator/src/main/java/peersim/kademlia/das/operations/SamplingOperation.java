@@ -4,15 +4,13 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import peersim.kademlia.das.Block;
 import peersim.kademlia.das.KademliaCommonConfigDas;
+import peersim.kademlia.das.MinHash;
 import peersim.kademlia.das.MissingNode;
-import peersim.kademlia.das.RatedListMember;
 import peersim.kademlia.das.Sample;
 import peersim.kademlia.das.SearchTable;
 import peersim.kademlia.operations.FindOperation;
@@ -38,6 +36,8 @@ public abstract class SamplingOperation extends FindOperation {
 
   protected boolean securityActive;
 
+  protected boolean diverseSelection;
+
   protected static String prefix = null;
   protected static final String PAR_SECURITY_ACTIVE = "securityActive";
 
@@ -48,7 +48,10 @@ public abstract class SamplingOperation extends FindOperation {
 
   protected static final int MAX_PARENT_DEPTH = KademliaCommonConfigDas.MAX_PARENT_DEPTH;
 
-  protected HashMap<BigInteger, Set<RatedListMember>> knownParents;
+  protected HashMap<BigInteger, int[]> knownParents;
+
+  /** The nodes not asked yet, by rating, built at the first sampling round */
+  private RatingHeap unasked;
 
   public SamplingOperation(
       BigInteger srcNode,
@@ -71,6 +74,7 @@ public abstract class SamplingOperation extends FindOperation {
     askNodes = new ArrayList<>();
     timesIncreased = 0;
     securityActive = KademliaCommonConfigDas.SECURITY_ACTIVE;
+    diverseSelection = KademliaCommonConfigDas.DIVERSE_SELECTION;
     // securityActive = Configuration.getBoolean(prefix + "." + PAR_SECURITY_ACTIVE,
     // KademliaCommonConfigDas.SECURITY_ACTIVE);
   }
@@ -100,6 +104,7 @@ public abstract class SamplingOperation extends FindOperation {
     askNodes = new ArrayList<>();
     timesIncreased = 0;
     securityActive = KademliaCommonConfigDas.SECURITY_ACTIVE;
+    diverseSelection = KademliaCommonConfigDas.DIVERSE_SELECTION;
     // securityActive = Configuration.getBoolean(prefix + "." + PAR_SECURITY_ACTIVE,
     // KademliaCommonConfigDas.SECURITY_ACTIVE);
     // queried = new HashSet<>();
@@ -129,50 +134,165 @@ public abstract class SamplingOperation extends FindOperation {
   protected abstract void createNodes();
 
   public BigInteger[] doSampling(SearchTable searchTable) {
+    return doSampling(searchTable, true);
+  }
 
-    aggressiveness += KademliaCommonConfigDas.aggressiveness_step;
-    for (Node n : nodes.values()) n.setAgressiveness(aggressiveness);
-    List<BigInteger> result = new ArrayList<>();
+  /**
+   * Returns the nodes to ask next, among the ones not asked yet that may have samples still
+   * missing.
+   *
+   * @param searchTable the search table of the node, to rate the nodes
+   * @param widen whether to increase the number of nodes each sample is fetched from at once, as
+   *     when all the requests sent have been answered
+   */
+  public BigInteger[] doSampling(SearchTable searchTable, boolean widen) {
 
-    List<Node> nodeList = new ArrayList<>();
+    if (widen) {
+      aggressiveness += KademliaCommonConfigDas.aggressiveness_step;
+      for (Node n : nodes.values()) n.setAgressiveness(aggressiveness);
+    }
+    List<BigInteger> result = new ArrayList<>();
 
     if (securityActive) {
       // Clearing the known parents list.
       knownParents = new HashMap<>();
-      List<NodeRating> nodesByRating = orderByRating(nodes.values(), searchTable);
-
-      // This currently exists in place of the combineLists function (as commented below)
-      for (NodeRating nr : nodesByRating) {
-        nodeList.add(nr.node);
+      if (unasked == null) {
+        unasked = new RatingHeap(nodes.size());
+        for (Node n : nodes.values())
+          if (!n.isBeingAsked()) unasked.add(n, searchTable.getRating(n.getId()));
+      }
+      if (diverseSelection) {
+        askDiverse(searchTable, result);
+      } else {
+        // nodes come out by decreasing rating; the ones asked leave the heap for good
+        List<Node> skipped = new ArrayList<>();
+        while (!unasked.isEmpty()) {
+          Node n = unasked.poll();
+          if (n.getScore() > 0) ask(n, result);
+          else skipped.add(n);
+        }
+        for (Node n : skipped) unasked.restore(n);
       }
       // nodeList = combineLists(nodesByDiversity, nodesByRating, DIVERSITY_WEIGHT, RATING_WEIGHT);
     } else {
-      nodeList = new ArrayList<>(nodes.values());
+      for (Node n : nodes.values()) {
+        if (!n.isBeingAsked() && n.getScore() > 0) ask(n, result);
+      }
     }
 
-    // for (Node n : nodes.values()) {
-    for (Node n : nodeList) {
-      /*System.out.println(
-          this.srcNode + "] Querying node " + n.getId() + " " + +n.getScore() + " " + this.getId());
-      for (FetchingSample fs : n.getSamples())
-        System.out.println(
-            this.srcNode + "] Sample " + fs.beingFetchedFrom.size() + " " + fs.isDownloaded());*/
-
-      if (!n.isBeingAsked() && n.getScore() > 0) { // break;
-        n.setBeingAsked(true);
-        this.available_requests++;
-        for (FetchingSample s : n.getSamples()) {
-          s.addFetchingNode(n);
+    return result.toArray(new BigInteger[0]);
+  }
+
+  /**
+   * Asks the nodes not asked yet greedily: each time, the node with samples to give whose rating
+   * and average distance to the nodes already asked score best, weighted by RATING_WEIGHT and
+   * DIVERSITY_WEIGHT. The distance between two nodes is the Jaccard distance of their ancestors in
+   * the rated list, estimated from their MinHash sketches, so that nodes returned by the same peers
+   * are not all trusted together.
+   */
+  private void askDiverse(SearchTable searchTable, List<BigInteger> result) {
+    // polled by decreasing rating, so that ties go to the best rated
+    List<Node> candidates = new ArrayList<>(unasked.size());
+    while (!unasked.isEmpty()) candidates.add(unasked.poll());
+    int n = candidates.size();
+    int[][] sketches = new int[n][];
+    for (int i = 0; i < n; i++)
+      sketches[i] = searchTable.getAncestorSketch(candidates.get(i).getId());
+
+    // sum of the distances of each candidate to the nodes asked
+    double[] distances = new double[n];
+    int asked = 0;
+    for (Node a : nodes.values()) {
+      if (!a.isBeingAsked()) continue;
+      int[] sketch = searchTable.getAncestorSketch(a.getId());
+      for (int i = 0; i < n; i++) distances[i] += MinHash.distance(sketches[i], sketch);
+      asked++;
+    }
+
+    // the scores of the candidates only go down while others are asked
+    boolean[] out = new boolean[n];
+    while (true) {
+      int best = -1;
+      double bestScore = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < n; i++) {
+        if (out[i]) continue;
+        Node c = candidates.get(i);
+        if (c.getScore() <= 0) {
+          out[i] = true;
+          unasked.restore(c);
+          continue;
+        }
+        double score = combinedScore(c.rating, asked == 0 ? 0 : distances[i] / asked);
+        if (score > bestScore) {
+          best = i;
+          bestScore = score;
         }
-        result.add(n.getId());
       }
+      if (best < 0) break;
+      out[best] = true;
+      ask(candidates.get(best), result);
+      asked++;
+      for (int i = 0; i < n; i++)
+        if (!out[i]) distances[i] += MinHash.distance(sketches[i], sketches[best]);
     }
+  }
 
-    return result.toArray(new BigInteger[0]);
+  /** Combines a rating and a diversity score, ignoring negative ratings as combineLists does. */
+  private static double combinedScore(double rating, double diversity) {
+    double score = DIVERSITY_WEIGHT * diversity;
+    if (rating >= 0) score += RATING_WEIGHT * rating / MAX_RATING;
+    return score;
+  }
+
+  private void ask(Node n, List<BigInteger> result) {
+    n.setBeingAsked(true);
+    this.available_requests++;
+    for (FetchingSample s : n.getSamples()) {
+      s.addFetchingNode(n);
+    }
+    result.add(n.getId());
   }
 
   /**
-   * Orders a set of nodes by the diversity of their parents using the Jaccard Coefficient.
+   * Updates the rating of a node, when it changes in the rated list of the node sampling.
+   *
+   * @param id the ID of the node
+   * @param rating its new rating
+   */
+  public void ratingChanged(BigInteger id, double rating) {
+    if (unasked == null) return;
+    Node n = nodes.get(id);
+    if (n != null) unasked.update(n, rating);
+  }
+
+  /**
+   * Stops counting a node that is slow to respond as fetching its samples, so that other nodes can
+   * be asked for them. The node stays asked, and its response is still processed.
+   *
+   * @param id the ID of the node
+   */
+  public void releaseNode(BigInteger id) {
+    Node n = nodes.get(id);
+    if (n != null) release(n);
+  }
+
+  /**
+   * Stops counting a node as fetching its samples. The samples still missing are widened: they can
+   * be fetched from one more node at once than the other samples, so that the next call to {@link
+   * #doSampling} asks alternative nodes for them without waiting for the other requests.
+   *
+   * @param n the node, slow to respond or that answered without some of its samples
+   */
+  protected void release(Node n) {
+    for (FetchingSample s : n.getSamples()) {
+      s.removeFetchingNode(n);
+      if (!s.isDownloaded()) s.widen(aggressiveness + KademliaCommonConfigDas.aggressiveness_step);
+    }
+  }
+
+  /**
+   * Orders a set of nodes by the diversity of their parents using the Jaccard Coefficient,
+   * estimated from MinHash sketches of the parents.
    *
    * @param nodeCollection The nodes.values() list
    * @param searchTable The current node's searchtable instance, used to get parental data
@@ -193,19 +313,19 @@ public abstract class SamplingOperation extends FindOperation {
 
   // Helper function for orderByDiversity
   private double calculateDiversity(Node candidate, List<Node> nodes, SearchTable searchTable) {
-    Set<RatedListMember> candidateAncestors = getNodeParents(candidate.getId(), searchTable);
-    double diversityScore = 0;
-
     // If the candidate has no parents, it has no diversity in parents.
-    if (candidateAncestors.isEmpty()) {
+    if (searchTable.getAncestors(candidate.getId()).isEmpty()) {
       return 0;
     }
 
+    int[] candidateAncestors = getNodeParents(candidate.getId(), searchTable);
+    double diversityScore = 0;
+
     for (Node node : nodes) {
       // Don't compare the candidate to itself.
       if (node == candidate) continue;
-      Set<RatedListMember> nodeAncestors = getNodeParents(node.getId(), searchTable);
-      diversityScore += jaccardDistance(candidateAncestors, nodeAncestors);
+      int[] nodeAncestors = getNodeParents(node.getId(), searchTable);
+      diversityScore += MinHash.distance(candidateAncestors, nodeAncestors);
     }
     return diversityScore / (nodes.size() - 1);
     // Return the average of a candidate node's parental diversity against all other node's parents
@@ -214,29 +334,12 @@ public abstract class SamplingOperation extends FindOperation {
 
   // Heuristic function, ensures that no parental search needs to happen more than once per
   // samplingOperation.
-  private Set<RatedListMember> getNodeParents(BigInteger nodeID, SearchTable searchTable) {
+  private int[] getNodeParents(BigInteger nodeID, SearchTable searchTable) {
     if (!knownParents.containsKey(nodeID))
-      knownParents.put(nodeID, searchTable.getRatedListMember(nodeID).getAllParents());
+      knownParents.put(nodeID, searchTable.getAncestorSketch(nodeID));
     return knownParents.get(nodeID);
   }
 
-  /**
-   * Calculate the Jaccard coefficient complement for the dissimilarity of the two sets
-   *
-   * @param set1 First set to be compared
-   * @param set2 Second set to be compared
-   * @return The Jaccard coefficient i.e. 1 - Jaccard similarity.
-   */
-  private double jaccardDistance(Set<RatedListMember> set1, Set<RatedListMember> set2) {
-    Set<RatedListMember> intersection = new HashSet<>(set1);
-    intersection.retainAll(set2);
-
-    Set<RatedListMember> union = new HashSet<>(set1);
-    union.addAll(set2);
-
-    return 1.0 - ((double) intersection.size() / union.size());
-  }
-
   // Helper class for orderByDiversity
   private static class NodeDiversity {
     Node node;
@@ -249,7 +352,8 @@ public abstract class SamplingOperation extends FindOperation {
   }
 
   /**
-   * Orders inputted nodes by the searchTable's known rating of them.
+   * Orders inputted nodes by the searchTable's known rating of them. Sampling rounds keep the
+   * ratings of the nodes not asked yet in a heap instead, updated as they change.
    *
    * @param nodeCollection A collection of nodes to be ordered
    * @param searchTable The ordering node's searchtable
@@ -260,7 +364,7 @@ public abstract class SamplingOperation extends FindOperation {
     List<NodeRating> nodesByRating = new ArrayList<>();
 
     for (Node candidate : nodes) {
-      Double candidateRating = searchTable.getRatedListMember(candidate.getId()).getRating();
+      Double candidateRating = searchTable.getRating(candidate.getId());
       nodesByRating.add(new NodeRating(candidate, candidateRating));
     }
 
@@ -85,15 +85,10 @@ public class ValidatorSamplingOperation extends SamplingOperation {
 
   public void elaborateResponse(Sample[] sam, BigInteger n) {
 
-    this.available_requests--;
+    // a node answering after its request timed out has been counted out already
+    if (nodes.containsKey(n)) this.available_requests--;
     // if (this.available_requests == 0) nodes.clear();
 
-    Node node = nodes.get(n);
-    if (node != null) {
-      for (FetchingSample s : node.getSamples()) {
-        s.removeFetchingNode(node);
-      }
-    }
     for (Sample s : sam) {
       if (row > 0) {
         if (samples.containsKey(s.getId())) {
@@ -117,7 +112,9 @@ public class ValidatorSamplingOperation extends SamplingOperation {
     if (samplesCount >= samples.size() / 2) completed = true;
     askNodes.add(n);
 
-    nodes.remove(n);
+    // the samples the node did not send can be asked to other nodes at once
+    Node node = nodes.remove(n);
+    if (node != null) release(node);
   }
 
   public boolean completed() {
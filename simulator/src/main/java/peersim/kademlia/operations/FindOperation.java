@@ -14,8 +14,8 @@ import peersim.core.Network;
 import peersim.core.Node;
 import peersim.kademlia.KademliaCommonConfig;
 import peersim.kademlia.KademliaProtocol;
+import peersim.kademlia.NodeId;
 import peersim.kademlia.UniformRandomGenerator;
-import peersim.kademlia.Util;
 
 /**
  * This class represents a find operation and offer the methods needed to maintain and update the
@@ -30,10 +30,13 @@ public class FindOperation extends Operation {
   /** number of available find request message to send (it must be always less than ALPHA) */
   protected int available_requests;
   /**
-   * This map contains the K closest nodes and corresponding boolean value that indicates if the
-   * nodes has been already queried or not
+   * This shortlist contains the K closest nodes, ordered by distance, and whether each node has
+   * been already queried or not
    */
-  protected HashMap<BigInteger, Boolean> closestSet;
+  protected Shortlist closestSet;
+
+  /** the destination of the lookup, which closestSet is closest to */
+  protected NodeId destKey;
 
   /**
    * defaul constructor
@@ -45,7 +48,8 @@ public class FindOperation extends Operation {
   public FindOperation(BigInteger srcNode, BigInteger destNode, long timestamp) {
     super(srcNode, destNode, timestamp);
     // initialize closestSet
-    closestSet = new HashMap<BigInteger, Boolean>();
+    destKey = destNode == null ? null : NodeId.valueOf(destNode);
+    closestSet = new Shortlist(destKey, KademliaCommonConfig.K);
     returned = new ArrayList<BigInteger>();
   }
 
@@ -61,46 +65,29 @@ public class FindOperation extends Operation {
     this.available_requests = requests;
   }
 
-  public HashMap<BigInteger, Boolean> getClosest() {
+  public Shortlist getClosest() {
     return this.closestSet;
   }
 
+  /**
+   * get the destination of the lookup
+   *
+   * @return the destination as a NodeId
+   */
+  public NodeId getDestKey() {
+    return this.destKey;
+  }
+
   /**
    * update closestSet with the new information received
    *
    * @param neighbours
    */
-  public void elaborateResponse(BigInteger[] neighbours) {
-
-    // add to closestSet
-    for (BigInteger n : neighbours) {
-
-      if (n != null) {
-        if (!closestSet.containsKey(n)) {
-          if (closestSet.size() < KademliaCommonConfig.K) { // add directly
-            closestSet.put(n, false);
-          } else { // find in the closest set if there are nodes whit less distance
-            BigInteger newdist = Util.xorDistance(n, destNode);
-
-            // find the node with max distance
-            BigInteger maxdist = newdist;
-            BigInteger nodemaxdist = n;
-            for (BigInteger i : closestSet.keySet()) {
-              BigInteger dist = Util.xorDistance(i, destNode);
-
-              if (dist.compareTo(maxdist) > 0) {
-                maxdist = dist;
-                nodemaxdist = i;
-              }
-            }
-
-            if (nodemaxdist.compareTo(n) != 0) {
-              closestSet.remove(nodemaxdist);
-              closestSet.put(n, false);
-            }
-          }
-        }
-      }
+  public void elaborateResponse(NodeId[] neighbours) {
+
+    // add to closestSet, replacing the farthest node when it is full
+    for (NodeId n : neighbours) {
+      if (n != null) closestSet.add(n);
     }
     // update responseNumber
     available_requests++;
@@ -111,23 +98,12 @@ public class FindOperation extends Operation {
    *
    * @return the Id of the node or null if there aren't available node
    */
-  public BigInteger getNeighbour() {
+  public NodeId getNeighbour() {
     // find closest neighbour ( the first not already queried)
-    BigInteger res = null;
-    for (BigInteger n : closestSet.keySet()) {
-      if (n != null && closestSet.get(n) == false) {
-        if (res == null) {
-          res = n;
-        } else if (Util.xorDistance(n, destNode).compareTo(Util.xorDistance(res, destNode)) < 0) {
-          res = n;
-        }
-      }
-    }
+    NodeId res = closestSet.nextToQuery();
 
     // Has been found a valid neighbour
     if (res != null) {
-      closestSet.remove(res);
-      closestSet.put(res, true);
       // increaseUsed(res);
       available_requests--; // decrease available request
     }
@@ -136,12 +112,12 @@ public class FindOperation extends Operation {
   }
 
   /**
-   * get the neighbours in closest set which has not been already queried
+   * get the neighbours in closest set, from the closest to the farthest
    *
    * @return the closest nodes set up to K
    */
   public List<BigInteger> getNeighboursList() {
-    return new ArrayList<BigInteger>(closestSet.keySet());
+    return closestSet.getIds();
     // return new ArrayList<BigInteger>(closestSet.keySet()).subList(0, KademliaCommonConfig.K-1);
   }
 
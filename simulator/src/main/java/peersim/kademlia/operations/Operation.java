@@ -4,6 +4,7 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import peersim.util.IdSequence;
 
 /**
  * This class represents a find operation and offer the methods needed to maintain and update the
@@ -16,7 +17,7 @@ import java.util.Map;
 public abstract class Operation {
 
   /** unique sequence number generator of the operation */
-  protected static long OPERATION_ID_GENERATOR = 0;
+  protected static final IdSequence OPERATION_ID_GENERATOR = new IdSequence();
 
   protected boolean finished = false;
   /** represent univocally the find operation */
@@ -55,7 +56,7 @@ public abstract class Operation {
     this.srcNode = srcNode;
     this.nrHops = 0;
     // set a new find ID
-    operationId = OPERATION_ID_GENERATOR++;
+    operationId = OPERATION_ID_GENERATOR.next();
     this.messages = new ArrayList<>();
     returned = new ArrayList<BigInteger>();
   }
@@ -4,6 +4,7 @@ import java.math.BigInteger;
 import java.util.HashMap;
 import peersim.core.Network;
 import peersim.kademlia.KademliaCommonConfig;
+import peersim.kademlia.NodeId;
 import peersim.kademlia.Util;
 
 public class RegionBasedFindOperation extends FindOperation {
@@ -11,9 +12,11 @@ public class RegionBasedFindOperation extends FindOperation {
   // minimum common prefix length
   public int minCPL;
   // Closest peers that are within the target region
-  protected HashMap<BigInteger, Boolean> regionalSet;
+  protected HashMap<NodeId, Boolean> regionalSet;
   // Store the original destNode
   public BigInteger targetNode;
+  // The original destNode as a NodeId
+  protected NodeId targetKey;
 
   /**
    * defaul constructor
@@ -24,8 +27,9 @@ public class RegionBasedFindOperation extends FindOperation {
   public RegionBasedFindOperation(BigInteger srcNode, BigInteger destNode, int k, long timestamp) {
     super(srcNode, destNode, timestamp);
     this.minCPL = (int) Math.ceil(Math.log(Network.size() / (double) k) / Math.log(2)) - 1;
-    regionalSet = new HashMap<BigInteger, Boolean>();
+    regionalSet = new HashMap<NodeId, Boolean>();
     this.targetNode = destNode;
+    this.targetKey = this.destKey;
   }
 
   /**
@@ -34,14 +38,14 @@ public class RegionBasedFindOperation extends FindOperation {
    * @param neighbours
    */
   @Override
-  public void elaborateResponse(BigInteger[] neighbours) {
+  public void elaborateResponse(NodeId[] neighbours) {
 
     // add to closestSet
-    for (BigInteger n : neighbours) {
+    for (NodeId n : neighbours) {
 
       if (n != null && !regionalSet.containsKey(n)) {
 
-        if (Util.prefixLen(n, this.targetNode) >= this.minCPL) {
+        if (n.commonPrefixLength(this.targetKey) >= this.minCPL) {
           this.regionalSet.put(n, false);
         }
       }
@@ -54,42 +58,24 @@ public class RegionBasedFindOperation extends FindOperation {
    *
    * @return the Id of the node or null if there aren't available node
    */
-  public BigInteger getNeighbour() {
+  public NodeId getNeighbour() {
     // find closest neighbour ( the first not already queried)
-    BigInteger neighbour = super.getNeighbour();
+    NodeId neighbour = super.getNeighbour();
     int curr_minCPL = 0;
     if (neighbour == null && available_requests == KademliaCommonConfig.ALPHA) {
       // should we let the find operation terminate?
-      curr_minCPL = Util.getMinCplWithSet(this.targetNode, this.closestSet.keySet());
+      curr_minCPL = Util.getMinCplWithSet(this.targetKey, this.closestSet.getNodes());
       // we found all closest peers with common prefix length >= curr_minCPL
       if (curr_minCPL <= this.minCPL) {
         return null;
       } else {
         // Update the destNode
-        this.destNode = Util.flipBit(this.targetNode, curr_minCPL);
+        this.destKey = Util.flipBit(this.targetKey, curr_minCPL);
+        this.destNode = this.destKey.toBigInteger();
         // Form a new closestSet using regionalSet
-        this.closestSet = new HashMap<BigInteger, Boolean>();
-        for (BigInteger n : regionalSet.keySet()) {
-          if (closestSet.size() < KademliaCommonConfig.K) { // add directly
-            closestSet.put(n, false);
-          } else {
-            BigInteger newdist = Util.xorDistance(n, destNode);
-            // find the node with max distance
-            BigInteger maxdist = newdist;
-            BigInteger nodemaxdist = n;
-            for (BigInteger i : closestSet.keySet()) {
-              BigInteger dist = Util.xorDistance(i, destNode);
-              if (dist.compareTo(maxdist) > 0) {
-                maxdist = dist;
-                nodemaxdist = i;
-              }
-            }
-
-            if (nodemaxdist.compareTo(n) != 0) {
-              closestSet.remove(nodemaxdist);
-              closestSet.put(n, false);
-            }
-          }
+        this.closestSet = new Shortlist(destKey, KademliaCommonConfig.K);
+        for (NodeId n : regionalSet.keySet()) {
+          closestSet.add(n);
         }
       }
     }
@@ -0,0 +1,176 @@
+package peersim.kademlia.operations;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import peersim.kademlia.NodeId;
+
+/**
+ * The shortlist of a lookup: the (at most) K nodes closest to the target seen so far, ordered by
+ * XOR distance to the target, each marked as already queried or not.
+ *
+ * <p>Nodes are kept in a sorted array. A node is placed by binary search, in O(log K) distance
+ * comparisons, and the closest node not queried yet is tracked, so that it is returned in constant
+ * time.
+ */
+public class Shortlist {
+
+  /** The target of the lookup */
+  private final NodeId target;
+
+  /** The nodes, from the closest to the farthest from the target */
+  private final NodeId[] nodes;
+
+  /** Whether each node has been queried */
+  private final boolean[] queried;
+
+  /** Number of nodes in the shortlist */
+  private int size = 0;
+
+  /** Index of the closest node not queried yet, or size if there is none */
+  private int next = 0;
+
+  /**
+   * Creates an empty shortlist.
+   *
+   * @param target the target of the lookup
+   * @param capacity the maximum number of nodes, usually K
+   */
+  public Shortlist(NodeId target, int capacity) {
+    this.target = target;
+    this.nodes = new NodeId[capacity];
+    this.queried = new boolean[capacity];
+  }
+
+  /**
+   * Adds a node, if it is not already in the shortlist and it is closer to the target than the
+   * farthest node of a full shortlist, which is then dropped.
+   *
+   * @param node the node to add
+   * @return true if the node has been added
+   */
+  public boolean add(NodeId node) {
+    int i = indexOf(node);
+    if (i >= 0) return false;
+    i = -i - 1;
+    if (i == nodes.length) return false;
+    if (size == nodes.length) size--; // drop the farthest node
+    System.arraycopy(nodes, i, nodes, i + 1, size - i);
+    System.arraycopy(queried, i, queried, i + 1, size - i);
+    nodes[i] = node;
+    queried[i] = false;
+    size++;
+    if (i <= next) next = i;
+    return true;
+  }
+
+  /**
+   * Removes a node from the shortlist, e.g. because it did not answer.
+   *
+   * @param node the node to remove
+   * @return true if the node was in the shortlist
+   */
+  public boolean remove(NodeId node) {
+    int i = indexOf(node);
+    if (i < 0) return false;
+    size--;
+    System.arraycopy(nodes, i + 1, nodes, i, size - i);
+    System.arraycopy(queried, i + 1, queried, i, size - i);
+    nodes[size] = null;
+    if (next > i) next--;
+    else if (next == i) while (next < size && queried[next]) next++;
+    return true;
+  }
+
+  /**
+   * Returns the closest node not queried yet, and marks it as queried.
+   *
+   * @return the node, or null if all the nodes have been queried
+   */
+  public NodeId nextToQuery() {
+    if (next >= size) return null;
+    NodeId node = nodes[next];
+    queried[next] = true;
+    do next++;
+    while (next < size && queried[next]);
+    return node;
+  }
+
+  /**
+   * Checks whether a node is in the shortlist.
+   *
+   * @param node the node
+   * @return true if the node is in the shortlist
+   */
+  public boolean contains(NodeId node) {
+    return indexOf(node) >= 0;
+  }
+
+  /**
+   * Checks whether a node of the shortlist has been queried.
+   *
+   * @param node the node
+   * @return true if the node is in the shortlist and has been queried
+   */
+  public boolean isQueried(NodeId node) {
+    int i = indexOf(node);
+    return i >= 0 && queried[i];
+  }
+
+  /** Number of nodes in the shortlist. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns a node of the shortlist.
+   *
+   * @param i the index of the node, 0 being the closest to the target
+   * @return the node
+   */
+  public NodeId get(int i) {
+    if (i >= size) throw new IndexOutOfBoundsException("Invalid shortlist index: " + i);
+    return nodes[i];
+  }
+
+  /**
+   * Returns the nodes of the shortlist, from the closest to the farthest from the target.
+   *
+   * @return a new list of the nodes
+   */
+  public List<NodeId> getNodes() {
+    List<NodeId> list = new ArrayList<NodeId>(size);
+    for (int i = 0; i < size; i++) list.add(nodes[i]);
+    return list;
+  }
+
+  /**
+   * Returns the nodes of the shortlist as BigIntegers, from the closest to the farthest from the
+   * target.
+   *
+   * @return a new list of the nodes
+   */
+  public List<BigInteger> getIds() {
+    List<BigInteger> list = new ArrayList<BigInteger>(size);
+    for (int i = 0; i < size; i++) list.add(nodes[i].toBigInteger());
+    return list;
+  }
+
+  /**
+   * Looks for a node by binary search on the distance to the target.
+   *
+   * @return the index of the node, or (-(insertion point) - 1) if it is not in the shortlist
+   */
+  private int indexOf(NodeId node) {
+    int lo = 0;
+    int hi = size - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int c = target.xorCompare(nodes[mid], node);
+      if (c < 0) lo = mid + 1;
+      else if (c > 0) hi = mid - 1;
+      else return mid;
+    }
+    return -(lo + 1);
+  }
+}
@@ -106,4 +106,12 @@ public class UniformRandomTransport implements Transport {
   public long getLatency(Node src, Node dest) {
     return (range == 1 ? min : min + CommonState.r.nextLong(range));
   }
+
+  /**
+   * Returns the smallest delay this transport can produce. The parallel engine uses it as the
+   * lookahead between partitions.
+   */
+  public long getMinDelay() {
+    return min;
+  }
 }
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.util;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import peersim.util.ColumnarTraceWriter.Type;
+
+/**
+ * Reads a trace written by {@link ColumnarTraceWriter}, through memory-mapped files: opening a
+ * trace only reads its columns and dictionaries, and values are read from the mapped files on
+ * demand.
+ *
+ * <p>Run with <code>java -cp target/classes peersim.util.ColumnarTraceReader dir</code> to print a
+ * trace as CSV.
+ */
+public class ColumnarTraceReader {
+
+  // ===================== fields ========================================
+  // =====================================================================
+
+  private final String[] columns;
+
+  private final Type[] types;
+
+  /** Fixed-width file of each column */
+  private final Mapped[] data;
+
+  /** Strings of the text columns */
+  private final Mapped[] text;
+
+  /** Values of the dict and node columns, by column */
+  private final List<List<String>> dictionaries;
+
+  private final long rows;
+
+  // ====================== initialization ==============================
+  // ====================================================================
+
+  /**
+   * Opens a trace.
+   *
+   * @param dir the directory of the trace
+   * @throws IOException if the trace cannot be read
+   */
+  public ColumnarTraceReader(File dir) throws IOException {
+    List<String> lines =
+        Files.readAllLines(new File(dir, ColumnarTraceWriter.COLUMNS_FILE).toPath());
+    int n = lines.size();
+    columns = new String[n];
+    types = new Type[n];
+    data = new Mapped[n];
+    text = new Mapped[n];
+    dictionaries = new ArrayList<List<String>>(n);
+    List<String> nodes = null;
+    long count = Long.MAX_VALUE;
+    for (int i = 0; i < n; i++) {
+      String[] parts = lines.get(i).split(" ");
+      if (parts.length != 2) throw new IOException("Invalid column: " + lines.get(i));
+      columns[i] = parts[0];
+      types[i] = Type.forTag(parts[1]);
+      List<String> dictionary = null;
+      switch (types[i]) {
+        case LONG:
+          data[i] = new Mapped(new File(dir, columns[i] + ".i64"));
+          break;
+        case DOUBLE:
+          data[i] = new Mapped(new File(dir, columns[i] + ".f64"));
+          break;
+        case DICT:
+          data[i] = new Mapped(new File(dir, columns[i] + ".i32"));
+          dictionary = readDictionary(new File(dir, columns[i] + ".dict"));
+          break;
+        case NODE:
+          data[i] = new Mapped(new File(dir, columns[i] + ".i32"));
+          if (nodes == null) nodes = readDictionary(new File(dir, ColumnarTraceWriter.NODES_FILE));
+          dictionary = nodes;
+          break;
+        case TEXT:
+          data[i] = new Mapped(new File(dir, columns[i] + ".off"));
+          text[i] = new Mapped(new File(dir, columns[i] + ".txt"));
+          break;
+      }
+      dictionaries.add(dictionary);
+      count = Math.min(count, data[i].size / width(types[i]));
+    }
+    rows = n == 0 ? 0 : count;
+  }
+
+  // ====================== methods =====================================
+  // ====================================================================
+
+  private static List<String> readDictionary(File file) throws IOException {
+    return Collections.unmodifiableList(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+  }
+
+  private static int width(Type type) {
+    return isCoded(type) ? 4 : 8;
+  }
+
+  private static boolean isCoded(Type type) {
+    return type == Type.DICT || type == Type.NODE;
+  }
+
+  /** Returns the number of rows of the trace. */
+  public long getRowCount() {
+    return rows;
+  }
+
+  /** Returns the names of the columns. */
+  public String[] getColumns() {
+    return columns.clone();
+  }
+
+  /**
+   * Returns the index of a column.
+   *
+   * @param name the name of the column
+   * @return the index of the column, or -1 if there is no such column
+   */
+  public int getColumnIndex(String name) {
+    for (int i = 0; i < columns.length; i++) if (columns[i].equals(name)) return i;
+    return -1;
+  }
+
+  /** Returns the type of a column. */
+  public Type getType(int column) {
+    return types[column];
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Returns a value of an i64 column.
+   *
+   * @return the value, or {@link ColumnarTraceWriter#NULL_LONG} if it is missing
+   */
+  public long getLong(int column, long row) {
+    check(column, row, Type.LONG);
+    return data[column].getLong(row * 8);
+  }
+
+  /**
+   * Returns a value of an f64 column.
+   *
+   * @return the value, or NaN if it is missing
+   */
+  public double getDouble(int column, long row) {
+    check(column, row, Type.DOUBLE);
+    return data[column].getDouble(row * 8);
+  }
+
+  /**
+   * Returns the code of a value of a dict or node column, i.e. its index in the dictionary. The
+   * code of a node is the same in all the node columns.
+   *
+   * @return the code, or -1 if the value is missing
+   */
+  public int getCode(int column, long row) {
+    if (!isCoded(types[column])) check(column, row, Type.DICT);
+    check(column, row, types[column]);
+    return data[column].getInt(row * 4);
+  }
+
+  /**
+   * Returns the distinct values of a dict or node column, indexed by their code.
+   *
+   * @return a read-only list of the values
+   */
+  public List<String> getDictionary(int column) {
+    if (!isCoded(types[column])) check(column, 0, Type.DICT);
+    return dictionaries.get(column);
+  }
+
+  /**
+   * Returns a value of a dict, node or text column.
+   *
+   * @return the value, or null if it is missing from a dict or node column
+   */
+  public String getString(int column, long row) {
+    if (isCoded(types[column])) {
+      int code = getCode(column, row);
+      return code < 0 ? null : dictionaries.get(column).get(code);
+    }
+    check(column, row, Type.TEXT);
+    long end = data[column].getLong(row * 8);
+    long start = row == 0 ? 0 : data[column].getLong((row - 1) * 8);
+    return new String(text[column].getBytes(start, (int) (end - start)), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns a value of any column.
+   *
+   * @return a Long, Double or String, or null if the value is missing
+   */
+  public Object get(int column, long row) {
+    switch (types[column]) {
+      case LONG:
+        long l = getLong(column, row);
+        return l == ColumnarTraceWriter.NULL_LONG ? null : Long.valueOf(l);
+      case DOUBLE:
+        double d = getDouble(column, row);
+        return Double.isNaN(d) ? null : Double.valueOf(d);
+      default:
+        return getString(column, row);
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  private void check(int column, long row, Type type) {
+    if (types[column] != type)
+      throw new IllegalArgumentException("Column " + columns[column] + " is " + types[column].tag);
+    if (row < 0 || row >= rows) throw new IndexOutOfBoundsException("Invalid row: " + row);
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Prints the trace as CSV.
+   *
+   * @param out the stream to print to
+   */
+  public void printCsv(PrintStream out) {
+    out.println(String.join(",", columns));
+    StringBuilder line = new StringBuilder();
+    for (long r = 0; r < rows; r++) {
+      line.setLength(0);
+      for (int c = 0; c < columns.length; c++) {
+        if (c > 0) line.append(',');
+        Object v = get(c, r);
+        if (v != null) line.append(v);
+      }
+      out.println(line);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: ColumnarTraceReader <trace directory>");
+      System.exit(1);
+    }
+    PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), false);
+    new ColumnarTraceReader(new File(args[0])).printCsv(out);
+    out.flush();
+  }
+
+  // ====================== mapped files ================================
+  // ====================================================================
+
+  /**
+   * A read-only file mapped in segments of {@value #SEGMENT} bytes, since a single mapping is
+   * limited to 2GB. Fixed-width values never straddle two segments.
+   */
+  private static class Mapped {
+
+    private static final int SEGMENT = 1 << 30;
+
+    final long size;
+
+    private final MappedByteBuffer[] segments;
+
+    Mapped(File file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        size = channel.size();
+        segments = new MappedByteBuffer[(int) ((size + SEGMENT - 1) / SEGMENT)];
+        for (int i = 0; i < segments.length; i++) {
+          long start = (long) i * SEGMENT;
+          segments[i] =
+              channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT, size - start));
+          segments[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+      }
+    }
+
+    long getLong(long pos) {
+      return segments[(int) (pos / SEGMENT)].getLong((int) (pos % SEGMENT));
+    }
+
+    double getDouble(long pos) {
+      return segments[(int) (pos / SEGMENT)].getDouble((int) (pos % SEGMENT));
+    }
+
+    int getInt(long pos) {
+      return segments[(int) (pos / SEGMENT)].getInt((int) (pos % SEGMENT));
+    }
+
+    byte[] getBytes(long pos, int length) {
+      byte[] bytes = new byte[length];
+      for (int done = 0; done < length; ) {
+        MappedByteBuffer segment = segments[(int) ((pos + done) / SEGMENT)];
+        int offset = (int) ((pos + done) % SEGMENT);
+        int n = Math.min(length - done, SEGMENT - offset);
+        segment.get(offset, bytes, done, n);
+        done += n;
+      }
+      return bytes;
+    }
+  }
+}
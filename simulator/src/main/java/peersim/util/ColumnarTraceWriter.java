@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Writes a trace in a binary columnar format, which can be memory-mapped instead of parsed.
+ *
+ * <p>A trace is a directory holding one file per column, plus <code>columns.txt</code> which lists
+ * the columns, one per line, as <code>name type</code>. All numbers are little-endian, and row
+ * <code>i</code> of the trace is entry <code>i</code> of every column. The types are:
+ *
+ * <ul>
+ *   <li><code>i64</code>: integers, in <code>name.i64</code> as 64-bit values; missing values are
+ *       {@value #NULL_LONG}.
+ *   <li><code>f64</code>: decimal numbers, in <code>name.f64</code> as 64-bit doubles; missing
+ *       values are NaN.
+ *   <li><code>dict</code>: strings with few distinct values, such as message types or node IDs.
+ *       <code>name.dict</code> lists the distinct values in UTF-8, one per line, in order of first
+ *       appearance; <code>name.i32</code> holds the 32-bit line number of the value of each row, or
+ *       -1 if it is missing.
+ *   <li><code>node</code>: node IDs. Like <code>dict</code>, with <code>name.i32</code> holding
+ *       line numbers, but the dictionary is <code>nodes.dict</code>, shared by all the node columns
+ *       of the trace. A node thus has the same code in every column, which is a node index.
+ *   <li><code>text</code>: other strings. <code>name.txt</code> holds the UTF-8 values one after
+ *       the other; <code>name.off</code> holds, as 64-bit values, the offset in bytes of the end of
+ *       each value, the start being the end of the previous one (0 for the first row). Missing
+ *       values are empty.
+ * </ul>
+ *
+ * <p>The number of rows is the size of a fixed-width file divided by its width. With numpy, a
+ * column is <code>np.memmap("messages/time.i64", dtype="&lt;i8", mode="r")</code>. Strings are
+ * written with line breaks replaced by spaces. The files are consistent once {@link #flush} or
+ * {@link #close} returns.
+ *
+ * @see ColumnarTraceReader
+ */
+public class ColumnarTraceWriter extends TraceWriter {
+
+  /** Value of missing integers */
+  public static final long NULL_LONG = Long.MIN_VALUE;
+
+  /** Name of the file describing the columns */
+  public static final String COLUMNS_FILE = "columns.txt";
+
+  /** Name of the dictionary of the node columns */
+  public static final String NODES_FILE = "nodes.dict";
+
+  /** Column types */
+  public enum Type {
+    /** 64-bit integers */
+    LONG("i64"),
+    /** 64-bit doubles */
+    DOUBLE("f64"),
+    /** Dictionary-encoded strings */
+    DICT("dict"),
+    /** Node IDs, encoded with the dictionary of all the node columns */
+    NODE("node"),
+    /** Variable-length strings */
+    TEXT("text");
+
+    /** Name of the type in the columns file */
+    public final String tag;
+
+    Type(String tag) {
+      this.tag = tag;
+    }
+
+    /**
+     * Returns the type with the given name in the columns file.
+     *
+     * @throws IllegalArgumentException if there is no such type
+     */
+    public static Type forTag(String tag) {
+      for (Type t : values()) if (t.tag.equals(tag)) return t;
+      throw new IllegalArgumentException("Unknown column type: " + tag);
+    }
+  }
+
+  private final Type[] types;
+
+  /** Fixed-width file of each column: values, dictionary codes or end offsets */
+  private final Output[] data;
+
+  /** Strings of the text columns */
+  private final Output[] strings;
+
+  /** Dictionary of the dict and node columns */
+  private final Dictionary[] dictionaries;
+
+  /** Size of the strings of the text columns */
+  private final long[] textSize;
+
+  /**
+   * Creates the directory and the files of the trace, and starts the writer thread. Files already
+   * in the directory are overwritten.
+   *
+   * @param dir the directory of the trace
+   * @param columns the names of the columns, which must be valid file names
+   * @param types the types of the columns
+   * @param capacity the maximum number of rows waiting to be written
+   * @throws IOException if the files cannot be created
+   */
+  public ColumnarTraceWriter(File dir, String[] columns, Type[] types, int capacity)
+      throws IOException {
+    super(dir.getName(), columns, capacity);
+    if (types.length != columns.length)
+      throw new IllegalArgumentException("Expected " + columns.length + " types");
+    this.types = types.clone();
+    if (!dir.isDirectory() && !dir.mkdirs())
+      throw new IOException("Cannot create directory " + dir);
+
+    try (PrintWriter out = new PrintWriter(new File(dir, COLUMNS_FILE), "UTF-8")) {
+      for (int i = 0; i < columns.length; i++) out.print(columns[i] + " " + types[i].tag + "\n");
+    }
+    data = new Output[columns.length];
+    strings = new Output[columns.length];
+    dictionaries = new Dictionary[columns.length];
+    textSize = new long[columns.length];
+    Dictionary nodes = null;
+    for (int i = 0; i < columns.length; i++) {
+      switch (types[i]) {
+        case LONG:
+          data[i] = new Output(new File(dir, columns[i] + ".i64"));
+          break;
+        case DOUBLE:
+          data[i] = new Output(new File(dir, columns[i] + ".f64"));
+          break;
+        case DICT:
+          data[i] = new Output(new File(dir, columns[i] + ".i32"));
+          dictionaries[i] = new Dictionary(new File(dir, columns[i] + ".dict"));
+          break;
+        case NODE:
+          data[i] = new Output(new File(dir, columns[i] + ".i32"));
+          if (nodes == null) nodes = new Dictionary(new File(dir, NODES_FILE));
+          dictionaries[i] = nodes;
+          break;
+        case TEXT:
+          data[i] = new Output(new File(dir, columns[i] + ".off"));
+          strings[i] = new Output(new File(dir, columns[i] + ".txt"));
+          break;
+      }
+    }
+    start();
+  }
+
+  protected void write(Object[] values) throws IOException {
+    for (int i = 0; i < values.length; i++) {
+      Object v = values[i];
+      switch (types[i]) {
+        case LONG:
+          data[i].putLong(v == null ? NULL_LONG : toLong(v));
+          break;
+        case DOUBLE:
+          data[i].putDouble(v == null ? Double.NaN : toDouble(v));
+          break;
+        case DICT:
+        case NODE:
+          data[i].putInt(v == null ? -1 : dictionaries[i].code(toString(v)));
+          break;
+        case TEXT:
+          if (v != null) {
+            byte[] bytes = toString(v).getBytes(StandardCharsets.UTF_8);
+            strings[i].put(bytes);
+            textSize[i] += bytes.length;
+          }
+          data[i].putLong(textSize[i]);
+          break;
+      }
+    }
+  }
+
+  private static long toLong(Object v) {
+    if (v instanceof Number) return ((Number) v).longValue();
+    if (v instanceof Boolean) return (Boolean) v ? 1 : 0;
+    return Long.parseLong(v.toString());
+  }
+
+  private static double toDouble(Object v) {
+    if (v instanceof Number) return ((Number) v).doubleValue();
+    return Double.parseDouble(v.toString());
+  }
+
+  private static String toString(Object v) {
+    String s = v.toString();
+    return s.indexOf('\n') < 0 && s.indexOf('\r') < 0 ? s : s.replace('\n', ' ').replace('\r', ' ');
+  }
+
+  protected void flushFiles() throws IOException {
+    for (int i = 0; i < columns.length; i++) {
+      // strings first, so that a reader never sees a code or offset before its string
+      if (strings[i] != null) strings[i].flush();
+      if (dictionaries[i] != null) dictionaries[i].file.flush();
+      data[i].flush();
+    }
+  }
+
+  protected void closeFiles() throws IOException {
+    flushFiles();
+    for (int i = 0; i < columns.length; i++) {
+      if (strings[i] != null) strings[i].close();
+      if (dictionaries[i] != null) dictionaries[i].file.close();
+      data[i].close();
+    }
+  }
+
+  /** The distinct values of dictionary-encoded columns, and the file listing them. */
+  private static class Dictionary {
+
+    private final HashMap<String, Integer> codes = new HashMap<>();
+
+    final Output file;
+
+    Dictionary(File file) throws IOException {
+      this.file = new Output(file);
+    }
+
+    /** Returns the code of a value, adding it to the dictionary if it is new. */
+    int code(String s) throws IOException {
+      Integer code = codes.get(s);
+      if (code == null) {
+        code = codes.size();
+        codes.put(s, code);
+        file.put((s + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+      return code;
+    }
+  }
+
+  /** A file written through a little-endian buffer. */
+  private static class Output {
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer =
+        ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+    Output(File file) throws IOException {
+      channel = new FileOutputStream(file).getChannel();
+    }
+
+    void putLong(long v) throws IOException {
+      if (buffer.remaining() < 8) flush();
+      buffer.putLong(v);
+    }
+
+    void putInt(int v) throws IOException {
+      if (buffer.remaining() < 4) flush();
+      buffer.putInt(v);
+    }
+
+    void putDouble(double v) throws IOException {
+      if (buffer.remaining() < 8) flush();
+      buffer.putDouble(v);
+    }
+
+    void put(byte[] bytes) throws IOException {
+      int done = 0;
+      while (done < bytes.length) {
+        if (!buffer.hasRemaining()) flush();
+        int n = Math.min(buffer.remaining(), bytes.length - done);
+        buffer.put(bytes, done, n);
+        done += n;
+      }
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) channel.write(buffer);
+      buffer.clear();
+    }
+
+    void close() throws IOException {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a trace as a CSV file, with a header line. Values are written with their <code>toString
+ * </code> method, and null values as empty fields.
+ */
+public class CsvTraceWriter extends TraceWriter {
+
+  private final Writer out;
+
+  /** The line being written */
+  private final StringBuilder line = new StringBuilder();
+
+  /**
+   * Creates the file, writes its header and starts the writer thread.
+   *
+   * @param file the file to write, which is overwritten
+   * @param columns the names of the columns
+   * @param capacity the maximum number of rows waiting to be written
+   * @throws IOException if the file cannot be created
+   */
+  public CsvTraceWriter(File file, String[] columns, int capacity) throws IOException {
+    super(file.getName(), columns, capacity);
+    out = new BufferedWriter(new FileWriter(file), 1 << 16);
+    out.write(String.join(",", columns));
+    out.write('\n');
+    start();
+  }
+
+  protected void write(Object[] values) throws IOException {
+    line.setLength(0);
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) line.append(',');
+      if (values[i] != null) line.append(values[i]);
+    }
+    line.append('\n');
+    out.append(line);
+  }
+
+  protected void flushFiles() throws IOException {
+    out.flush();
+  }
+
+  protected void closeFiles() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.util;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative integer values, such as latencies or hop counts, that answers
+ * percentile queries in fixed memory.
+ *
+ * <p>Buckets are log-linear, as in HdrHistogram: values below <code>2^precision</code> have a
+ * bucket each, and every larger power-of-two range is split into <code>2^(precision-1)</code>
+ * buckets of equal width. A percentile is thus reported with a relative error below <code>
+ * 2^-(precision-1)</code>, whatever the range of the values. Count, minimum, maximum and average
+ * are exact. Two histograms with the same precision can be merged.
+ */
+public class Histogram {
+
+  // ===================== fields ========================================
+  // =====================================================================
+
+  /** Number of bits of the values kept by the buckets */
+  private final int precision;
+
+  /** Number of buckets per power-of-two range, <code>2^(precision-1)</code> */
+  private final int half;
+
+  private final long[] counts;
+
+  private long n;
+
+  private long min;
+
+  private long max;
+
+  private double sum;
+
+  // ====================== initialization ==============================
+  // ====================================================================
+
+  /** Creates a histogram with a precision of 8 bits, i.e. a relative error below 1%. */
+  public Histogram() {
+    this(8);
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Creates a histogram. It uses <code>(65 - precision) * 2^(precision-1)</code> counters, e.g.
+   * 7296 for a precision of 8 bits.
+   *
+   * @param precision the number of bits of the values kept by the buckets, between 1 and 20
+   */
+  public Histogram(int precision) {
+    if (precision < 1 || precision > 20)
+      throw new IllegalArgumentException("Invalid precision: " + precision);
+    this.precision = precision;
+    this.half = 1 << (precision - 1);
+    this.counts = new long[index(Long.MAX_VALUE) + 1];
+    reset();
+  }
+
+  // --------------------------------------------------------------------
+
+  /** Removes all the values. */
+  public void reset() {
+    Arrays.fill(counts, 0);
+    n = 0;
+    min = Long.MAX_VALUE;
+    max = Long.MIN_VALUE;
+    sum = 0.0;
+  }
+
+  // ======================== methods ===================================
+  // ====================================================================
+
+  /** Returns the bucket of a value. */
+  private int index(long value) {
+    if (value < 2 * half) return (int) value;
+    int shift = 64 - Long.numberOfLeadingZeros(value) - precision;
+    return shift * half + (int) (value >>> shift);
+  }
+
+  // --------------------------------------------------------------------
+
+  /** Returns the largest value of a bucket. */
+  private long highestValue(int index) {
+    if (index < 2 * half) return index;
+    int shift = index / half - 1;
+    long top = index % half + half;
+    return ((top + 1) << shift) - 1;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Adds a value.
+   *
+   * @param value the value, which must not be negative
+   */
+  public void add(long value) {
+    add(value, 1);
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Adds a value <code>k</code> times.
+   *
+   * @param value the value, which must not be negative
+   * @param k the number of times the value is added
+   */
+  public void add(long value, long k) {
+    if (value < 0) throw new IllegalArgumentException("Negative value: " + value);
+    counts[index(value)] += k;
+    n += k;
+    sum += (double) value * k;
+    if (value < min) min = value;
+    if (value > max) max = value;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Adds all the values of another histogram.
+   *
+   * @param other a histogram with the same precision
+   */
+  public void add(Histogram other) {
+    if (other.precision != precision)
+      throw new IllegalArgumentException("Cannot merge histograms of different precisions");
+    for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+    n += other.n;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  // --------------------------------------------------------------------
+
+  /** The number of values added so far */
+  public long getN() {
+    return n;
+  }
+
+  // --------------------------------------------------------------------
+
+  /** The minimum of the values, or 0 if there is none */
+  public long getMin() {
+    return n == 0 ? 0 : min;
+  }
+
+  // --------------------------------------------------------------------
+
+  /** The maximum of the values, or 0 if there is none */
+  public long getMax() {
+    return n == 0 ? 0 : max;
+  }
+
+  // --------------------------------------------------------------------
+
+  /** The average of the values, or NaN if there is none */
+  public double getAverage() {
+    return sum / n;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Returns a percentile of the values: the smallest value such that at least the given percentage
+   * of the values are lower or equal, up to the precision of the buckets.
+   *
+   * @param percent the percentage, between 0 and 100
+   * @return the percentile, or 0 if there is no value
+   */
+  public long getPercentile(double percent) {
+    if (n == 0) return 0;
+    long rank = Math.max(1, (long) Math.ceil(percent / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) return Math.max(min, Math.min(max, highestValue(i)));
+    }
+    return max;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Returns the number of values lower or equal to a bound, e.g. the operations that met a
+   * deadline, up to the precision of the buckets: values in the bucket of the bound are counted.
+   */
+  public long getCountAtOrBelow(long bound) {
+    if (bound < 0) return 0;
+    int last = index(bound);
+    long count = 0;
+    for (int i = 0; i <= last; i++) count += counts[i];
+    return count;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Prints the following quantities separated by spaces in a single line in this order. Number of
+   * values, minimum, 50th, 95th and 99th percentiles, maximum, average.
+   */
+  public String toString() {
+    return n
+        + " "
+        + getMin()
+        + " "
+        + getPercentile(50)
+        + " "
+        + getPercentile(95)
+        + " "
+        + getPercentile(99)
+        + " "
+        + getMax()
+        + " "
+        + getAverage();
+  }
+}
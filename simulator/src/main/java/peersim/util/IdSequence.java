@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import peersim.core.CommonState;
+
+/**
+ * A generator of unique identifiers, meant to be kept in a static field (e.g. message or operation
+ * ids). In sequential runs it simply counts 0, 1, 2, ... While a parallel engine is running, each
+ * partition (see {@link CommonState#getPartition}) draws from its own interleaved sub-sequence, so
+ * that identifiers stay unique and do not depend on thread scheduling.
+ */
+public class IdSequence {
+
+  // ===================== fields ========================================
+  // =====================================================================
+
+  /** All the sequences created so far */
+  private static final List<IdSequence> all = new ArrayList<>();
+
+  /** Number of partitions currently in use, 0 in sequential runs */
+  private static int partitions = 0;
+
+  /** Next identifier of the sequential sequence */
+  private long next;
+
+  /** First identifier of the partitioned sub-sequences */
+  private long base;
+
+  /** Identifiers drawn so far by each partition, null in sequential runs */
+  private long[] counters = null;
+
+  // ====================== initialization ==============================
+  // ====================================================================
+
+  /** Creates a sequence starting at 0. */
+  public IdSequence() {
+    this(0);
+  }
+
+  // --------------------------------------------------------------------
+
+  /** Creates a sequence starting at the given value. */
+  public IdSequence(long first) {
+    next = first;
+    synchronized (all) {
+      all.add(this);
+      if (partitions > 0) split(partitions);
+    }
+  }
+
+  // ====================== methods =====================================
+  // ====================================================================
+
+  /** Returns the next identifier of the calling thread. */
+  public long next() {
+    int p = CommonState.getPartition();
+    if (p < 0 || counters == null) return next++;
+    return base + (counters[p]++) * counters.length + p;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Makes every sequence serve the given number of partitions, numbered from 0. A value of 0 goes
+   * back to sequential counting, continuing after the largest identifier drawn by any partition.
+   * Must be called while no other simulation thread is running.
+   */
+  public static void setPartitions(int n) {
+    synchronized (all) {
+      partitions = n;
+      for (IdSequence s : all) {
+        if (n > 0) s.split(n);
+        else s.join();
+      }
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  private void split(int n) {
+    join();
+    base = next;
+    counters = new long[n];
+  }
+
+  // --------------------------------------------------------------------
+
+  private void join() {
+    if (counters == null) return;
+    long max = 0;
+    for (long c : counters) max = Math.max(max, c);
+    next = base + max * counters.length;
+    counters = null;
+  }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import peersim.core.CommonState;
+
+/**
+ * Writes a trace, a table with a fixed set of columns, while the simulation runs.
+ *
+ * <p>Rows are handed over to a background thread through a bounded buffer, and written in the order
+ * they are added. Formatting and disk writes thus happen outside of the simulation, and the memory
+ * used by a trace does not depend on its length: when the buffer is full, {@link #add} waits for
+ * the writer to catch up.
+ *
+ * <p>While a parallel engine is running, the rows added by each partition (see {@link
+ * CommonState#getPartition}) are kept apart, and handed over by {@link #mergePartitions} in
+ * partition order, so that their order does not depend on thread scheduling.
+ *
+ * <p>Subclasses implement the file format. Their constructors must call {@link #start} once their
+ * files are open.
+ *
+ * @see CsvTraceWriter
+ * @see ColumnarTraceWriter
+ */
+public abstract class TraceWriter {
+
+  // ===================== fields ========================================
+  // =====================================================================
+
+  /** How often a thread waiting for a flush checks that the writer is still running, in ms */
+  private static final long AWAIT_CHECK_MS = 100;
+
+  /** Marks the end of the rows, in the buffer */
+  private static final Object[] CLOSE = new Object[0];
+
+  /** All the writers created so far, removed when closed */
+  private static final List<TraceWriter> all = new ArrayList<>();
+
+  /** Number of partitions currently in use, 0 in sequential runs */
+  private static int partitions = 0;
+
+  /** The columns of the trace */
+  protected final String[] columns;
+
+  /** Rows waiting to be written, or flush requests (as latches) */
+  private final BlockingQueue<Object> buffer;
+
+  /** The name of the writer thread */
+  private final String name;
+
+  /** The thread writing the files, null until started */
+  private Thread thread = null;
+
+  /** The first error met by the writer thread, if any */
+  private volatile IOException error = null;
+
+  /** Rows added by each partition since the last merge, null in sequential runs */
+  private List<Row>[] pending = null;
+
+  /** Keys of the rows added by {@link #addOnce} so far */
+  private final Set<Object> keys = new HashSet<>();
+
+  // ====================== initialization ==============================
+  // ====================================================================
+
+  /**
+   * Initializes the buffer of the writer.
+   *
+   * @param name the name of the trace, used to name the writer thread
+   * @param columns the names of the columns
+   * @param capacity the maximum number of rows waiting to be written
+   */
+  protected TraceWriter(String name, String[] columns, int capacity) {
+    this.name = name;
+    this.columns = columns.clone();
+    this.buffer = new ArrayBlockingQueue<>(capacity);
+  }
+
+  // --------------------------------------------------------------------
+
+  /** Starts the writer thread. */
+  protected void start() {
+    thread = new Thread(this::run, "trace " + name);
+    thread.setDaemon(true);
+    thread.start();
+    synchronized (all) {
+      all.add(this);
+      if (partitions > 0) split(partitions);
+    }
+  }
+
+  // ====================== methods =====================================
+  // ====================================================================
+
+  /**
+   * Writes a row to the files. Called by the writer thread only.
+   *
+   * @param values the values of the row, one per column, possibly null
+   */
+  protected abstract void write(Object[] values) throws IOException;
+
+  /** Flushes the files. Called by the writer thread only. */
+  protected abstract void flushFiles() throws IOException;
+
+  /** Closes the files. Called by the writer thread only. */
+  protected abstract void closeFiles() throws IOException;
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Adds a row, given as its values in the order of the columns. Null values stand for missing
+   * fields. The values must not be modified afterwards, since they are formatted later.
+   *
+   * @param values the values, one per column
+   */
+  public void add(Object... values) {
+    if (values.length != columns.length)
+      throw new IllegalArgumentException(
+          "Expected " + columns.length + " values, got " + values.length);
+    addRow(null, values);
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Adds a row, given as a map from column names to values. Missing columns are null, and keys that
+   * are not columns are ignored.
+   *
+   * @param row the values, by column
+   */
+  public void add(Map<String, Object> row) {
+    Object[] values = new Object[columns.length];
+    for (int i = 0; i < columns.length; i++) values[i] = row.get(columns[i]);
+    addRow(null, values);
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Adds a row, given as its values in the order of the columns, unless a row was added before with
+   * the same key. With a parallel engine, the row that is kept is the first one in the order of
+   * {@link #mergePartitions}.
+   *
+   * @param key the key of the row
+   * @param values the values, one per column
+   */
+  public void addOnce(Object key, Object... values) {
+    if (key == null) throw new NullPointerException("No key given for the row");
+    if (values.length != columns.length)
+      throw new IllegalArgumentException(
+          "Expected " + columns.length + " values, got " + values.length);
+    addRow(key, values);
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Waits until the rows added so far are written to the files. Returns at once if the writer
+   * thread is not running.
+   */
+  public void flush() {
+    if (thread == null || !thread.isAlive()) return;
+    CountDownLatch done = new CountDownLatch(1);
+    if (put(done)) await(done);
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Writes the remaining rows and closes the files. No row can be added afterwards. Must not be
+   * called while a parallel engine is running.
+   */
+  public void close() {
+    synchronized (all) {
+      all.remove(this);
+      join();
+    }
+    if (thread == null || !thread.isAlive()) return;
+    put(CLOSE);
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Makes every writer keep the rows of the given number of partitions apart, numbered from 0; rows
+   * added by other threads, e.g. between windows, are queued at once. A value of 0 merges the rows
+   * left and goes back to queueing every row at once. Must be called while no other simulation
+   * thread is running.
+   */
+  public static void setPartitions(int n) {
+    synchronized (all) {
+      partitions = n;
+      for (TraceWriter w : all) {
+        if (n > 0) w.split(n);
+        else w.join();
+      }
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Queues the rows added by the partitions since the last merge, those of partition 0 first. Must
+   * be called while no other simulation thread is running, typically at the end of each window.
+   */
+  public static void mergePartitions() {
+    synchronized (all) {
+      for (TraceWriter w : all) w.merge();
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  /** Keeps the row apart if the calling thread runs a partition, or queues it. */
+  private void addRow(Object key, Object[] values) {
+    List<Row>[] rows = pending;
+    int p = CommonState.getPartition();
+    if (rows != null && p >= 0 && p < rows.length) rows[p].add(new Row(key, values));
+    else queue(key, values);
+  }
+
+  // --------------------------------------------------------------------
+
+  /** Queues a row, unless its key was seen before. */
+  private void queue(Object key, Object[] values) {
+    if (key != null) {
+      synchronized (keys) {
+        if (!keys.add(key)) return;
+      }
+    }
+    put(values);
+  }
+
+  // --------------------------------------------------------------------
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private void split(int n) {
+    join();
+    pending = new List[n];
+    for (int i = 0; i < n; i++) pending[i] = new ArrayList<>();
+  }
+
+  // --------------------------------------------------------------------
+
+  private void merge() {
+    if (pending == null) return;
+    for (List<Row> rows : pending) {
+      for (Row row : rows) queue(row.key, row.values);
+      rows.clear();
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  private void join() {
+    merge();
+    pending = null;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Queues a row or a request. Once the writer failed, rows are dropped, but flush and close
+   * requests are still queued, for the draining thread to release them.
+   */
+  private boolean put(Object o) {
+    if (error != null && o instanceof Object[] && o != CLOSE) return false;
+    try {
+      buffer.put(o);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  /** Waits for a flush request to be released, or for the writer thread to exit. */
+  private void await(CountDownLatch latch) {
+    try {
+      while (!latch.await(AWAIT_CHECK_MS, TimeUnit.MILLISECONDS)) {
+        if (!thread.isAlive()) return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  /** Body of the writer thread. */
+  private void run() {
+    boolean closing = false;
+    try {
+      while (true) {
+        Object o = buffer.take();
+        if (o == CLOSE) {
+          closing = true;
+          break;
+        }
+        if (o instanceof CountDownLatch) {
+          flushFiles();
+          ((CountDownLatch) o).countDown();
+          continue;
+        }
+        write((Object[]) o);
+      }
+      closeFiles();
+    } catch (IOException e) {
+      error = e;
+      e.printStackTrace();
+      // keep draining until closed, so that producers never block on a dead writer
+      if (!closing) drain();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      release();
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  private void drain() {
+    try {
+      while (true) {
+        Object o = buffer.take();
+        if (o == CLOSE) return;
+        if (o instanceof CountDownLatch) ((CountDownLatch) o).countDown();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  /** Releases the flush requests left in the buffer when the writer thread exits. */
+  private void release() {
+    Object o;
+    while ((o = buffer.poll()) != null) {
+      if (o instanceof CountDownLatch) ((CountDownLatch) o).countDown();
+    }
+  }
+
+  // ===================== inner classes =================================
+  // =====================================================================
+
+  /** A row kept apart until its partition is merged. */
+  private static final class Row {
+
+    private final Object key;
+
+    private final Object[] values;
+
+    private Row(Object key, Object[] values) {
+      this.key = key;
+      this.values = values;
+    }
+  }
+}
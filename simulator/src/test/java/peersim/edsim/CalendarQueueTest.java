@@ -0,0 +1,112 @@
+package peersim.edsim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+
+public class CalendarQueueTest {
+
+  @BeforeAll
+  public static void configure() {
+    try {
+      Configuration.setConfig(new Properties());
+    } catch (RuntimeException e) {
+      // already set by another test of the same run
+    }
+  }
+
+  /** An event of the reference model */
+  private static class Entry implements Comparable<Entry> {
+    final long key;
+    final long seq;
+    final Object event = new Object();
+
+    Entry(long key, long seq) {
+      this.key = key;
+      this.seq = seq;
+    }
+
+    public int compareTo(Entry o) {
+      int c = Long.compare(key, o.key);
+      return c != 0 ? c : Long.compare(seq, o.seq);
+    }
+  }
+
+  /**
+   * Compares the queue with a sorted model, over clustered and spread out times, so that the
+   * calendar is resized and re-estimates its bucket width many times. Events of the same time and
+   * priority come out in insertion order.
+   */
+  @Test
+  public void matchesASortedModel() {
+    Random r = new Random(11);
+    CalendarQueue queue = new CalendarQueue();
+    PriorityQueue<Entry> model = new PriorityQueue<>();
+    long now = 0;
+    long seq = 0;
+    for (int step = 0; step < 200000; step++) {
+      // grow and shrink the queue in phases
+      boolean grow = (step / 20000) % 2 == 0 ? r.nextInt(10) < 7 : r.nextInt(10) < 3;
+      if (grow || model.isEmpty()) {
+        long time;
+        switch (r.nextInt(4)) {
+          case 0:
+            time = now;
+            break;
+          case 1:
+            time = now + r.nextInt(10);
+            break;
+          case 2:
+            time = now + r.nextInt(100000);
+            break;
+          default:
+            time = now + (long) r.nextInt(1000) * 1000000;
+        }
+        long priority = r.nextInt(4);
+        Entry e = new Entry((time << 8) | priority, seq++);
+        queue.add(time, e.event, null, (byte) 0, priority);
+        model.add(e);
+      } else {
+        Entry e = model.poll();
+        assertEquals(e.key >> 8, queue.firstTime());
+        PriorityQ.Event ev = queue.removeFirst();
+        assertSame(e.event, ev.event);
+        assertEquals(e.key >> 8, ev.time);
+        now = ev.time;
+      }
+      assertEquals(model.size(), queue.size());
+    }
+    while (!model.isEmpty()) assertSame(model.poll().event, queue.removeFirst().event);
+    assertNull(queue.removeFirst());
+    assertEquals(Long.MAX_VALUE, queue.firstTime());
+  }
+
+  /** Checks that, with random priorities, seeded runs execute events at the same times as Heap. */
+  @Test
+  public void drawsPrioritiesLikeHeap() {
+    Random r = new Random(5);
+    long[] times = new long[10000];
+    for (int i = 0; i < times.length; i++) times[i] = r.nextInt(500);
+
+    CommonState.r.setSeed(1);
+    Heap heap = new Heap();
+    for (long t : times) heap.add(t, null, null, (byte) 0);
+    long[] fromHeap = new long[times.length];
+    for (int i = 0; i < times.length; i++) fromHeap[i] = heap.removeFirst().time;
+    long next = CommonState.r.nextLong();
+
+    CommonState.r.setSeed(1);
+    CalendarQueue queue = new CalendarQueue();
+    for (long t : times) queue.add(t, null, null, (byte) 0);
+    for (int i = 0; i < times.length; i++) assertEquals(fromHeap[i], queue.removeFirst().time);
+    assertEquals(next, CommonState.r.nextLong());
+  }
+}
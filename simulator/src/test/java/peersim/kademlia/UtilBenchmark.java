@@ -0,0 +1,130 @@
+package peersim.kademlia;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of the distance utilities of {@link Util}, against the string-based implementation
+ * they replaced. Each operation works on the next pair of a set of random IDs, every other one
+ * sharing a long prefix with the previous one. Run with
+ *
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test \
+ *     -Dexec.args="-cp %classpath org.openjdk.jmh.Main UtilBenchmark"
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+
+  /** Number of IDs */
+  @Param({"10000"})
+  public int ids;
+
+  private BigInteger[] big;
+
+  private NodeId[] nodeIds;
+
+  /** K IDs, for the minimum common prefix length with a set */
+  private List<NodeId> set;
+
+  /** Index of the next ID */
+  private int i = 0;
+
+  @Setup
+  public void setup() {
+    Random r = new Random(42);
+    big = new BigInteger[ids + 1];
+    nodeIds = new NodeId[ids + 1];
+    for (int j = 0; j <= ids; j++) {
+      big[j] =
+          j % 2 == 1
+              ? big[j - 1].flipBit(r.nextInt(KademliaCommonConfig.BITS / 2))
+              : new BigInteger(KademliaCommonConfig.BITS, r);
+      nodeIds[j] = NodeId.valueOf(big[j]);
+    }
+    set = new ArrayList<>();
+    for (int j = 0; j < KademliaCommonConfig.K; j++) set.add(nodeIds[r.nextInt(ids)]);
+  }
+
+  private int next() {
+    if (++i == ids) i = 0;
+    return i;
+  }
+
+  @Benchmark
+  public int prefixLenPut0Strings() {
+    int j = next();
+    return legacyPrefixLen(big[j], big[j + 1]);
+  }
+
+  @Benchmark
+  public int prefixLenBigIntegerBits() {
+    int j = next();
+    return Util.prefixLen(big[j], big[j + 1]);
+  }
+
+  @Benchmark
+  public int prefixLenNodeIdWords() {
+    int j = next();
+    return Util.prefixLen(nodeIds[j], nodeIds[j + 1]);
+  }
+
+  @Benchmark
+  public int bucketIndexNodeId() {
+    int j = next();
+    return Util.bucketIndex(nodeIds[j], nodeIds[j + 1], 16);
+  }
+
+  @Benchmark
+  public NodeId flipBitNodeId() {
+    int j = next();
+    return Util.flipBit(nodeIds[j], j & 255);
+  }
+
+  @Benchmark
+  public int minCplWithSetNodeId() {
+    return Util.getMinCplWithSet(nodeIds[next()], set);
+  }
+
+  @Benchmark
+  public int comparePut0Strings() {
+    int j = next();
+    return Util.put0(big[j]).compareTo(Util.put0(big[j + 1]));
+  }
+
+  @Benchmark
+  public int compareNodeId() {
+    int j = next();
+    return nodeIds[j].compareTo(nodeIds[j + 1]);
+  }
+
+  /** The former implementation of {@link Util#prefixLen(BigInteger, BigInteger)} */
+  private static int legacyPrefixLen(BigInteger b1, BigInteger b2) {
+    String s1 = Util.put0(b1);
+    String s2 = Util.put0(b2);
+    int i = 0;
+    for (i = 0; i < s1.length(); i++) {
+      if (s1.charAt(i) != s2.charAt(i)) return i;
+    }
+    return i;
+  }
+}
@@ -0,0 +1,76 @@
+package peersim.kademlia.das;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+public class KeyIndexTest {
+
+  private static BigInteger key(long v) {
+    return BigInteger.valueOf(v);
+  }
+
+  @Test
+  public void rangesAreSnapshots() {
+    KeyIndex index = new KeyIndex();
+    index.addAll(new BigInteger[] {key(1), key(3), key(5)});
+    List<BigInteger> before = index.subList(key(0), key(10));
+    index.add(key(4));
+    index.remove(key(3));
+    List<BigInteger> after = index.subList(key(0), key(10));
+    assertEquals(List.of(key(1), key(3), key(5)), before);
+    assertEquals(List.of(key(1), key(4), key(5)), after);
+    index.remove(key(1));
+    assertEquals(List.of(key(1), key(4), key(5)), after);
+  }
+
+  @Test
+  public void rejectsKeysOutOfTheKeyspace() {
+    KeyIndex index = new KeyIndex();
+    assertThrows(IllegalArgumentException.class, () -> index.add(key(-1)));
+  }
+
+  @Test
+  public void matchesATreeSet() {
+    Random r = new Random(7);
+    // a wide keyspace, so that keys span several words, crowded in ranges to get collisions
+    BigInteger base = BigInteger.ONE.shiftLeft(100);
+    KeyIndex index = new KeyIndex();
+    TreeSet<BigInteger> set = new TreeSet<>();
+    for (int step = 0; step < 20000; step++) {
+      BigInteger k = base.add(key(r.nextInt(2000)));
+      int op = r.nextInt(100);
+      if (op < 45) {
+        index.add(k);
+        set.add(k);
+      } else if (op < 80) {
+        assertEquals(set.remove(k), index.remove(k));
+      } else if (op < 82) {
+        BigInteger[] keys = new BigInteger[r.nextInt(50)];
+        for (int i = 0; i < keys.length; i++) keys[i] = base.add(key(r.nextInt(2000)));
+        index.addAll(keys);
+        for (BigInteger key : keys) set.add(key);
+      } else if (op < 84) {
+        List<BigInteger> keys = new ArrayList<>();
+        for (int i = r.nextInt(50); i > 0; i--) keys.add(base.add(key(r.nextInt(2000))));
+        index.removeAll(keys);
+        set.removeAll(keys);
+      } else if (op < 85) {
+        assertEquals(new ArrayList<>(set), index.keys());
+      } else {
+        BigInteger bottom = base.add(key(r.nextInt(2100) - 50));
+        BigInteger top = bottom.add(key(r.nextInt(200)));
+        assertEquals(
+            new ArrayList<>(set.subSet(bottom, true, top, true)), index.subList(bottom, top));
+      }
+      assertEquals(set.size(), index.size());
+      assertEquals(set.contains(k), index.contains(k));
+    }
+  }
+}
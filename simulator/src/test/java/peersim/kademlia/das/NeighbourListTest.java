@@ -0,0 +1,93 @@
+package peersim.kademlia.das;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+
+public class NeighbourListTest {
+
+  @BeforeAll
+  public static void configure() {
+    try {
+      Configuration.setConfig(new Properties());
+    } catch (RuntimeException e) {
+      // already set by another test of the same run
+    }
+  }
+
+  /**
+   * Checks the list against the last seen times of a model, under random adds, touches, removals
+   * and expiries: the list must hold the same neighbours, from the most to the least recently seen.
+   */
+  @Test
+  public void staysOrderedByLastSeen() {
+    Random r = new Random(9);
+    long ttl = KademliaCommonConfigDas.TTL;
+    NeighbourList list = new NeighbourList();
+    Map<BigInteger, Long> model = new HashMap<>();
+    long now = 0;
+    for (int step = 0; step < 20000; step++) {
+      now += r.nextInt((int) (ttl / 50));
+      CommonState.setTime(now);
+      BigInteger id = BigInteger.valueOf(r.nextInt(300));
+      int op = r.nextInt(10);
+      if (op < 4) {
+        if (list.contains(id)) continue;
+        Neighbour n = new Neighbour(id, null, false);
+        // neighbours handed over by other nodes may have been seen a while ago
+        if (r.nextBoolean()) n.updateLastSeen(now - r.nextInt((int) ttl));
+        list.add(n);
+        model.put(id, n.getLastSeen());
+      } else if (op < 7) {
+        Neighbour n = list.get(id);
+        if (n == null) continue;
+        long time = r.nextBoolean() ? now : now - r.nextInt((int) ttl);
+        list.touch(n, time);
+        model.put(id, Math.max(model.get(id), time));
+      } else if (op < 8) {
+        Neighbour n = list.remove(id);
+        Long last = model.remove(id);
+        if (last == null) assertNull(n);
+        else assertEquals(id, n.getId());
+      } else if (op < 9) {
+        List<BigInteger> removed = list.removeExpired();
+        List<BigInteger> expected = new ArrayList<>();
+        for (Map.Entry<BigInteger, Long> e : model.entrySet())
+          if (now - e.getValue() >= ttl) expected.add(e.getKey());
+        assertEquals(expected.size(), removed.size());
+        for (BigInteger gone : removed) assertTrue(expected.contains(gone));
+        for (BigInteger gone : removed) model.remove(gone);
+      } else {
+        Neighbour[] recent = list.mostRecent(10);
+        List<Long> times = new ArrayList<>(model.values());
+        times.sort((a, b) -> Long.compare(b, a));
+        assertEquals(Math.min(10, times.size()), recent.length);
+        for (int i = 0; i < recent.length; i++) {
+          assertEquals(times.get(i).longValue(), recent[i].getLastSeen());
+          assertTrue(recent[i] != list.get(recent[i].getId()));
+        }
+      }
+      assertEquals(model.size(), list.size());
+      for (Map.Entry<BigInteger, Long> e : model.entrySet()) {
+        Neighbour n = list.get(e.getKey());
+        assertEquals(e.getValue().longValue(), n.getLastSeen());
+      }
+      Neighbour[] all = list.mostRecent(Integer.MAX_VALUE);
+      for (int i = 1; i < all.length; i++)
+        assertTrue(all[i - 1].getLastSeen() >= all[i].getLastSeen());
+      for (Neighbour n : all) assertTrue(list.contains(n.getId()));
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package peersim.kademlia.das.operations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class RatingHeapTest {
+
+  @Test
+  public void pollsNodesOfTheSameRatingInOrderOfFirstAddition() {
+    RatingHeap heap = new RatingHeap(1);
+    Node a = new Node(BigInteger.ONE);
+    Node b = new Node(BigInteger.TWO);
+    Node c = new Node(BigInteger.TEN);
+    heap.add(a, 1);
+    heap.add(b, 2);
+    heap.add(c, 1);
+    assertSame(b, heap.poll());
+    assertSame(a, heap.poll());
+    heap.restore(a);
+    assertSame(a, heap.poll());
+    assertSame(c, heap.poll());
+    assertNull(heap.poll());
+    assertTrue(heap.isEmpty());
+  }
+
+  /** Compares the heap with a stable sort of the nodes by decreasing rating. */
+  @Test
+  public void matchesAStableSort() {
+    Random r = new Random(3);
+    for (int round = 0; round < 100; round++) {
+      RatingHeap heap = new RatingHeap(r.nextInt(4));
+      List<Node> all = new ArrayList<>();
+      for (int i = 0; i < 40; i++) all.add(new Node(BigInteger.valueOf(i)));
+      // the model: the rating of the nodes in the heap, and the order they first entered it
+      Map<Node, Double> in = new HashMap<>();
+      Map<Node, Double> polled = new HashMap<>();
+      Map<Node, Integer> order = new HashMap<>();
+      for (int step = 0; step < 300; step++) {
+        Node n = all.get(r.nextInt(all.size()));
+        double rating = r.nextInt(5);
+        switch (r.nextInt(4)) {
+          case 0:
+            if (in.containsKey(n)) break;
+            heap.add(n, rating);
+            in.put(n, rating);
+            polled.remove(n);
+            order.putIfAbsent(n, order.size());
+            break;
+          case 1:
+            heap.update(n, rating);
+            if (in.containsKey(n)) in.put(n, rating);
+            break;
+          case 2:
+            if (!polled.containsKey(n)) break;
+            heap.restore(n);
+            in.put(n, polled.remove(n));
+            break;
+          default:
+            Node expected =
+                in.keySet().stream()
+                    .min(
+                        Comparator.comparing((Node m) -> -in.get(m))
+                            .thenComparing(m -> order.get(m)))
+                    .orElse(null);
+            assertSame(expected, heap.poll());
+            if (expected != null) polled.put(expected, in.remove(expected));
+        }
+        assertEquals(in.size(), heap.size());
+        for (Node m : all) {
+          if (in.containsKey(m)) assertTrue(heap.contains(m));
+          else assertFalse(heap.contains(m));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package peersim.kademlia.operations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import peersim.kademlia.NodeId;
+
+public class ShortlistTest {
+
+  private static NodeId id(long w3) {
+    return new NodeId(0, 0, 0, w3);
+  }
+
+  @Test
+  public void keepsTheClosestNodesInOrder() {
+    Shortlist s = new Shortlist(NodeId.ZERO, 3);
+    assertTrue(s.add(id(5)));
+    assertTrue(s.add(id(1)));
+    assertTrue(s.add(id(3)));
+    assertFalse(s.add(id(3)));
+    assertFalse(s.add(id(7)));
+    assertTrue(s.add(id(2)));
+    assertEquals(List.of(id(1), id(2), id(3)), s.getNodes());
+  }
+
+  @Test
+  public void removingTheNextNodeSkipsQueriedNodes() {
+    Shortlist s = new Shortlist(NodeId.ZERO, 4);
+    s.add(id(2));
+    s.add(id(3));
+    assertEquals(id(2), s.nextToQuery());
+    s.add(id(1));
+    // 1 is next, 2 is queried, 3 is not
+    assertTrue(s.remove(id(1)));
+    assertEquals(id(3), s.nextToQuery());
+    assertNull(s.nextToQuery());
+  }
+
+  @Test
+  public void matchesAReferenceModel() {
+    Random r = new Random(42);
+    for (int round = 0; round < 200; round++) {
+      NodeId target = id(r.nextInt(64));
+      int capacity = 1 + r.nextInt(8);
+      Shortlist s = new Shortlist(target, capacity);
+      List<NodeId> nodes = new ArrayList<>();
+      Set<NodeId> queried = new HashSet<>();
+      for (int step = 0; step < 100; step++) {
+        NodeId n = id(r.nextInt(64));
+        switch (r.nextInt(3)) {
+          case 0:
+            {
+              boolean expected = !nodes.contains(n);
+              if (expected) {
+                nodes.add(n);
+                nodes.sort((a, b) -> target.xorCompare(a, b));
+                if (nodes.size() > capacity) {
+                  NodeId dropped = nodes.remove(capacity);
+                  queried.remove(dropped);
+                  expected = !dropped.equals(n);
+                }
+              }
+              assertEquals(expected, s.add(n));
+              break;
+            }
+          case 1:
+            assertEquals(nodes.remove(n), s.remove(n));
+            queried.remove(n);
+            break;
+          default:
+            {
+              NodeId expected = null;
+              for (NodeId m : nodes) {
+                if (!queried.contains(m)) {
+                  expected = m;
+                  break;
+                }
+              }
+              if (expected != null) queried.add(expected);
+              assertEquals(expected, s.nextToQuery());
+            }
+        }
+        assertEquals(nodes, s.getNodes());
+        for (NodeId m : nodes) assertEquals(queried.contains(m), s.isQueried(m));
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package peersim.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import peersim.util.ColumnarTraceWriter.Type;
+
+public class ColumnarTraceReaderTest {
+
+  private static final String[] COLUMNS = {"id", "ratio", "type", "src", "dst", "text"};
+
+  private static final Type[] TYPES = {
+    Type.LONG, Type.DOUBLE, Type.DICT, Type.NODE, Type.NODE, Type.TEXT
+  };
+
+  @TempDir File dir;
+
+  @Test
+  public void readsBackWhatWasWritten() throws IOException {
+    Object[][] rows = {
+      {1L, 0.5, "FIND", "100", "200", "a"},
+      {2L, null, "GET", "200", "300", null},
+      {null, 2.0, null, "300", null, "line\nbreak"},
+      {4L, -1.25, "FIND", "100", "100", "\u00e9"}
+    };
+    ColumnarTraceWriter w = new ColumnarTraceWriter(dir, COLUMNS, TYPES, 2);
+    for (Object[] row : rows) w.add(row.clone());
+    w.close();
+
+    ColumnarTraceReader r = new ColumnarTraceReader(dir);
+    assertEquals(rows.length, r.getRowCount());
+    for (int row = 0; row < rows.length; row++) {
+      for (int c = 0; c < COLUMNS.length; c++) {
+        Object expected = rows[row][c];
+        if (expected instanceof String) expected = ((String) expected).replace('\n', ' ');
+        // missing text values are read as empty strings
+        if (expected == null && TYPES[c] == Type.TEXT) expected = "";
+        assertEquals(expected, r.get(c, row), COLUMNS[c] + " of row " + row);
+      }
+    }
+    assertEquals(ColumnarTraceWriter.NULL_LONG, r.getLong(0, 2));
+    assertEquals(-1, r.getCode(2, 2));
+    assertEquals(List.of("FIND", "GET"), r.getDictionary(2));
+  }
+
+  @Test
+  public void nodeColumnsShareCodes() throws IOException {
+    ColumnarTraceWriter w = new ColumnarTraceWriter(dir, COLUMNS, TYPES, 16);
+    w.add(1L, 0.0, "FIND", "100", "200", "");
+    w.add(2L, 0.0, "FIND", "200", "100", "");
+    w.add(3L, 0.0, "FIND", "300", "200", "");
+    w.close();
+
+    ColumnarTraceReader r = new ColumnarTraceReader(dir);
+    int src = r.getColumnIndex("src");
+    int dst = r.getColumnIndex("dst");
+    assertEquals(List.of("100", "200", "300"), r.getDictionary(src));
+    assertEquals(r.getDictionary(src), r.getDictionary(dst));
+    assertEquals(r.getCode(src, 0), r.getCode(dst, 1));
+    assertEquals(r.getCode(src, 1), r.getCode(dst, 0));
+    assertEquals(r.getCode(src, 1), r.getCode(dst, 2));
+    assertEquals(2, r.getCode(src, 2));
+  }
+
+  @Test
+  public void readsTracesWithoutRows() throws IOException {
+    new ColumnarTraceWriter(dir, COLUMNS, TYPES, 16).close();
+    ColumnarTraceReader r = new ColumnarTraceReader(dir);
+    assertEquals(0, r.getRowCount());
+    assertEquals(List.of(), r.getDictionary(3));
+    assertEquals(Type.NODE, r.getType(3));
+  }
+}
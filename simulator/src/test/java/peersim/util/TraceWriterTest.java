@@ -0,0 +1,123 @@
+package peersim.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import peersim.core.CommonState;
+
+public class TraceWriterTest {
+
+  /** Keeps the rows in memory, and fails on close or on a given row. */
+  private static class FailingWriter extends TraceWriter {
+
+    final List<Object[]> rows = new ArrayList<>();
+
+    final boolean failOnClose;
+
+    final int failOnRow;
+
+    FailingWriter(boolean failOnClose, int failOnRow) {
+      super("test", new String[] {"a"}, 4);
+      this.failOnClose = failOnClose;
+      this.failOnRow = failOnRow;
+      start();
+    }
+
+    protected void write(Object[] values) throws IOException {
+      if (rows.size() == failOnRow) throw new IOException("write failed");
+      rows.add(values);
+    }
+
+    protected void flushFiles() {}
+
+    protected void closeFiles() throws IOException {
+      if (failOnClose) throw new IOException("close failed");
+    }
+  }
+
+  @Test
+  public void writesRowsInOrder() {
+    FailingWriter w = new FailingWriter(false, -1);
+    for (int i = 0; i < 100; i++) w.add(i);
+    w.flush();
+    assertEquals(100, w.rows.size());
+    for (int i = 0; i < 100; i++) assertEquals(i, w.rows.get(i)[0]);
+    w.close();
+  }
+
+  @Test
+  public void closeReturnsWhenClosingFails() {
+    assertTimeoutPreemptively(
+        Duration.ofSeconds(5),
+        () -> {
+          FailingWriter w = new FailingWriter(true, -1);
+          w.add(1);
+          w.close();
+          w.flush();
+        });
+  }
+
+  @Test
+  public void flushAndCloseReturnAfterAWriteError() {
+    assertTimeoutPreemptively(
+        Duration.ofSeconds(5),
+        () -> {
+          FailingWriter w = new FailingWriter(false, 2);
+          for (int i = 0; i < 20; i++) w.add(i);
+          w.flush();
+          w.close();
+          w.flush();
+          assertEquals(2, w.rows.size());
+        });
+  }
+
+  /**
+   * Rows added by the partitions of a parallel engine come out in partition order, whatever the
+   * order the threads add them in, and only the first one of each key is kept.
+   */
+  @Test
+  public void mergesPartitionsInOrder() throws Exception {
+    FailingWriter w = new FailingWriter(false, -1);
+    CommonState.setThreadLocal(true);
+    TraceWriter.setPartitions(3);
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      w.add("before");
+      List<Future<?>> done = new ArrayList<>();
+      for (int p = 2; p >= 0; p--) {
+        final int partition = p;
+        done.add(
+            pool.submit(
+                () -> {
+                  CommonState.bindPartition(partition, null);
+                  for (int i = 0; i < 3; i++) w.add(partition + "." + i);
+                  w.addOnce("key", "once " + partition);
+                }));
+      }
+      for (Future<?> f : done) f.get();
+      TraceWriter.mergePartitions();
+      w.add("after");
+    } finally {
+      pool.shutdownNow();
+      TraceWriter.setPartitions(0);
+      CommonState.setThreadLocal(false);
+    }
+    w.flush();
+    List<Object> values = new ArrayList<>();
+    for (Object[] row : w.rows) values.add(row[0]);
+    assertEquals(
+        List.of(
+            "before", "0.0", "0.1", "0.2", "once 0", "1.0", "1.1", "1.2", "2.0", "2.1", "2.2",
+            "after"),
+        values);
+    w.close();
+  }
+}